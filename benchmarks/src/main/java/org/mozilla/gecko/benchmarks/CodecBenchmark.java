@@ -0,0 +1,122 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.mozilla.gecko.sync.Base64Codec;
+import org.mozilla.gecko.sync.HexCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hex and Base64 codecs against commons-codec. 32 bytes is an HMAC or key;
+ * 4096 bytes is a typical record ciphertext.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+  @Param({ "32", "4096" })
+  public int size;
+
+  protected byte[] bytes;
+  protected String hex;
+  protected String base64;
+  protected char[] hexBuffer;
+  protected byte[] base64Buffer;
+  protected byte[] base64Bytes;
+  protected byte[] decodeBuffer;
+
+  @Setup
+  public void setup() {
+    bytes = new byte[size];
+    new Random(1L).nextBytes(bytes);
+    hex = HexCodec.encodeToString(bytes);
+    base64 = Base64Codec.encodeToString(bytes);
+    base64Bytes = Base64Codec.encode(bytes);
+    hexBuffer = new char[2 * size];
+    base64Buffer = new byte[Base64Codec.encodedLength(size)];
+    decodeBuffer = new byte[size];
+  }
+
+  @Benchmark
+  public String hexEncode() {
+    return HexCodec.encodeToString(bytes);
+  }
+
+  @Benchmark
+  public char[] hexEncodeInto() {
+    HexCodec.encode(bytes, 0, bytes.length, hexBuffer, 0);
+    return hexBuffer;
+  }
+
+  @Benchmark
+  public String hexEncodeCommons() {
+    return new String(Hex.encodeHex(bytes));
+  }
+
+  @Benchmark
+  public byte[] hexDecode() {
+    return HexCodec.decode(hex);
+  }
+
+  @Benchmark
+  public byte[] hexDecodeInto() {
+    HexCodec.decode(hex, 0, hex.length(), decodeBuffer, 0);
+    return decodeBuffer;
+  }
+
+  @Benchmark
+  public byte[] hexDecodeCommons() throws Exception {
+    return Hex.decodeHex(hex.toCharArray());
+  }
+
+  @Benchmark
+  public String base64Encode() {
+    return Base64Codec.encodeToString(bytes);
+  }
+
+  @Benchmark
+  public byte[] base64EncodeInto() {
+    Base64Codec.encode(bytes, 0, bytes.length, base64Buffer, 0);
+    return base64Buffer;
+  }
+
+  @Benchmark
+  public String base64EncodeCommons() {
+    return new String(Base64.encodeBase64(bytes));
+  }
+
+  @Benchmark
+  public byte[] base64Decode() {
+    return Base64Codec.decode(base64);
+  }
+
+  @Benchmark
+  public byte[] base64DecodeInto() {
+    Base64Codec.decode(base64Bytes, 0, base64Bytes.length, decodeBuffer, 0);
+    return decodeBuffer;
+  }
+
+  @Benchmark
+  public byte[] base64DecodeCommons() throws Exception {
+    return Base64.decodeBase64(base64.getBytes("UTF-8"));
+  }
+}
@@ -0,0 +1,55 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mozilla.gecko.sync.crypto.CryptoInfo;
+import org.mozilla.gecko.sync.crypto.KeyBundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AES-256-CBC + HMAC-SHA256 of record cleartexts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoInfoBenchmark {
+  @Param({ "256", "1024", "16384" })
+  public int size;
+
+  protected KeyBundle keyBundle;
+  protected byte[] cleartext;
+  protected CryptoInfo encrypted;
+
+  @Setup
+  public void setup() throws Exception {
+    keyBundle = Fixtures.keyBundle();
+    cleartext = Fixtures.cleartext(size).toJSONString().getBytes("UTF-8");
+    encrypted = CryptoInfo.encrypt(cleartext, keyBundle);
+  }
+
+  @Benchmark
+  public CryptoInfo encrypt() throws Exception {
+    return CryptoInfo.encrypt(cleartext, keyBundle);
+  }
+
+  @Benchmark
+  public CryptoInfo decrypt() throws Exception {
+    return CryptoInfo.decrypt(encrypted.getMessage(), encrypted.getIV(), encrypted.getHMAC(), keyBundle);
+  }
+}
@@ -0,0 +1,56 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mozilla.gecko.sync.CryptoRecord;
+import org.mozilla.gecko.sync.crypto.KeyBundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-record download path: parse a storage server record and decrypt
+ * its payload.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoRecordBenchmark {
+  @Param({ "256", "1024", "16384" })
+  public int size;
+
+  protected KeyBundle keyBundle;
+  protected String json;
+
+  @Setup
+  public void setup() throws Exception {
+    keyBundle = Fixtures.keyBundle();
+    json = Fixtures.encryptedRecord(size, keyBundle);
+  }
+
+  @Benchmark
+  public CryptoRecord fromJSONRecord() throws Exception {
+    return CryptoRecord.fromJSONRecord(json);
+  }
+
+  @Benchmark
+  public CryptoRecord fromJSONRecordAndDecrypt() throws Exception {
+    final CryptoRecord record = CryptoRecord.fromJSONRecord(json);
+    record.keyBundle = keyBundle;
+    return record.decrypt();
+  }
+}
@@ -0,0 +1,57 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mozilla.gecko.sync.ExtendedJSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing record envelopes and decrypted cleartexts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtendedJSONObjectBenchmark {
+  @Param({ "256", "1024", "16384" })
+  public int size;
+
+  protected String envelope;
+  protected byte[] cleartext;
+
+  @Setup
+  public void setup() throws Exception {
+    envelope = Fixtures.encryptedRecord(size, Fixtures.keyBundle());
+    cleartext = Fixtures.cleartext(size).toJSONString().getBytes("UTF-8");
+  }
+
+  @Benchmark
+  public ExtendedJSONObject parseEnvelope() throws Exception {
+    return ExtendedJSONObject.parseJSONObject(envelope);
+  }
+
+  @Benchmark
+  public ExtendedJSONObject parseUTF8Cleartext() throws Exception {
+    return ExtendedJSONObject.parseUTF8AsJSONObject(cleartext);
+  }
+
+  @Benchmark
+  public String parseAndSerialize() throws Exception {
+    return ExtendedJSONObject.parseUTF8AsJSONObject(cleartext).toJSONString();
+  }
+}
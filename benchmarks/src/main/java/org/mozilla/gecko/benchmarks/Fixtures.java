@@ -0,0 +1,69 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.benchmarks;
+
+import java.util.Random;
+
+import org.json.simple.JSONArray;
+import org.mozilla.gecko.sync.CryptoRecord;
+import org.mozilla.gecko.sync.ExtendedJSONObject;
+import org.mozilla.gecko.sync.Utils;
+import org.mozilla.gecko.sync.crypto.KeyBundle;
+
+/**
+ * Realistic inputs shared by the benchmarks.
+ * <p>
+ * Sync record cleartexts are mostly small: history and bookmark records are
+ * a few hundred bytes, form history smaller still, while tabs and clients
+ * records with many entries reach tens of kilobytes. The <code>size</code>
+ * parameters used throughout approximate those.
+ */
+public class Fixtures {
+  // Fixed keys so runs are comparable.
+  public static final String ENCRYPTION_KEY = "gIkkXt5jwE8p6qvDDCUuUSlQJt4BZD7vJf2Rdlj0Tn8=";
+  public static final String HMAC_KEY = "W1oAuUkEdgCHbCapMtpI5pX6VW7Gi6c5BVs8KtGnCD8=";
+
+  public static KeyBundle keyBundle() throws Exception {
+    return KeyBundle.fromBase64EncodedKeys(ENCRYPTION_KEY, HMAC_KEY);
+  }
+
+  /**
+   * @return a history-like cleartext payload of roughly <code>size</code> bytes.
+   */
+  @SuppressWarnings("unchecked")
+  public static ExtendedJSONObject cleartext(int size) {
+    final Random random = new Random(size);
+    final ExtendedJSONObject payload = new ExtendedJSONObject();
+    payload.put("id", Utils.generateGuid());
+    payload.put("histUri", "https://developer.mozilla.org/en-US/docs/Mozilla/Projects/NSS/Reference");
+    payload.put("title", "NSS Reference - Mozilla | MDN");
+    final JSONArray visits = new JSONArray();
+    long date = 1400000000000000L;
+    while (payload.toJSONString().length() < size) {
+      final ExtendedJSONObject visit = new ExtendedJSONObject();
+      date += random.nextInt(1000000000);
+      visit.put("date", date);
+      visit.put("type", 1 + random.nextInt(8));
+      visits.add(visit.object);
+      payload.put("visits", visits);
+    }
+    return payload;
+  }
+
+  /**
+   * @return a whole encrypted record, as the storage server returns it, whose
+   *         cleartext is roughly <code>size</code> bytes.
+   */
+  public static String encryptedRecord(int size, KeyBundle keyBundle) throws Exception {
+    final CryptoRecord record = new CryptoRecord(cleartext(size));
+    record.guid = Utils.generateGuid();
+    record.collection = "history";
+    record.keyBundle = keyBundle;
+    record.encrypt();
+    final ExtendedJSONObject o = new ExtendedJSONObject(record.toJSONObject());
+    o.put("modified", 1400000000.12);
+    o.put("sortindex", 100);
+    return o.toJSONString();
+  }
+}
@@ -0,0 +1,49 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mozilla.gecko.sync.Utils;
+import org.mozilla.gecko.sync.crypto.HKDF;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HKDF-SHA256 as used by the FxA client: 32 byte inputs, deriving 32 to 96
+ * bytes (tokenId + reqHMACKey + requestKey is the largest).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HKDFBenchmark {
+  @Param({ "32", "64", "96" })
+  public int dkLen;
+
+  protected byte[] skm;
+  protected byte[] info;
+
+  @Setup
+  public void setup() throws Exception {
+    skm = Utils.generateRandomBytes(32);
+    info = "identity.mozilla.com/picl/v1/sessionToken".getBytes("UTF-8");
+  }
+
+  @Benchmark
+  public byte[] derive() throws Exception {
+    return HKDF.derive(skm, new byte[0], info, dkLen);
+  }
+}
@@ -0,0 +1,75 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.mozilla.gecko.sync.Utils;
+import org.mozilla.gecko.sync.crypto.KeyBundle;
+import org.mozilla.gecko.sync.net.HawkAuthHeaderProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hawk Authorization headers for a storage GET and for a POST of
+ * <code>size</code> bytes of records, with payload hashing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HawkAuthHeaderBenchmark {
+  @Param({ "1024", "65536" })
+  public int size;
+
+  protected HawkAuthHeaderProvider provider;
+  protected HttpUriRequest get;
+  protected HttpUriRequest post;
+
+  @Setup
+  public void setup() throws Exception {
+    provider = new HawkAuthHeaderProvider("eyJub2RlIjogImh0dHBzOi8vc3luYy0xLXVzLWVhc3QtMS5zeW5jLnNlcnZpY2VzLm1vemlsbGEuY29tIn0",
+        Utils.generateRandomBytes(32), true, 0L);
+    get = new HttpGet("https://sync-1-us-east-1.sync.services.mozilla.com/1.5/12345/storage/history?full=1&newer=1400000000.00&sort=index&limit=1000");
+
+    final StringBuilder body = new StringBuilder("[");
+    final KeyBundle keyBundle = Fixtures.keyBundle();
+    while (body.length() < size) {
+      if (body.length() > 1) {
+        body.append(",");
+      }
+      body.append(Fixtures.encryptedRecord(512, keyBundle));
+    }
+    body.append("]");
+    final HttpPost httpPost = new HttpPost("https://sync-1-us-east-1.sync.services.mozilla.com/1.5/12345/storage/history");
+    httpPost.setEntity(new StringEntity(body.toString(), "UTF-8"));
+    post = httpPost;
+  }
+
+  @Benchmark
+  public Header getAuthHeaderGet() throws Exception {
+    return provider.getAuthHeader(get, null, null);
+  }
+
+  @Benchmark
+  public Header getAuthHeaderPost() throws Exception {
+    return provider.getAuthHeader(post, null, null);
+  }
+}
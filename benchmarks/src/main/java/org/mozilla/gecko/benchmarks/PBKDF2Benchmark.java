@@ -0,0 +1,86 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.benchmarks;
+
+import java.security.spec.KeySpec;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.mozilla.gecko.sync.crypto.PBKDF2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PBKDF2-SHA256 with the FxA onepw quick-stretch parameters (1000 iterations,
+ * 32 bytes) for each implementation PBKDF2 can select.
+ * <p>
+ * <code>JCE</code> calls <code>PBKDF2WithHmacSHA256</code> directly, because
+ * PBKDF2 only routes there on Java 1.8; <code>MOZ</code> is the pure Java
+ * fallback. <code>PBEKeySpec</code> takes characters, which the JCE encodes
+ * as UTF-8, so the password is decoded once in setup and the result is checked
+ * against <code>MOZ</code> before measuring.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PBKDF2Benchmark {
+  public static final int ITERATIONS = 1000;
+  public static final int DK_LEN = 32;
+
+  @Param({ "BC", "JCE", "MOZ" })
+  public String provider;
+
+  protected byte[] password;
+  protected char[] passwordChars;
+  protected byte[] salt;
+  protected String previousProvider;
+
+  @Setup
+  public void setup() throws Exception {
+    password = "andré@example.org:pässwörd".getBytes("UTF-8");
+    salt = "identity.mozilla.com/picl/v1/quickStretch:andré@example.org".getBytes("UTF-8");
+    passwordChars = new String(password, "UTF-8").toCharArray();
+    previousProvider = PBKDF2.getCryptoProvider();
+    if ("BC".equals(provider)) {
+      PBKDF2.setCryptoProvider("BC");
+    }
+    if (!Arrays.equals(PBKDF2.MozPbkdf2SHA256(password, salt, ITERATIONS, DK_LEN), pbkdf2SHA256())) {
+      throw new IllegalStateException(provider + " does not match the reference PBKDF2");
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    PBKDF2.setCryptoProvider(previousProvider);
+  }
+
+  @Benchmark
+  public byte[] pbkdf2SHA256() throws Exception {
+    if ("BC".equals(provider)) {
+      return PBKDF2.pbkdf2SHA256(password, salt, ITERATIONS, DK_LEN);
+    }
+    if ("JCE".equals(provider)) {
+      SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+      KeySpec spec = new PBEKeySpec(passwordChars, salt, ITERATIONS, DK_LEN * 8);
+      return factory.generateSecret(spec).getEncoded();
+    }
+    return PBKDF2.MozPbkdf2SHA256(password, salt, ITERATIONS, DK_LEN);
+  }
+}
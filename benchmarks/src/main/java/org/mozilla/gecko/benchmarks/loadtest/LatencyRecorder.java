@@ -0,0 +1,76 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.benchmarks.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples for one named step and reports percentiles.
+ * <p>
+ * Samples are kept exactly (a load test run produces at most a few hundred
+ * thousand), so percentiles are exact rather than estimated.
+ */
+public class LatencyRecorder {
+  protected final String name;
+  protected long[] samples = new long[1024];
+  protected int count;
+  protected int errors;
+
+  public LatencyRecorder(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public synchronized void record(long nanos) {
+    if (count == samples.length) {
+      samples = Arrays.copyOf(samples, 2 * samples.length);
+    }
+    samples[count++] = nanos;
+  }
+
+  public synchronized void recordError() {
+    errors++;
+  }
+
+  public synchronized int getCount() {
+    return count;
+  }
+
+  public synchronized int getErrorCount() {
+    return errors;
+  }
+
+  /**
+   * @param percentile between 0 and 100.
+   * @return the sample at that percentile, in nanoseconds, or -1 if there are no samples.
+   */
+  public synchronized long percentile(double percentile) {
+    if (count == 0) {
+      return -1;
+    }
+    final long[] sorted = Arrays.copyOf(samples, count);
+    Arrays.sort(sorted);
+    final int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+    return sorted[Math.max(0, Math.min(count - 1, index))];
+  }
+
+  public static String header() {
+    return String.format("%-16s %8s %6s %10s %10s %10s %10s %10s",
+        "step", "count", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+  }
+
+  public String summary() {
+    return String.format("%-16s %8d %6d %10.2f %10.2f %10.2f %10.2f %10.2f",
+        name, getCount(), getErrorCount(),
+        millis(percentile(50)), millis(percentile(90)), millis(percentile(99)),
+        millis(percentile(99.9)), millis(percentile(100)));
+  }
+
+  protected static double millis(long nanos) {
+    return nanos / 1000000.0;
+  }
+}
@@ -0,0 +1,382 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.benchmarks.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.mozilla.gecko.background.fxa.FxAccountClient10.RequestDelegate;
+import org.mozilla.gecko.background.fxa.FxAccountClient10.TwoKeys;
+import org.mozilla.gecko.background.fxa.FxAccountClient20;
+import org.mozilla.gecko.background.fxa.FxAccountClient20.LoginResponse;
+import org.mozilla.gecko.background.fxa.FxAccountClientException.FxAccountClientRemoteException;
+import org.mozilla.gecko.background.fxa.FxAccountUtils;
+import org.mozilla.gecko.browserid.BrowserIDKeyPair;
+import org.mozilla.gecko.browserid.JSONWebTokenUtils;
+import org.mozilla.gecko.browserid.RSACryptoImplementation;
+import org.mozilla.gecko.sync.CryptoRecord;
+import org.mozilla.gecko.sync.ExtendedJSONObject;
+import org.mozilla.gecko.sync.net.AuthHeaderProvider;
+import org.mozilla.gecko.sync.net.BaseResource;
+import org.mozilla.gecko.sync.net.BaseResourceDelegate;
+import org.mozilla.gecko.sync.net.HawkAuthHeaderProvider;
+import org.mozilla.gecko.sync.net.SyncResponse;
+import org.mozilla.gecko.sync.crypto.KeyBundle;
+import org.mozilla.gecko.tokenserver.TokenServerClient;
+import org.mozilla.gecko.tokenserver.TokenServerClientDelegate;
+import org.mozilla.gecko.tokenserver.TokenServerException;
+import org.mozilla.gecko.tokenserver.TokenServerToken;
+
+/**
+ * Drive N concurrent simulated clients through a complete Sync sign-in and
+ * download against a local {@link StubSyncServer}:
+ * login, keys, certificate sign, token, then fetch and decrypt a collection.
+ * <p>
+ * Runs entirely offline. Usage:
+ *
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar org.mozilla.gecko.benchmarks.loadtest.LoadTest \
+ *     [--clients 16] [--iterations 20] [--records 100] [--server-threads 8]
+ * </pre>
+ *
+ * Each client owns one account and one BrowserID key pair, and repeats the
+ * whole flow <code>iterations</code> times. Reports overall flow throughput
+ * and per-step latency percentiles.
+ */
+public class LoadTest {
+  public static final long CERTIFICATE_DURATION_IN_MILLISECONDS = 60 * 60 * 1000;
+  public static final String COLLECTION = "history";
+
+  // Callbacks run on whichever thread delivered the response.
+  protected static final Executor DIRECT_EXECUTOR = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  protected final StubSyncServer server;
+  protected final int iterations;
+
+  protected final LatencyRecorder login = new LatencyRecorder("login");
+  protected final LatencyRecorder keys = new LatencyRecorder("keys");
+  protected final LatencyRecorder sign = new LatencyRecorder("sign");
+  protected final LatencyRecorder token = new LatencyRecorder("token");
+  protected final LatencyRecorder fetch = new LatencyRecorder("fetch+decrypt");
+  protected final LatencyRecorder flow = new LatencyRecorder("flow");
+  protected final AtomicLong recordsDecrypted = new AtomicLong();
+
+  public LoadTest(StubSyncServer server, int iterations) {
+    this.server = server;
+    this.iterations = iterations;
+  }
+
+  /**
+   * Wait for exactly one of a delegate's terminal callbacks.
+   */
+  protected static class Result<T> {
+    protected final CountDownLatch latch = new CountDownLatch(1);
+    protected volatile T value;
+    protected volatile Exception error;
+
+    public void succeed(T value) {
+      this.value = value;
+      latch.countDown();
+    }
+
+    public void fail(Exception error) {
+      this.error = error;
+      latch.countDown();
+    }
+
+    public T get() throws Exception {
+      if (!latch.await(2, TimeUnit.MINUTES)) {
+        throw new IllegalStateException("Timed out waiting for response.");
+      }
+      if (error != null) {
+        throw error;
+      }
+      return value;
+    }
+
+    public RequestDelegate<T> delegate() {
+      return new RequestDelegate<T>() {
+        @Override
+        public void handleSuccess(T result) {
+          succeed(result);
+        }
+
+        @Override
+        public void handleFailure(FxAccountClientRemoteException e) {
+          fail(e);
+        }
+
+        @Override
+        public void handleError(Exception e) {
+          fail(e);
+        }
+      };
+    }
+  }
+
+  protected class SimulatedClient implements Runnable {
+    protected final String email;
+    protected final byte[] emailUTF8;
+    protected final byte[] quickStretchedPW;
+    protected final byte[] unwrapBKey;
+    protected final BrowserIDKeyPair keyPair;
+    protected final FxAccountClient20 fxaClient;
+    protected final TokenServerClient tokenServerClient;
+
+    public SimulatedClient(String email, String password) throws Exception {
+      this.email = email;
+      this.emailUTF8 = email.getBytes("UTF-8");
+      this.quickStretchedPW = FxAccountUtils.generateQuickStretchedPW(emailUTF8, password.getBytes("UTF-8"));
+      this.unwrapBKey = FxAccountUtils.generateUnwrapBKey(quickStretchedPW);
+      this.keyPair = RSACryptoImplementation.generateKeyPair(1024);
+      this.fxaClient = new FxAccountClient20(server.getAuthServerURI(), DIRECT_EXECUTOR);
+      this.tokenServerClient = new TokenServerClient(new URI(server.getTokenServerURI()), DIRECT_EXECUTOR);
+    }
+
+    @Override
+    public void run() {
+      for (int i = 0; i < iterations; i++) {
+        final long start = System.nanoTime();
+        try {
+          runFlow();
+          flow.record(System.nanoTime() - start);
+        } catch (Exception e) {
+          flow.recordError();
+        }
+      }
+    }
+
+    protected void runFlow() throws Exception {
+      long start = System.nanoTime();
+      final LoginResponse loginResponse;
+      try {
+        final Result<LoginResponse> result = new Result<LoginResponse>();
+        fxaClient.login(emailUTF8, quickStretchedPW, true, null, result.delegate());
+        loginResponse = result.get();
+      } catch (Exception e) {
+        login.recordError();
+        throw e;
+      }
+      login.record(System.nanoTime() - start);
+
+      start = System.nanoTime();
+      final byte[] kB;
+      try {
+        final Result<TwoKeys> result = new Result<TwoKeys>();
+        fxaClient.keys(loginResponse.keyFetchToken, result.delegate());
+        kB = FxAccountUtils.unwrapkB(unwrapBKey, result.get().wrapkB);
+      } catch (Exception e) {
+        keys.recordError();
+        throw e;
+      }
+      keys.record(System.nanoTime() - start);
+
+      start = System.nanoTime();
+      final String certificate;
+      try {
+        final Result<String> result = new Result<String>();
+        fxaClient.sign(loginResponse.sessionToken, keyPair.getPublic().toJSONObject(), CERTIFICATE_DURATION_IN_MILLISECONDS, result.delegate());
+        certificate = result.get();
+      } catch (Exception e) {
+        sign.recordError();
+        throw e;
+      }
+      sign.record(System.nanoTime() - start);
+
+      start = System.nanoTime();
+      final TokenServerToken tokenServerToken;
+      try {
+        final long now = System.currentTimeMillis();
+        final String audience = FxAccountUtils.getAudienceForURL(server.getTokenServerURI());
+        final String assertion = JSONWebTokenUtils.createAssertion(keyPair.getPrivate(), certificate, audience,
+            JSONWebTokenUtils.DEFAULT_ASSERTION_ISSUER, now, now + CERTIFICATE_DURATION_IN_MILLISECONDS);
+        tokenServerToken = fetchToken(assertion, FxAccountUtils.computeClientState(kB));
+      } catch (Exception e) {
+        token.recordError();
+        throw e;
+      }
+      token.record(System.nanoTime() - start);
+
+      start = System.nanoTime();
+      try {
+        final int count = fetchAndDecrypt(tokenServerToken, FxAccountUtils.generateSyncKeyBundle(kB));
+        recordsDecrypted.addAndGet(count);
+      } catch (Exception e) {
+        fetch.recordError();
+        throw e;
+      }
+      fetch.record(System.nanoTime() - start);
+    }
+
+    protected TokenServerToken fetchToken(String assertion, String clientState) throws Exception {
+      final Result<TokenServerToken> result = new Result<TokenServerToken>();
+      tokenServerClient.getTokenFromBrowserIDAssertion(assertion, true, clientState, new TokenServerClientDelegate() {
+        @Override
+        public void handleSuccess(TokenServerToken token) {
+          result.succeed(token);
+        }
+
+        @Override
+        public void handleFailure(TokenServerException e) {
+          result.fail(e);
+        }
+
+        @Override
+        public void handleError(Exception e) {
+          result.fail(e);
+        }
+
+        @Override
+        public void handleBackoff(int backoffSeconds) {
+        }
+
+        @Override
+        public String getUserAgent() {
+          return null;
+        }
+      });
+      return result.get();
+    }
+
+    protected int fetchAndDecrypt(final TokenServerToken token, final KeyBundle keyBundle) throws Exception {
+      final Result<Integer> result = new Result<Integer>();
+      final BaseResource resource = new BaseResource(token.endpoint + "/storage/" + COLLECTION + "?full=1");
+      resource.delegate = new BaseResourceDelegate(resource) {
+        @Override
+        public AuthHeaderProvider getAuthHeaderProvider() {
+          try {
+            return new HawkAuthHeaderProvider(token.id, token.key.getBytes("UTF-8"), false, 0L);
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+
+        @Override
+        public String getUserAgent() {
+          return null;
+        }
+
+        @Override
+        public void handleHttpResponse(HttpResponse response) {
+          try {
+            final SyncResponse res = new SyncResponse(response);
+            if (!res.wasSuccessful()) {
+              BaseResource.consumeEntity(response);
+              throw new IOException("Storage request failed with status " + res.getStatusCode());
+            }
+            final JSONArray records = ExtendedJSONObject.parseJSONArray(res.body());
+            for (Object o : records) {
+              final CryptoRecord record = CryptoRecord.fromJSONRecord(new ExtendedJSONObject((JSONObject) o));
+              record.keyBundle = keyBundle;
+              record.decrypt();
+            }
+            result.succeed(records.size());
+          } catch (Exception e) {
+            result.fail(e);
+          }
+        }
+
+        @Override
+        public void handleHttpProtocolException(ClientProtocolException e) {
+          result.fail(e);
+        }
+
+        @Override
+        public void handleHttpIOException(IOException e) {
+          result.fail(e);
+        }
+
+        @Override
+        public void handleTransportException(GeneralSecurityException e) {
+          result.fail(e);
+        }
+      };
+      resource.get();
+      return result.get();
+    }
+  }
+
+  /**
+   * Run <code>clients</code> concurrent simulated clients to completion.
+   *
+   * @return wall-clock duration, in nanoseconds.
+   */
+  public long run(List<SimulatedClient> clients) throws InterruptedException {
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < clients.size(); i++) {
+      threads.add(new Thread(clients.get(i), "loadtest-client-" + i));
+    }
+    final long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return System.nanoTime() - start;
+  }
+
+  public void report(long elapsedNanos) {
+    final double seconds = elapsedNanos / 1e9;
+    System.out.println(String.format("Completed %d flows (%d failed) in %.2fs: %.1f flows/s, %.1f requests/s, %.0f records/s.",
+        flow.getCount(), flow.getErrorCount(), seconds,
+        flow.getCount() / seconds, server.getRequestCount() / seconds, recordsDecrypted.get() / seconds));
+    System.out.println(LatencyRecorder.header());
+    for (LatencyRecorder recorder : new LatencyRecorder[] { login, keys, sign, token, fetch, flow }) {
+      System.out.println(recorder.summary());
+    }
+  }
+
+  protected static int intArgument(String[] args, String name, int defaultValue) {
+    for (int i = 0; i < args.length - 1; i++) {
+      if (args[i].equals(name)) {
+        return Integer.parseInt(args[i + 1]);
+      }
+    }
+    return defaultValue;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final int clientCount = intArgument(args, "--clients", 16);
+    final int iterations = intArgument(args, "--iterations", 20);
+    final int recordCount = intArgument(args, "--records", 100);
+    final int serverThreads = intArgument(args, "--server-threads", 8);
+
+    BaseResource.rewriteLocalhost = false;
+    final StubSyncServer server = new StubSyncServer(serverThreads);
+    server.start();
+    try {
+      System.out.println(String.format("Stub server at %s; preparing %d clients with %d records each...",
+          server.getBaseURI(), clientCount, recordCount));
+      final LoadTest loadTest = new LoadTest(server, iterations);
+      final List<SimulatedClient> clients = new ArrayList<SimulatedClient>();
+      for (int i = 0; i < clientCount; i++) {
+        final String email = "loadtest-" + i + "@example.com";
+        final String password = "password-" + i;
+        server.addAccount(email, password, recordCount);
+        clients.add(loadTest.new SimulatedClient(email, password));
+      }
+      loadTest.report(loadTest.run(clients));
+    } finally {
+      server.stop();
+      BaseResource.shutdownConnectionManager();
+    }
+  }
+}
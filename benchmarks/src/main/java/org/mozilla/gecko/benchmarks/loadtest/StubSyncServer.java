@@ -0,0 +1,401 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.benchmarks.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+
+import org.json.simple.JSONArray;
+import org.mozilla.gecko.benchmarks.Fixtures;
+import org.mozilla.gecko.browserid.BrowserIDKeyPair;
+import org.mozilla.gecko.browserid.JSONWebTokenUtils;
+import org.mozilla.gecko.browserid.RSACryptoImplementation;
+import org.mozilla.gecko.browserid.VerifyingPublicKey;
+import org.mozilla.gecko.background.fxa.FxAccountUtils;
+import org.mozilla.gecko.sync.CryptoRecord;
+import org.mozilla.gecko.sync.ExtendedJSONObject;
+import org.mozilla.gecko.sync.Utils;
+import org.mozilla.gecko.sync.crypto.HKDF;
+import org.mozilla.gecko.sync.crypto.KeyBundle;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local, in-memory stand-in for the three services a Sync client talks to:
+ * <ul>
+ * <li>the FxA auth server v1 endpoints used by <code>FxAccountClient20</code>
+ * (<code>account/login</code>, <code>account/keys</code>,
+ * <code>recovery_email/status</code>, <code>certificate/sign</code>), under
+ * <code>/auth/v1/</code>;</li>
+ * <li>the token server <code>1.0/sync/1.5</code> endpoint, under
+ * <code>/token/</code>;</li>
+ * <li>read-only Sync 1.5 storage collections, under <code>/storage/1.5/</code>.</li>
+ * </ul>
+ * <p>
+ * It performs the server side of the key exchange for real (keys bundles,
+ * certificates and assertions are genuine), so clients exercise exactly the
+ * code they would against production. To stay cheap enough to load test the
+ * client, it only looks up Hawk credentials by id and does not check MACs,
+ * nonces or timestamps.
+ * <p>
+ * Accounts must be registered with {@link #addAccount(String, String, int)}
+ * before use. Records in every collection are encrypted with the account's
+ * sync key bundle, derived from kB.
+ */
+public class StubSyncServer {
+  public static final String AUTH_PATH = "/auth/v1/";
+  public static final String TOKEN_PATH = "/token/1.0/sync/1.5";
+  public static final String STORAGE_PATH = "/storage/1.5/";
+
+  public static final int RECORD_SIZE = 512;
+  public static final long TOKEN_DURATION_SECONDS = 3600;
+
+  protected static class Account {
+    public final String email;
+    public final long uid;
+    public final byte[] authPW;
+    public final byte[] kA;
+    public final byte[] wrapkB;
+    public final String clientState;
+    public final int recordCount;
+    public final byte[] records;
+
+    public Account(String email, long uid, byte[] authPW, byte[] kA, byte[] wrapkB, String clientState, int recordCount, byte[] records) {
+      this.email = email;
+      this.uid = uid;
+      this.authPW = authPW;
+      this.kA = kA;
+      this.wrapkB = wrapkB;
+      this.clientState = clientState;
+      this.recordCount = recordCount;
+      this.records = records;
+    }
+  }
+
+  protected static class Credentials {
+    public final Account account;
+    public final byte[] requestKey;
+
+    public Credentials(Account account, byte[] requestKey) {
+      this.account = account;
+      this.requestKey = requestKey;
+    }
+  }
+
+  protected final HttpServer server;
+  protected final ExecutorService executor;
+  protected final BrowserIDKeyPair issuerKeyPair;
+  protected final AtomicLong nextUid = new AtomicLong(1);
+  protected final AtomicLong requestCount = new AtomicLong();
+
+  protected final Map<String, Account> accounts = new ConcurrentHashMap<String, Account>();
+  // Hawk id (hex tokenId) to credentials, for session and key fetch tokens.
+  protected final Map<String, Credentials> sessionTokens = new ConcurrentHashMap<String, Credentials>();
+  protected final Map<String, Credentials> keyFetchTokens = new ConcurrentHashMap<String, Credentials>();
+  // Hawk id to account, for storage tokens.
+  protected final Map<String, Account> storageTokens = new ConcurrentHashMap<String, Account>();
+
+  public StubSyncServer(int threads) throws Exception {
+    issuerKeyPair = RSACryptoImplementation.generateKeyPair(1024);
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    executor = Executors.newFixedThreadPool(threads);
+    server.setExecutor(executor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try {
+          dispatch(exchange);
+        } catch (Exception e) {
+          sendError(exchange, 500, e.toString());
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  public String getBaseURI() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  public String getAuthServerURI() {
+    return getBaseURI() + AUTH_PATH;
+  }
+
+  public String getTokenServerURI() {
+    return getBaseURI() + TOKEN_PATH;
+  }
+
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * Register an account, with <code>recordCount</code> history records in its
+   * storage.
+   */
+  @SuppressWarnings("unchecked")
+  public void addAccount(String email, String password, int recordCount) throws Exception {
+    final byte[] emailUTF8 = email.getBytes("UTF-8");
+    final byte[] quickStretchedPW = FxAccountUtils.generateQuickStretchedPW(emailUTF8, password.getBytes("UTF-8"));
+    final byte[] authPW = FxAccountUtils.generateAuthPW(quickStretchedPW);
+    final byte[] unwrapBKey = FxAccountUtils.generateUnwrapBKey(quickStretchedPW);
+    final byte[] kA = Utils.generateRandomBytes(32);
+    final byte[] kB = Utils.generateRandomBytes(32);
+    final byte[] wrapkB = FxAccountUtils.unwrapkB(unwrapBKey, kB);
+
+    final KeyBundle syncKeyBundle = FxAccountUtils.generateSyncKeyBundle(kB);
+    final JSONArray records = new JSONArray();
+    for (int i = 0; i < recordCount; i++) {
+      final CryptoRecord record = new CryptoRecord(Fixtures.cleartext(RECORD_SIZE));
+      record.guid = Utils.generateGuid();
+      record.keyBundle = syncKeyBundle;
+      record.encrypt();
+      final ExtendedJSONObject o = new ExtendedJSONObject(record.toJSONObject());
+      o.put("modified", 1400000000.00 + i);
+      records.add(o.object);
+    }
+
+    final Account account = new Account(email, nextUid.getAndIncrement(), authPW, kA, wrapkB,
+        FxAccountUtils.computeClientState(kB), recordCount, records.toJSONString().getBytes("UTF-8"));
+    accounts.put(email, account);
+  }
+
+  protected void dispatch(HttpExchange exchange) throws Exception {
+    final String path = exchange.getRequestURI().getPath();
+    final String method = exchange.getRequestMethod();
+    if (path.equals(AUTH_PATH + "account/login") && method.equals("POST")) {
+      handleLogin(exchange);
+    } else if (path.equals(AUTH_PATH + "account/keys") && method.equals("GET")) {
+      handleKeys(exchange);
+    } else if (path.equals(AUTH_PATH + "recovery_email/status") && method.equals("GET")) {
+      handleStatus(exchange);
+    } else if (path.equals(AUTH_PATH + "certificate/sign") && method.equals("POST")) {
+      handleSign(exchange);
+    } else if (path.equals(TOKEN_PATH) && method.equals("GET")) {
+      handleToken(exchange);
+    } else if (path.startsWith(STORAGE_PATH) && method.equals("GET")) {
+      handleStorage(exchange, path.substring(STORAGE_PATH.length()));
+    } else {
+      sendError(exchange, 404, "Unknown endpoint " + method + " " + path);
+    }
+  }
+
+  protected void handleLogin(HttpExchange exchange) throws Exception {
+    final ExtendedJSONObject body = readJSONBody(exchange);
+    final Account account = accounts.get(body.getString("email"));
+    if (account == null || !Utils.byte2Hex(account.authPW).equals(body.getString("authPW"))) {
+      sendError(exchange, 400, "Incorrect email or password");
+      return;
+    }
+
+    final byte[] sessionToken = Utils.generateRandomBytes(32);
+    final byte[] keyFetchToken = Utils.generateRandomBytes(32);
+    sessionTokens.put(tokenId(sessionToken, "sessionToken"), new Credentials(account, null));
+    final byte[] tokenId = new byte[32];
+    final byte[] reqHMACKey = new byte[32];
+    final byte[] requestKey = new byte[32];
+    HKDF.deriveMany(keyFetchToken, new byte[0], FxAccountUtils.KW("keyFetchToken"), tokenId, reqHMACKey, requestKey);
+    keyFetchTokens.put(Utils.byte2Hex(tokenId), new Credentials(account, requestKey));
+
+    final ExtendedJSONObject response = new ExtendedJSONObject();
+    response.put("uid", Long.toString(account.uid));
+    response.put("verified", true);
+    response.put("sessionToken", Utils.byte2Hex(sessionToken));
+    response.put("keyFetchToken", Utils.byte2Hex(keyFetchToken));
+    sendJSON(exchange, 200, response.toJSONString());
+  }
+
+  protected void handleKeys(HttpExchange exchange) throws Exception {
+    // Key fetch tokens are single use.
+    final Credentials credentials = keyFetchTokens.remove(hawkId(exchange));
+    if (credentials == null) {
+      sendError(exchange, 401, "Invalid authentication token");
+      return;
+    }
+    final byte[] plaintext = Utils.concatAll(credentials.account.kA, credentials.account.wrapkB);
+    final byte[] respHMACKey = new byte[32];
+    final byte[] respXORKey = new byte[plaintext.length];
+    HKDF.deriveMany(credentials.requestKey, new byte[0], FxAccountUtils.KW("account/keys"), respHMACKey, respXORKey);
+    final byte[] ciphertext = new byte[plaintext.length];
+    for (int i = 0; i < plaintext.length; i++) {
+      ciphertext[i] = (byte) (plaintext[i] ^ respXORKey[i]);
+    }
+    final Mac hmacHasher = HKDF.makeHMACHasher(respHMACKey);
+    final byte[] bundle = Utils.concatAll(ciphertext, hmacHasher.doFinal(ciphertext));
+
+    final ExtendedJSONObject response = new ExtendedJSONObject();
+    response.put("bundle", Utils.byte2Hex(bundle));
+    sendJSON(exchange, 200, response.toJSONString());
+  }
+
+  protected void handleStatus(HttpExchange exchange) throws Exception {
+    final Credentials credentials = sessionTokens.get(hawkId(exchange));
+    if (credentials == null) {
+      sendError(exchange, 401, "Invalid authentication token");
+      return;
+    }
+    final ExtendedJSONObject response = new ExtendedJSONObject();
+    response.put("email", credentials.account.email);
+    response.put("verified", true);
+    sendJSON(exchange, 200, response.toJSONString());
+  }
+
+  protected void handleSign(HttpExchange exchange) throws Exception {
+    final Credentials credentials = sessionTokens.get(hawkId(exchange));
+    if (credentials == null) {
+      sendError(exchange, 401, "Invalid authentication token");
+      return;
+    }
+    final ExtendedJSONObject body = readJSONBody(exchange);
+    final VerifyingPublicKey publicKey = RSACryptoImplementation.createPublicKey(body.getObject("publicKey"));
+    final long duration = body.getLong("duration");
+    final long now = System.currentTimeMillis();
+    final String email = credentials.account.uid + "@" + server.getAddress().getHostString();
+    final String cert = JSONWebTokenUtils.createCertificate(publicKey, email, "127.0.0.1", now, now + duration, issuerKeyPair.getPrivate());
+
+    final ExtendedJSONObject response = new ExtendedJSONObject();
+    response.put("cert", cert);
+    sendJSON(exchange, 200, response.toJSONString());
+  }
+
+  protected void handleToken(HttpExchange exchange) throws Exception {
+    final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+    if (authorization == null || !authorization.startsWith("BrowserID ")) {
+      sendError(exchange, 401, "Missing BrowserID assertion");
+      return;
+    }
+    final String[] parts = authorization.substring("BrowserID ".length()).split("~");
+    if (parts.length != 2) {
+      sendError(exchange, 401, "Malformed BrowserID assertion");
+      return;
+    }
+
+    // Check the certificate is ours, then that the assertion is signed by the certified key.
+    final ExtendedJSONObject certificate = new ExtendedJSONObject(JSONWebTokenUtils.decode(parts[0], issuerKeyPair.getPublic()));
+    final VerifyingPublicKey publicKey = RSACryptoImplementation.createPublicKey(certificate.getObject("public-key"));
+    JSONWebTokenUtils.decode(parts[1], publicKey);
+
+    final String email = certificate.getObject("principal").getString("email");
+    final long uid = Long.parseLong(email.substring(0, email.indexOf('@')));
+    Account account = null;
+    for (Account candidate : accounts.values()) {
+      if (candidate.uid == uid) {
+        account = candidate;
+        break;
+      }
+    }
+    if (account == null) {
+      sendError(exchange, 401, "Unknown user");
+      return;
+    }
+    final String clientState = exchange.getRequestHeaders().getFirst("X-Client-State");
+    if (clientState != null && !clientState.equals(account.clientState)) {
+      sendError(exchange, 401, "Invalid client state");
+      return;
+    }
+
+    final String id = Utils.byte2Hex(Utils.generateRandomBytes(16));
+    storageTokens.put(id, account);
+    final ExtendedJSONObject response = new ExtendedJSONObject();
+    response.put("id", id);
+    response.put("key", Utils.byte2Hex(Utils.generateRandomBytes(16)));
+    response.put("uid", account.uid);
+    response.put("api_endpoint", getBaseURI() + STORAGE_PATH + account.uid);
+    response.put("duration", TOKEN_DURATION_SECONDS);
+    sendJSON(exchange, 200, response.toJSONString());
+  }
+
+  protected void handleStorage(HttpExchange exchange, String rest) throws Exception {
+    final Account account = storageTokens.get(hawkId(exchange));
+    if (account == null || !rest.startsWith(account.uid + "/storage/")) {
+      sendError(exchange, 401, "Invalid authentication token");
+      return;
+    }
+    exchange.getResponseHeaders().set("X-Weave-Records", "" + account.recordCount);
+    exchange.getResponseHeaders().set("X-Last-Modified", "1400000000.00");
+    send(exchange, 200, account.records);
+  }
+
+  protected static String tokenId(byte[] token, String kw) throws Exception {
+    final byte[] tokenId = new byte[32];
+    final byte[] reqHMACKey = new byte[32];
+    HKDF.deriveMany(token, new byte[0], FxAccountUtils.KW(kw), tokenId, reqHMACKey);
+    return Utils.byte2Hex(tokenId);
+  }
+
+  protected static String hawkId(HttpExchange exchange) {
+    final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+    if (authorization == null || !authorization.startsWith("Hawk ")) {
+      return "";
+    }
+    final int start = authorization.indexOf("id=\"");
+    if (start < 0) {
+      return "";
+    }
+    final int end = authorization.indexOf('"', start + 4);
+    return authorization.substring(start + 4, end);
+  }
+
+  protected static ExtendedJSONObject readJSONBody(HttpExchange exchange) throws Exception {
+    final InputStream in = exchange.getRequestBody();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[4096];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return ExtendedJSONObject.parseUTF8AsJSONObject(out.toByteArray());
+  }
+
+  protected static void sendJSON(HttpExchange exchange, int status, String body) throws IOException {
+    send(exchange, status, body.getBytes("UTF-8"));
+  }
+
+  protected static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.getResponseHeaders().set("Timestamp", Long.toString(System.currentTimeMillis() / 1000));
+    exchange.sendResponseHeaders(status, body.length);
+    final OutputStream out = exchange.getResponseBody();
+    out.write(body);
+    out.close();
+  }
+
+  protected static void sendError(HttpExchange exchange, int status, String message) {
+    // Shaped like an FxA error so FxAccountClient10.validateResponse can parse it.
+    final ExtendedJSONObject body = new ExtendedJSONObject();
+    body.put("code", (long) status);
+    body.put("errno", 999L);
+    body.put("error", "Stub error");
+    body.put("message", message);
+    body.put("info", "");
+    try {
+      sendJSON(exchange, status, body.toJSONString());
+    } catch (IOException e) {
+      // Client went away; nothing more to do.
+    }
+  }
+}
@@ -1,10 +1,26 @@
 package org.mozilla.gecko.background.common.log;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.commons.logging.impl.SimpleLog;
 
+/**
+ * Static logging facade over Apache commons logging.
+ * <p>
+ * Log instances are cached per tag. Messages that are expensive to build
+ * should either be guarded with <code>isDebugEnabled(tag)</code> and friends,
+ * or use the format overloads such as
+ * <code>debug(tag, "Updated skew: %dms", skew)</code>, which only format
+ * when the level is enabled.
+ */
 public class Logger {
 
-	private static boolean initLog = false;
+	private static volatile boolean initLog = false;
+
+	private static final ConcurrentMap<String, Log> logs = new ConcurrentHashMap<String, Log>();
 	
 	public static void init(String level) {
 		initLog = true;
@@ -17,11 +33,17 @@ public class Logger {
 	}
 
 	public static org.apache.commons.logging.Log getInstance(String context) {
+		Log log = logs.get(context);
+		if (log != null) {
+			return log;
+		}
 		if ( !initLog ) {
 			System.err.println("Log not initialised, setting default log level to warn");
 			init("warn");
 		}	
-		return LogFactory.getLog(context);
+		log = LogFactory.getLog(context);
+		final Log existing = logs.putIfAbsent(context, log);
+		return existing != null ? existing : log;
 	}
 	
 	public static void setLogLevel(String logger, String level) {
@@ -30,7 +52,30 @@ public class Logger {
 			init("warn");
 		}
 		System.setProperty("org.apache.commons.logging.simplelog.log." + logger, level);
+
+		// SimpleLog reads its level once, so update any instance we already handed out.
+		final Log log = logs.get(logger);
+		if (log instanceof SimpleLog) {
+			((SimpleLog) log).setLevel(simpleLogLevel(level));
+		}
 	}
+
+	protected static int simpleLogLevel(String level) {
+		if ("all".equalsIgnoreCase(level))   return SimpleLog.LOG_LEVEL_ALL;
+		if ("trace".equalsIgnoreCase(level)) return SimpleLog.LOG_LEVEL_TRACE;
+		if ("debug".equalsIgnoreCase(level)) return SimpleLog.LOG_LEVEL_DEBUG;
+		if ("info".equalsIgnoreCase(level))  return SimpleLog.LOG_LEVEL_INFO;
+		if ("warn".equalsIgnoreCase(level))  return SimpleLog.LOG_LEVEL_WARN;
+		if ("error".equalsIgnoreCase(level)) return SimpleLog.LOG_LEVEL_ERROR;
+		if ("fatal".equalsIgnoreCase(level)) return SimpleLog.LOG_LEVEL_FATAL;
+		if ("off".equalsIgnoreCase(level))   return SimpleLog.LOG_LEVEL_OFF;
+		return SimpleLog.LOG_LEVEL_INFO;
+	}
+
+	public static boolean isTraceEnabled(String tag) { return getInstance(tag).isTraceEnabled(); }
+	public static boolean isDebugEnabled(String tag) { return getInstance(tag).isDebugEnabled(); }
+	public static boolean isInfoEnabled(String tag)  { return getInstance(tag).isInfoEnabled(); }
+	public static boolean isWarnEnabled(String tag)  { return getInstance(tag).isWarnEnabled(); }
 	
 	public static void trace(String tag, String message) { getInstance(tag).trace(message); }
 	public static void debug(String tag, String message) { getInstance(tag).debug(message); }
@@ -60,4 +105,10 @@ public class Logger {
 	public static void error(String tag, String message, Throwable e) { Logger.error(tag, message + " - " + e.getLocalizedMessage()); }
 	public static void fatal(String tag, String message, Throwable e) { Logger.fatal(tag, message + " - " + e.getLocalizedMessage()); }
 
+	// Formatted with String.format, only if the level is enabled.
+	public static void trace(String tag, String format, Object... args) { Log log = getInstance(tag); if (log.isTraceEnabled()) log.trace(String.format(format, args)); }
+	public static void debug(String tag, String format, Object... args) { Log log = getInstance(tag); if (log.isDebugEnabled()) log.debug(String.format(format, args)); }
+	public static void info(String tag, String format, Object... args)  { Log log = getInstance(tag); if (log.isInfoEnabled())  log.info (String.format(format, args)); }
+	public static void warn(String tag, String format, Object... args)  { Log log = getInstance(tag); if (log.isWarnEnabled())  log.warn (String.format(format, args)); }
+
 }
@@ -0,0 +1,220 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.background.fxa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mozilla.gecko.background.common.log.Logger;
+import org.mozilla.gecko.background.fxa.FxAccountClient10.RequestDelegate;
+import org.mozilla.gecko.background.fxa.FxAccountClient10.StatusResponse;
+import org.mozilla.gecko.background.fxa.FxAccountClient10.TwoKeys;
+import org.mozilla.gecko.background.fxa.FxAccountClient20.LoginResponse;
+import org.mozilla.gecko.background.fxa.FxAccountClientException.FxAccountClientRemoteException;
+import org.mozilla.gecko.sync.ExtendedJSONObject;
+import org.mozilla.gecko.sync.Utils;
+
+/**
+ * An {@link FxAccountClient} that shares one request between concurrent
+ * identical <code>status</code> and <code>keys</code> calls.
+ * <p>
+ * A call made while an identical call (same endpoint, same token) is still in
+ * flight doesn't reach the server; its delegate is called back with the
+ * result of the earlier request. Once a request completes, the next
+ * identical call makes a new one: nothing is cached.
+ * <p>
+ * Every other method passes straight through to the wrapped client.
+ */
+public class CoalescingFxAccountClient implements FxAccountClient {
+  private static final String LOG_TAG = CoalescingFxAccountClient.class.getSimpleName();
+
+  protected final FxAccountClient client;
+
+  // Each guarded by itself.
+  protected final Map<String, List<RequestDelegate<StatusResponse>>> statusInFlight = new HashMap<String, List<RequestDelegate<StatusResponse>>>();
+  protected final Map<String, List<RequestDelegate<TwoKeys>>> keysInFlight = new HashMap<String, List<RequestDelegate<TwoKeys>>>();
+
+  protected final AtomicLong coalescedCount = new AtomicLong();
+
+  public CoalescingFxAccountClient(FxAccountClient client) {
+    if (client == null) {
+      throw new IllegalArgumentException("client must not be null");
+    }
+    this.client = client;
+  }
+
+  /**
+   * @return number of calls answered by sharing another call's request.
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  /**
+   * Add <code>delegate</code> to the waiters for <code>key</code>.
+   *
+   * @return true if the caller should make the request; false if one is
+   *         already in flight.
+   */
+  protected <T> boolean join(Map<String, List<RequestDelegate<T>>> inFlight, String key, RequestDelegate<T> delegate) {
+    synchronized (inFlight) {
+      final List<RequestDelegate<T>> waiters = inFlight.get(key);
+      if (waiters != null) {
+        waiters.add(delegate);
+        coalescedCount.incrementAndGet();
+        return false;
+      }
+      final List<RequestDelegate<T>> newWaiters = new ArrayList<RequestDelegate<T>>(2);
+      newWaiters.add(delegate);
+      inFlight.put(key, newWaiters);
+      return true;
+    }
+  }
+
+  /**
+   * Call back every waiter for one request. Later calls for the same key
+   * start a new request.
+   * <p>
+   * Only the first completion is delivered; any later one is dropped.
+   */
+  protected static class FanOutDelegate<T> implements RequestDelegate<T> {
+    protected final Map<String, List<RequestDelegate<T>>> inFlight;
+    protected final String key;
+
+    // Guarded by inFlight.
+    protected boolean completed;
+
+    public FanOutDelegate(Map<String, List<RequestDelegate<T>>> inFlight, String key) {
+      this.inFlight = inFlight;
+      this.key = key;
+    }
+
+    protected List<RequestDelegate<T>> complete() {
+      synchronized (inFlight) {
+        if (completed) {
+          Logger.warn(LOG_TAG, "Request completed more than once; ignoring.");
+          return new ArrayList<RequestDelegate<T>>(0);
+        }
+        completed = true;
+        return inFlight.remove(key);
+      }
+    }
+
+    /**
+     * Give each waiter after the first its own copy of a mutable result.
+     */
+    protected T copy(T result) {
+      return result;
+    }
+
+    @Override
+    public void handleSuccess(T result) {
+      final List<RequestDelegate<T>> waiters = complete();
+      for (int i = 0; i < waiters.size(); i++) {
+        try {
+          waiters.get(i).handleSuccess(i == 0 ? result : copy(result));
+        } catch (RuntimeException e) {
+          Logger.warn(LOG_TAG, "Delegate threw handling success.", e);
+        }
+      }
+    }
+
+    @Override
+    public void handleFailure(FxAccountClientRemoteException e) {
+      for (RequestDelegate<T> waiter : complete()) {
+        try {
+          waiter.handleFailure(e);
+        } catch (RuntimeException ex) {
+          Logger.warn(LOG_TAG, "Delegate threw handling failure.", ex);
+        }
+      }
+    }
+
+    @Override
+    public void handleError(Exception e) {
+      for (RequestDelegate<T> waiter : complete()) {
+        try {
+          waiter.handleError(e);
+        } catch (RuntimeException ex) {
+          Logger.warn(LOG_TAG, "Delegate threw handling error.", ex);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void status(byte[] sessionToken, RequestDelegate<StatusResponse> requestDelegate) {
+    if (sessionToken == null) {
+      client.status(sessionToken, requestDelegate);
+      return;
+    }
+    final String key = Utils.byte2Hex(sessionToken);
+    if (!join(statusInFlight, key, requestDelegate)) {
+      Logger.debug(LOG_TAG, "Sharing in-flight status request.");
+      return;
+    }
+    final FanOutDelegate<StatusResponse> fanOut = new FanOutDelegate<StatusResponse>(statusInFlight, key);
+    try {
+      client.status(sessionToken, fanOut);
+    } catch (RuntimeException e) {
+      Logger.warn(LOG_TAG, "Status request threw; failing its waiters.", e);
+      fanOut.handleError(e);
+    }
+  }
+
+  @Override
+  public void keys(byte[] keyFetchToken, RequestDelegate<TwoKeys> requestDelegate) {
+    if (keyFetchToken == null) {
+      client.keys(keyFetchToken, requestDelegate);
+      return;
+    }
+    final String key = Utils.byte2Hex(keyFetchToken);
+    if (!join(keysInFlight, key, requestDelegate)) {
+      Logger.debug(LOG_TAG, "Sharing in-flight keys request.");
+      return;
+    }
+    final FanOutDelegate<TwoKeys> fanOut = new FanOutDelegate<TwoKeys>(keysInFlight, key) {
+      @Override
+      protected TwoKeys copy(TwoKeys result) {
+        return new TwoKeys(result.kA == null ? null : result.kA.clone(),
+                           result.wrapkB == null ? null : result.wrapkB.clone());
+      }
+    };
+    try {
+      client.keys(keyFetchToken, fanOut);
+    } catch (RuntimeException e) {
+      Logger.warn(LOG_TAG, "Keys request threw; failing its waiters.", e);
+      fanOut.handleError(e);
+    }
+  }
+
+  @Override
+  public void createAccountAndGetKeys(byte[] emailUTF8, PasswordStretcher passwordStretcher, Map<String, String> queryParameters, RequestDelegate<LoginResponse> delegate) {
+    client.createAccountAndGetKeys(emailUTF8, passwordStretcher, queryParameters, delegate);
+  }
+
+  @Override
+  public void loginAndGetKeys(byte[] emailUTF8, PasswordStretcher passwordStretcher, Map<String, String> queryParameters, RequestDelegate<LoginResponse> requestDelegate) {
+    client.loginAndGetKeys(emailUTF8, passwordStretcher, queryParameters, requestDelegate);
+  }
+
+  @Override
+  public void sign(byte[] sessionToken, ExtendedJSONObject publicKey, long certificateDurationInMilliseconds, RequestDelegate<String> requestDelegate) {
+    client.sign(sessionToken, publicKey, certificateDurationInMilliseconds, requestDelegate);
+  }
+
+  @Override
+  public void resendCode(byte[] sessionToken, RequestDelegate<Void> delegate) {
+    client.resendCode(sessionToken, delegate);
+  }
+
+  @Override
+  public void resendUnlockCode(byte[] emailUTF8, RequestDelegate<Void> delegate) {
+    client.resendUnlockCode(emailUTF8, delegate);
+  }
+}
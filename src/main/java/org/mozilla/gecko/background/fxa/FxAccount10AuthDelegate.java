@@ -15,6 +15,7 @@ import org.mozilla.gecko.sync.net.SRPConstants;
 
 public class FxAccount10AuthDelegate implements FxAccountClient10.AuthDelegate {
   // Fixed by protocol.
+  protected final SRPConstants.Parameters params;
   protected final BigInteger N;
   protected final BigInteger g;
   protected final int modNLengthBytes;
@@ -41,9 +42,10 @@ public class FxAccount10AuthDelegate implements FxAccountClient10.AuthDelegate {
   public FxAccount10AuthDelegate(String email, byte[] stretchedPWBytes) {
     this.email = email;
     this.stretchedPWBytes = stretchedPWBytes;
-    this.N = SRPConstants._2048.N;
-    this.g = SRPConstants._2048.g;
-    this.modNLengthBytes = SRPConstants._2048.byteLength;
+    this.params = SRPConstants._2048;
+    this.N = params.N;
+    this.g = params.g;
+    this.modNLengthBytes = params.byteLength;
   }
 
   protected BigInteger generateSecretValue() {
@@ -155,7 +157,7 @@ public class FxAccount10AuthDelegate implements FxAccountClient10.AuthDelegate {
 
     authState.x = FxAccountUtils.srpVerifierLowercaseX(email.getBytes("UTF-8"), this.stretchedPWBytes, Utils.hex2Byte(srpSalt, FxAccountUtils.SALT_LENGTH_BYTES));
 
-    authState.A = g.modPow(a, N);
+    authState.A = params.gModPow(a);
     String srpA = FxAccountUtils.hexModN(authState.A, N);
     BigInteger B = new BigInteger(srpB, 16);
 
@@ -176,7 +178,7 @@ public class FxAccount10AuthDelegate implements FxAccountClient10.AuthDelegate {
         Utils.hex2Byte(g.toString(16), byteLength)));
     BigInteger k = new BigInteger(Utils.byte2Hex(kBytes, FxAccountUtils.HASH_LENGTH_HEX), 16);
 
-    BigInteger base = B.subtract(k.multiply(g.modPow(authState.x, N)).mod(N)).mod(N);
+    BigInteger base = B.subtract(k.multiply(params.gModPow(authState.x)).mod(N)).mod(N);
     BigInteger pow = a.add(u.multiply(authState.x));
     BigInteger S = base.modPow(pow, N);
     String srpS = FxAccountUtils.hexModN(S, N);
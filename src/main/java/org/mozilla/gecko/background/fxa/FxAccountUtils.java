@@ -13,11 +13,11 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
 import org.mozilla.gecko.background.common.log.Logger;
-import org.mozilla.gecko.background.nativecode.NativeCrypto;
 import org.mozilla.gecko.sync.Utils;
 import org.mozilla.gecko.sync.crypto.HKDF;
 import org.mozilla.gecko.sync.crypto.KeyBundle;
 import org.mozilla.gecko.sync.crypto.PBKDF2;
+import org.mozilla.gecko.sync.net.SRPConstants;
 
 public class FxAccountUtils {
   private static final String LOG_TAG = FxAccountUtils.class.getSimpleName();
@@ -79,7 +79,7 @@ public class FxAccountUtils {
   public static BigInteger srpVerifierLowercaseV(byte[] emailUTF8, byte[] srpPWBytes, byte[] srpSaltBytes, BigInteger g, BigInteger N)
       throws NoSuchAlgorithmException, UnsupportedEncodingException {
     BigInteger x = srpVerifierLowercaseX(emailUTF8, srpPWBytes, srpSaltBytes);
-    BigInteger v = g.modPow(x, N);
+    BigInteger v = SRPConstants.modPow(g, x, N);
     return v;
   }
 
@@ -120,18 +120,8 @@ public class FxAccountUtils {
    */
   public static byte[] generateQuickStretchedPW(byte[] emailUTF8, byte[] passwordUTF8) throws GeneralSecurityException, UnsupportedEncodingException {
     byte[] S = FxAccountUtils.KWE("quickStretch", emailUTF8);
-    
-    try {
-      return NativeCrypto.pbkdf2SHA256(passwordUTF8, S, NUMBER_OF_QUICK_STRETCH_ROUNDS, 32);
-    } catch (final LinkageError e) {
-      // This will throw UnsatisfiedLinkError (missing mozglue) the first time it is called, and
-      // ClassNotDefFoundError, for the uninitialized NativeCrypto class, each subsequent time this
-      // is called; LinkageError is their common ancestor.
-      Logger.warn(LOG_TAG, "Got throwable stretching password using native pbkdf2SHA256 " +
-          "implementation; ignoring and using Java implementation.", e);
-    }
-    
-    //Note: We only get here if the Native call failed
+
+    // PBKDF2 uses NativeCrypto when it's available.
     try {
 		return PBKDF2.pbkdf2SHA256(passwordUTF8, S, NUMBER_OF_QUICK_STRETCH_ROUNDS, 32);
 	} catch (NoSuchMethodException e) {
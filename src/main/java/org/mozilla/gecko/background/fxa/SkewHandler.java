@@ -54,7 +54,7 @@ public class SkewHandler {
 
   public boolean updateSkewFromServerMillis(long millis, long now) {
     skewMillis = millis - now;
-    Logger.debug(LOG_TAG, "Updated skew: " + skewMillis + "ms for hostname " + this.hostname);
+    Logger.debug(LOG_TAG, "Updated skew: %dms for hostname %s", skewMillis, this.hostname);
     return true;
   }
 
@@ -5,17 +5,152 @@
 package org.mozilla.gecko.background.nativecode;
 
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 
+import org.mozilla.gecko.background.common.log.Logger;
+import org.mozilla.gecko.sync.Utils;
 
-
+/**
+ * Native implementations of the hashes, MACs and ciphers Sync and Firefox
+ * Accounts use.
+ * <p>
+ * On Android these come from <code>mozglue</code>; elsewhere from
+ * <code>nativecrypto</code>, built from <code>src/main/jni</code>. Whichever
+ * libraries can be loaded are, once, when this class is initialized.
+ * <p>
+ * Libraries provide different subsets of the methods here: Android's
+ * <code>mozglue</code> only has {@link #pbkdf2SHA256} and {@link #sha1}. Check
+ * the matching <code>has</code> method, such as {@link #hasPBKDF2()}, before
+ * calling a method; if it returns false, calls may throw
+ * <code>LinkageError</code>.
+ */
 public class NativeCrypto {
+  private static final String LOG_TAG = "NativeCrypto";
+
+  protected static final String[] LIBRARIES = new String[] { "mozglue", "nativecrypto" };
+
+  protected static final byte[] PROBE_INPUT = new byte[] { 'a', 'b', 'c' };
+
+  // SHA-1("abc"), from FIPS 180-2.
+  protected static final String PROBE_SHA1 = "a9993e364706816aba3e25717850c26c9cd0d89d";
+  // SHA-256("abc"), from FIPS 180-2.
+  protected static final String PROBE_SHA256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+  // PBKDF2-HMAC-SHA-256("password", "salt", 1, 32).
+  protected static final String PROBE_PBKDF2 = "120fb6cffcf8b32c43e7225256c4f837a86548c92ccc35480805987cb70be17b";
+  // HMAC-SHA-256("Jefe", "what do ya want for nothing?"), from RFC 4231.
+  protected static final String PROBE_HMAC = "5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843";
+  // AES-128 of a zero block under a zero key, from FIPS 197 test vectors.
+  protected static final String PROBE_AES = "66e94bd4ef8a2c3b884cfa59ca342b2e";
+
+  protected static final boolean pbkdf2;
+  protected static final boolean sha1;
+  protected static final boolean sha256;
+  protected static final boolean aesAndHMAC;
+
   static {
+    for (String library : LIBRARIES) {
+      try {
+        System.loadLibrary(library);
+      } catch (UnsatisfiedLinkError e) {
+        // Try the next one.
+      }
+    }
+    pbkdf2 = probePBKDF2();
+    sha1 = probeSHA1();
+    sha256 = probeSHA256();
+    aesAndHMAC = probeAESAndHMAC();
+    Logger.info(LOG_TAG, "Native PBKDF2: %b, SHA-1: %b, SHA-256: %b, AES and HMAC: %b.",
+        pbkdf2, sha1, sha256, aesAndHMAC);
+  }
+
+  protected static boolean probePBKDF2() {
     try {
-      System.loadLibrary("mozglue");
-    } catch (UnsatisfiedLinkError e) {
+      return check("pbkdf2SHA256", PROBE_PBKDF2, pbkdf2SHA256("password".getBytes("UTF-8"), "salt".getBytes("UTF-8"), 1, 32));
+    } catch (LinkageError e) {
+      return false;
+    } catch (Exception e) {
+      Logger.warn(LOG_TAG, "Native pbkdf2SHA256 failed.", e);
+      return false;
     }
   }
 
+  protected static boolean probeSHA1() {
+    try {
+      return check("sha1", PROBE_SHA1, sha1(PROBE_INPUT));
+    } catch (LinkageError e) {
+      return false;
+    }
+  }
+
+  protected static boolean probeSHA256() {
+    try {
+      return check("sha256", PROBE_SHA256, sha256(PROBE_INPUT));
+    } catch (LinkageError e) {
+      return false;
+    }
+  }
+
+  protected static boolean probeAESAndHMAC() {
+    try {
+      final byte[] hmac = new byte[32];
+      final byte[] data = "what do ya want for nothing?".getBytes("UTF-8");
+      hmacSHA256("Jefe".getBytes("UTF-8"), data, 0, data.length, hmac, 0);
+      if (!check("hmacSHA256", PROBE_HMAC, hmac)) {
+        return false;
+      }
+      final byte[] zero = new byte[16];
+      final byte[] ciphertext = aesCBCEncrypt(zero, zero, zero);
+      // Encrypting one whole block adds a block of padding.
+      if (ciphertext.length != 32 || !check("aesCBCEncrypt", PROBE_AES, Arrays.copyOf(ciphertext, 16))) {
+        return false;
+      }
+      return Arrays.equals(zero, aesCBCDecrypt(zero, zero, ciphertext));
+    } catch (LinkageError e) {
+      return false;
+    } catch (Exception e) {
+      Logger.warn(LOG_TAG, "Native AES or HMAC failed.", e);
+      return false;
+    }
+  }
+
+  protected static boolean check(String name, String expectedHex, byte[] actual) {
+    if (actual != null && expectedHex.equals(Utils.byte2Hex(actual))) {
+      return true;
+    }
+    Logger.warn(LOG_TAG, "Native " + name + " gave the wrong answer; not using it.");
+    return false;
+  }
+
+  /**
+   * @return true if {@link #pbkdf2SHA256} has a working native
+   *         implementation. Decided once, when this class is initialized.
+   */
+  public static boolean hasPBKDF2() {
+    return pbkdf2;
+  }
+
+  /**
+   * @return true if {@link #sha1} has a working native implementation.
+   */
+  public static boolean hasSHA1() {
+    return sha1;
+  }
+
+  /**
+   * @return true if {@link #sha256} has a working native implementation.
+   */
+  public static boolean hasSHA256() {
+    return sha256;
+  }
+
+  /**
+   * @return true if {@link #hmacSHA256}, {@link #aesCBCEncrypt} and
+   *         {@link #aesCBCDecrypt} have working native implementations.
+   */
+  public static boolean hasAESAndHMAC() {
+    return aesAndHMAC;
+  }
+
   /**
    * Wrapper to perform PBKDF2-HMAC-SHA-256 in native code.
    */
@@ -26,4 +161,31 @@ public class NativeCrypto {
    * Wrapper to perform SHA-1 in native code.
    */
   public native static byte[] sha1(byte[] str);
+
+  /**
+   * Wrapper to perform SHA-256 in native code.
+   */
+  public native static byte[] sha256(byte[] in);
+
+  /**
+   * Write HMAC-SHA-256 of <code>data[offset..offset+length)</code> under
+   * <code>key</code> to <code>out[outOffset..outOffset+32)</code>.
+   */
+  public native static void hmacSHA256(byte[] key, byte[] data, int offset, int length, byte[] out, int outOffset);
+
+  /**
+   * AES-CBC encrypt with PKCS #7 padding. The key must be 16, 24 or 32 bytes
+   * and the IV 16 bytes.
+   */
+  public native static byte[] aesCBCEncrypt(byte[] key, byte[] iv, byte[] plaintext)
+      throws GeneralSecurityException;
+
+  /**
+   * AES-CBC decrypt and remove PKCS #7 padding.
+   *
+   * @throws GeneralSecurityException if the padding is invalid, or the key
+   *         or IV have the wrong length.
+   */
+  public native static byte[] aesCBCDecrypt(byte[] key, byte[] iv, byte[] ciphertext)
+      throws GeneralSecurityException;
 }
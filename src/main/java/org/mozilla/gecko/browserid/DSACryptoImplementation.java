@@ -92,9 +92,11 @@ public class DSACryptoImplementation {
 
   protected static class DSASigningPrivateKey implements SigningPrivateKey {
     protected final DSAPrivateKey privateKey;
+    protected final DSASigner signer;
 
     public DSASigningPrivateKey(DSAPrivateKey privateKey) {
       this.privateKey = privateKey;
+      this.signer = new DSASigner(privateKey);
     }
 
     @Override
@@ -126,19 +128,7 @@ public class DSACryptoImplementation {
       if (bytes == null) {
         throw new IllegalArgumentException("bytes must not be null");
       }
-      final Signature signer = Signature.getInstance(SIGNATURE_ALGORITHM);
-      signer.initSign(privateKey);
-      signer.update(bytes);
-      final byte[] signature = signer.sign();
-
-      final byte[][] arrays = ASNUtils.decodeTwoArraysFromASN1(signature);
-      BigInteger r = new BigInteger(arrays[0]);
-      BigInteger s = new BigInteger(arrays[1]);
-      // This is awful, but signatures are always 40 bytes long.
-      byte[] decoded = Utils.concatAll(
-          Utils.hex2Byte(r.toString(16), SIGNATURE_LENGTH_BYTES / 2),
-          Utils.hex2Byte(s.toString(16), SIGNATURE_LENGTH_BYTES / 2));
-      return decoded;
+      return signer.sign(bytes);
     }
   }
 
@@ -0,0 +1,101 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.browserid;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.interfaces.DSAPrivateKey;
+
+/**
+ * Produce SHA1withDSA signatures as fixed-length <code>r || s</code> byte
+ * arrays, the format BrowserID expects.
+ * <p>
+ * Signing goes through the platform <code>java.security.Signature</code>, so
+ * the secret nonce is handled by the provider's constant-time code; only the
+ * ASN.1 DER output is converted here. <code>Signature</code> instances are
+ * kept per thread, to avoid a provider lookup per signature.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class DSASigner {
+  protected final DSAPrivateKey privateKey;
+  protected final int componentLength;
+
+  protected static final ThreadLocal<Signature> signatures = new ThreadLocal<Signature>() {
+    @Override
+    protected Signature initialValue() {
+      try {
+        return Signature.getInstance(DSACryptoImplementation.SIGNATURE_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
+  public DSASigner(DSAPrivateKey privateKey) {
+    if (privateKey == null) {
+      throw new IllegalArgumentException("privateKey must not be null");
+    }
+    this.privateKey = privateKey;
+    final BigInteger q = privateKey.getParams().getQ();
+    // Signatures are always 40 bytes long for the 160-bit q BrowserID uses.
+    this.componentLength = Math.max(DSACryptoImplementation.SIGNATURE_LENGTH_BYTES / 2, (q.bitLength() + 7) / 8);
+  }
+
+  /**
+   * @return length in bytes of signatures produced by this signer.
+   */
+  public int getSignatureLength() {
+    return 2 * componentLength;
+  }
+
+  /**
+   * Sign a message.
+   *
+   * @param message to sign.
+   * @return <code>r || s</code>, each component big-endian and zero-padded.
+   */
+  public byte[] sign(byte[] message) throws GeneralSecurityException {
+    if (message == null) {
+      throw new IllegalArgumentException("message must not be null");
+    }
+    final Signature signer = signatures.get();
+    signer.initSign(privateKey);
+    signer.update(message);
+    return decodeDER(signer.sign(), componentLength);
+  }
+
+  /**
+   * Convert an ASN.1 DER <code>SEQUENCE { r INTEGER, s INTEGER }</code> into
+   * <code>r || s</code>, each component <code>componentLength</code> bytes.
+   */
+  public static byte[] decodeDER(byte[] der, int componentLength) {
+    final byte[][] arrays = ASNUtils.decodeTwoArraysFromASN1(der);
+    final byte[] out = new byte[2 * componentLength];
+    writeUnsigned(new BigInteger(1, arrays[0]), out, 0, componentLength);
+    writeUnsigned(new BigInteger(1, arrays[1]), out, componentLength, componentLength);
+    return out;
+  }
+
+  /**
+   * Write the magnitude of a non-negative integer big-endian into
+   * <code>length</code> bytes of <code>dst</code>, zero-padding on the left.
+   */
+  protected static void writeUnsigned(BigInteger value, byte[] dst, int offset, int length) {
+    final byte[] bytes = value.toByteArray();
+    // toByteArray may include a leading sign byte.
+    int start = 0;
+    while (start < bytes.length - 1 && bytes[start] == 0) {
+      start++;
+    }
+    final int count = bytes.length - start;
+    if (count > length) {
+      throw new IllegalArgumentException("value does not fit in " + length + " bytes");
+    }
+    System.arraycopy(bytes, start, dst, offset + length - count, count);
+  }
+}
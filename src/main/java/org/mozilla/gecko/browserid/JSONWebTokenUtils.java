@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -41,6 +42,56 @@ public class JSONWebTokenUtils {
   }
 
   protected static String encode(String payload, SigningPrivateKey privateKey, Map<String, Object> headerFields) throws UnsupportedEncodingException, GeneralSecurityException  {
+    String signingInput = getSigningInput(payload, privateKey, headerFields);
+    byte[] signature = privateKey.signMessage(signingInput.getBytes("UTF-8"));
+    return signingInput + "." + Base64.encodeBase64URLSafeString(signature);
+  }
+
+  /**
+   * Sign many messages with the same private key.
+   *
+   * @param privateKey to sign with.
+   * @param messages to sign.
+   * @return signatures, in the same order as <code>messages</code>.
+   */
+  public static List<byte[]> signAll(SigningPrivateKey privateKey, List<byte[]> messages) throws GeneralSecurityException {
+    if (privateKey == null) {
+      throw new IllegalArgumentException("privateKey must not be null");
+    }
+    if (messages == null) {
+      throw new IllegalArgumentException("messages must not be null");
+    }
+    final List<byte[]> signatures = new ArrayList<byte[]>(messages.size());
+    for (byte[] message : messages) {
+      signatures.add(privateKey.signMessage(message));
+    }
+    return signatures;
+  }
+
+  /**
+   * Encode many payloads with the same private key.
+   *
+   * @param payloads to encode.
+   * @param privateKey to sign with.
+   * @return encoded tokens, in the same order as <code>payloads</code>.
+   */
+  public static List<String> encodeAll(List<String> payloads, SigningPrivateKey privateKey) throws UnsupportedEncodingException, GeneralSecurityException  {
+    final List<String> signingInputs = new ArrayList<String>(payloads.size());
+    final List<byte[]> messages = new ArrayList<byte[]>(payloads.size());
+    for (String payload : payloads) {
+      String signingInput = getSigningInput(payload, privateKey, null);
+      signingInputs.add(signingInput);
+      messages.add(signingInput.getBytes("UTF-8"));
+    }
+    final List<byte[]> signatures = signAll(privateKey, messages);
+    final List<String> tokens = new ArrayList<String>(payloads.size());
+    for (int i = 0; i < signingInputs.size(); i++) {
+      tokens.add(signingInputs.get(i) + "." + Base64.encodeBase64URLSafeString(signatures.get(i)));
+    }
+    return tokens;
+  }
+
+  protected static String getSigningInput(String payload, SigningPrivateKey privateKey, Map<String, Object> headerFields) throws UnsupportedEncodingException {
     ExtendedJSONObject header = new ExtendedJSONObject();
     if (headerFields != null) {
       header.putAll(headerFields);
@@ -48,13 +99,7 @@ public class JSONWebTokenUtils {
     header.put("alg", privateKey.getAlgorithm());
     String encodedHeader  = Base64.encodeBase64URLSafeString(header.toJSONString().getBytes("UTF-8"));
     String encodedPayload = Base64.encodeBase64URLSafeString(payload.getBytes("UTF-8"));
-    ArrayList<String> segments = new ArrayList<String>();
-    segments.add(encodedHeader);
-    segments.add(encodedPayload);
-    byte[] message = Utils.toDelimitedString(".", segments).getBytes("UTF-8");
-    byte[] signature = privateKey.signMessage(message);
-    segments.add(Base64.encodeBase64URLSafeString(signature));
-    return Utils.toDelimitedString(".", segments);
+    return encodedHeader + "." + encodedPayload;
   }
 
   public static String decode(String token, VerifyingPublicKey publicKey) throws GeneralSecurityException, UnsupportedEncodingException  {
@@ -116,6 +161,23 @@ public class JSONWebTokenUtils {
     return JSONWebTokenUtils.encode(payloadString, privateKey);
   }
 
+  /**
+   * Create many certificates signed by the same private key.
+   * <code>publicKeysToSign</code> and <code>emails</code> are parallel lists.
+   */
+  public static List<String> createCertificates(List<VerifyingPublicKey> publicKeysToSign, List<String> emails,
+      String issuer, long issuedAt, long expiresAt, SigningPrivateKey privateKey) throws NonObjectJSONException, IOException, ParseException, GeneralSecurityException  {
+    if (publicKeysToSign.size() != emails.size()) {
+      throw new IllegalArgumentException("publicKeysToSign and emails must have the same size");
+    }
+    List<String> payloadStrings = new ArrayList<String>(emails.size());
+    for (int i = 0; i < emails.size(); i++) {
+      String certificatePayloadString = getCertificatePayloadString(publicKeysToSign.get(i), emails.get(i));
+      payloadStrings.add(getPayloadString(certificatePayloadString, null, issuer, issuedAt, expiresAt));
+    }
+    return JSONWebTokenUtils.encodeAll(payloadStrings, privateKey);
+  }
+
   /**
    * Create a Browser ID assertion.
    *
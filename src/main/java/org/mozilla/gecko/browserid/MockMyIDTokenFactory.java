@@ -7,6 +7,8 @@ package org.mozilla.gecko.browserid;
 import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Generate certificates and assertions backed by mockmyid.com's private key.
@@ -55,6 +57,32 @@ public class MockMyIDTokenFactory {
     return JSONWebTokenUtils.createCertificate(publicKeyToSign, username, "mockmyid.com", issuedAt, expiresAt, mockMyIdPrivateKey);
   }
 
+  /**
+   * Sign many public keys, each asserting ownership of a username@mockmyid.com,
+   * with mockmyid.com's private key.
+   *
+   * @param publicKeysToSign
+   *          public keys to sign.
+   * @param usernames
+   *          sign usernames@mockmyid.com; parallel to <code>publicKeysToSign</code>.
+   * @param issuedAt
+   *          timestamp for certificates, in milliseconds since the epoch.
+   * @param expiresAt
+   *          expiration timestamp for certificates, in milliseconds since the epoch.
+   * @return encoded certificate strings, in order.
+   * @throws Exception
+   */
+  public List<String> createMockMyIDCertificates(final List<VerifyingPublicKey> publicKeysToSign, final List<String> usernames,
+      final long issuedAt, final long expiresAt)
+          throws Exception {
+    final List<String> emails = new ArrayList<String>(usernames.size());
+    for (String username : usernames) {
+      emails.add(username.endsWith("@mockmyid.com") ? username : username + "@mockmyid.com");
+    }
+    SigningPrivateKey mockMyIdPrivateKey = getMockMyIDPrivateKey();
+    return JSONWebTokenUtils.createCertificates(publicKeysToSign, emails, "mockmyid.com", issuedAt, expiresAt, mockMyIdPrivateKey);
+  }
+
   /**
    * Sign a public key asserting ownership of username@mockmyid.com with
    * mockmyid.com's private key.
@@ -0,0 +1,138 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.mozilla.gecko.background.nativecode.NativeCrypto;
+
+/**
+ * Turns Sync account names into the usernames the storage API accepts; see
+ * {@link Utils#usernameFromAccount(String)}.
+ * <p>
+ * Account names are checked with a character scan rather than a regular
+ * expression, SHA-1 is native only if {@link NativeCrypto#hasSHA1()}, and
+ * the most recent account to username mappings are cached.
+ */
+public class AccountNameNormalizer {
+  public static final int CACHE_SIZE = 32;
+
+  protected static final char[] BASE32_ALPHABET = "abcdefghijklmnopqrstuvwxyz234567".toCharArray();
+
+  // Decided once, at startup.
+  protected static final boolean NATIVE = NativeCrypto.hasSHA1();
+
+  protected static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
+  // Guarded by itself.
+  protected static final Map<String, String> recent = new LinkedHashMap<String, String>(CACHE_SIZE, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
+  /**
+   * @return true if <code>account</code> is non-empty and consists only of
+   *         <code>[A-Za-z0-9._-]</code>.
+   */
+  public static boolean isPlainAccountName(final String account) {
+    final int length = account.length();
+    if (length == 0) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      final char c = account.charAt(i);
+      if ((c >= 'a' && c <= 'z') ||
+          (c >= 'A' && c <= 'Z') ||
+          (c >= '0' && c <= '9') ||
+          c == '.' || c == '_' || c == '-') {
+        continue;
+      }
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Same as {@link Utils#usernameFromAccount(String)}.
+   */
+  public static String usernameFromAccount(final String account) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+    if (account == null || account.equals("")) {
+      throw new IllegalArgumentException("No account name provided.");
+    }
+    synchronized (recent) {
+      final String username = recent.get(account);
+      if (username != null) {
+        return username;
+      }
+    }
+    final String lowercased = account.toLowerCase(Locale.US);
+    final String username = isPlainAccountName(account) ? lowercased : sha1Base32(lowercased);
+    synchronized (recent) {
+      recent.put(account, username);
+    }
+    return username;
+  }
+
+  public static void clearCache() {
+    synchronized (recent) {
+      recent.clear();
+    }
+  }
+
+  public static byte[] sha1(final String utf8) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+    final byte[] bytes = utf8.getBytes("UTF-8");
+    if (NATIVE) {
+      return NativeCrypto.sha1(bytes);
+    }
+    return digests.get().digest(bytes);
+  }
+
+  /**
+   * @return lowercase Base32 of the SHA-1 of <code>utf8</code>.
+   */
+  public static String sha1Base32(final String utf8) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+    return base32(sha1(utf8));
+  }
+
+  /**
+   * Lowercase RFC 4648 Base32, padded with <code>=</code>.
+   */
+  protected static String base32(final byte[] in) {
+    final int groups = (in.length + 4) / 5;
+    final char[] out = new char[groups * 8];
+    int o = 0;
+    for (int i = 0; i < in.length; i += 5) {
+      final int n = Math.min(5, in.length - i);
+      long bits = 0;
+      for (int j = 0; j < 5; j++) {
+        bits = (bits << 8) | (j < n ? in[i + j] & 0xff : 0);
+      }
+      // 8 output characters per 5 input bytes; fewer bytes yield fewer characters.
+      final int chars = (n * 8 + 4) / 5;
+      for (int j = 0; j < 8; j++) {
+        out[o++] = j < chars ? BASE32_ALPHABET[(int) (bits >>> (35 - 5 * j)) & 31] : '=';
+      }
+    }
+    return new String(out);
+  }
+}
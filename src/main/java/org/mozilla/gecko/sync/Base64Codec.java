@@ -0,0 +1,161 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync;
+
+/**
+ * Table-driven Base64 encoding and decoding.
+ * <p>
+ * Encoding produces standard, padded, unchunked Base64, identical to
+ * commons-codec's <code>Base64.encodeBase64</code>. Decoding is as lenient as
+ * commons-codec's <code>Base64.decodeBase64</code>: it accepts both the
+ * standard and URL-safe alphabets, padding is optional, it stops at the first
+ * '=' and it skips any other character (such as line breaks).
+ * <p>
+ * The <code>(src, offset, length, dst, offset)</code> variants write into
+ * caller-supplied arrays and allocate nothing.
+ */
+public class Base64Codec {
+  protected static final byte[] ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+  protected static final byte PAD = '=';
+
+  // Sextet value of each ASCII character, or -1.
+  protected static final byte[] VALUES = new byte[128];
+  static {
+    for (int i = 0; i < VALUES.length; i++) {
+      VALUES[i] = -1;
+    }
+    for (int i = 0; i < ALPHABET.length; i++) {
+      VALUES[ALPHABET[i]] = (byte) i;
+    }
+    // URL-safe alphabet.
+    VALUES['-'] = 62;
+    VALUES['_'] = 63;
+  }
+
+  public static int encodedLength(final int length) {
+    return 4 * ((length + 2) / 3);
+  }
+
+  /**
+   * @return an upper bound on the decoded length of <code>length</code>
+   *         Base64 characters.
+   */
+  public static int maxDecodedLength(final int length) {
+    return 3 * (length / 4) + Math.max(0, (length % 4) - 1);
+  }
+
+  /**
+   * Encode <code>length</code> bytes of <code>src</code> into
+   * <code>encodedLength(length)</code> ASCII bytes of <code>dst</code>.
+   *
+   * @return number of bytes written.
+   */
+  public static int encode(final byte[] src, final int srcOffset, final int length, final byte[] dst, final int dstOffset) {
+    int i = srcOffset;
+    int j = dstOffset;
+    final int end = srcOffset + length;
+    final int fullEnd = end - (length % 3);
+    while (i < fullEnd) {
+      final int bits = ((src[i++] & 0xFF) << 16) | ((src[i++] & 0xFF) << 8) | (src[i++] & 0xFF);
+      dst[j++] = ALPHABET[(bits >>> 18) & 0x3F];
+      dst[j++] = ALPHABET[(bits >>> 12) & 0x3F];
+      dst[j++] = ALPHABET[(bits >>> 6) & 0x3F];
+      dst[j++] = ALPHABET[bits & 0x3F];
+    }
+    final int remaining = end - i;
+    if (remaining == 1) {
+      final int bits = (src[i] & 0xFF) << 16;
+      dst[j++] = ALPHABET[(bits >>> 18) & 0x3F];
+      dst[j++] = ALPHABET[(bits >>> 12) & 0x3F];
+      dst[j++] = PAD;
+      dst[j++] = PAD;
+    } else if (remaining == 2) {
+      final int bits = ((src[i] & 0xFF) << 16) | ((src[i + 1] & 0xFF) << 8);
+      dst[j++] = ALPHABET[(bits >>> 18) & 0x3F];
+      dst[j++] = ALPHABET[(bits >>> 12) & 0x3F];
+      dst[j++] = ALPHABET[(bits >>> 6) & 0x3F];
+      dst[j++] = PAD;
+    }
+    return j - dstOffset;
+  }
+
+  public static byte[] encode(final byte[] src) {
+    final byte[] out = new byte[encodedLength(src.length)];
+    encode(src, 0, src.length, out, 0);
+    return out;
+  }
+
+  public static String encodeToString(final byte[] src) {
+    final byte[] out = encode(src);
+    // Base64 is pure ASCII, so this avoids charset lookup.
+    final char[] chars = new char[out.length];
+    for (int i = 0; i < out.length; i++) {
+      chars[i] = (char) out[i];
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Decode <code>length</code> Base64 bytes of <code>src</code> into
+   * <code>dst</code>, which must have room for
+   * <code>maxDecodedLength(length)</code> bytes.
+   *
+   * @return number of bytes written.
+   */
+  public static int decode(final byte[] src, final int srcOffset, final int length, final byte[] dst, final int dstOffset) {
+    int j = dstOffset;
+    int bits = 0;
+    int count = 0;
+    for (int i = srcOffset; i < srcOffset + length; i++) {
+      final int c = src[i];
+      if (c == PAD) {
+        break;
+      }
+      final int v = (c >= 0) ? VALUES[c] : -1;
+      if (v < 0) {
+        continue;
+      }
+      bits = (bits << 6) | v;
+      if (++count == 4) {
+        dst[j++] = (byte) (bits >>> 16);
+        dst[j++] = (byte) (bits >>> 8);
+        dst[j++] = (byte) bits;
+        bits = 0;
+        count = 0;
+      }
+    }
+    // A single trailing sextet carries no complete byte and is dropped.
+    if (count == 2) {
+      dst[j++] = (byte) (bits >>> 4);
+    } else if (count == 3) {
+      dst[j++] = (byte) (bits >>> 10);
+      dst[j++] = (byte) (bits >>> 2);
+    }
+    return j - dstOffset;
+  }
+
+  public static byte[] decode(final byte[] src) {
+    final byte[] out = new byte[maxDecodedLength(src.length)];
+    final int length = decode(src, 0, src.length, out, 0);
+    if (length == out.length) {
+      return out;
+    }
+    final byte[] trimmed = new byte[length];
+    System.arraycopy(out, 0, trimmed, 0, length);
+    return trimmed;
+  }
+
+  public static byte[] decode(final String src) {
+    final int length = src.length();
+    final byte[] ascii = new byte[length];
+    for (int i = 0; i < length; i++) {
+      final char c = src.charAt(i);
+      // Anything outside ASCII is skipped by the decoder anyway.
+      ascii[i] = (c < 128) ? (byte) c : (byte) -1;
+    }
+    return decode(ascii);
+  }
+}
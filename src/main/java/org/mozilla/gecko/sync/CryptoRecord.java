@@ -10,8 +10,6 @@ import java.io.UnsupportedEncodingException;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.ParseException;
 
-import org.apache.commons.codec.binary.Base64;
-
 import org.mozilla.gecko.sync.crypto.CryptoException;
 import org.mozilla.gecko.sync.crypto.CryptoInfo;
 import org.mozilla.gecko.sync.crypto.KeyBundle;
@@ -60,8 +58,8 @@ public class CryptoRecord extends Record {
    * @throws UnsupportedEncodingException
    */
   private static byte[] decryptPayload(ExtendedJSONObject payload, KeyBundle keybundle) throws CryptoException, UnsupportedEncodingException {
-    byte[] ciphertext = Base64.decodeBase64(((String) payload.get(KEY_CIPHERTEXT)).getBytes("UTF-8"));
-    byte[] iv         = Base64.decodeBase64(((String) payload.get(KEY_IV)).getBytes("UTF-8"));
+    byte[] ciphertext = Base64Codec.decode((String) payload.get(KEY_CIPHERTEXT));
+    byte[] iv         = Base64Codec.decode((String) payload.get(KEY_IV));
     byte[] hmac       = Utils.hex2Byte((String) payload.get(KEY_HMAC));
 
     return CryptoInfo.decrypt(ciphertext, iv, hmac, keybundle).getMessage();
@@ -70,9 +68,29 @@ public class CryptoRecord extends Record {
   // The encrypted JSON body object.
   // The decrypted JSON body object. Fields are copied from `body`.
 
+  /**
+   * The payload, encrypted or not.
+   * <p>
+   * May be null for a record parsed lazily by
+   * {@link #fromJSONRecord(ExtendedJSONObject, boolean)} or read by
+   * {@link CryptoRecordReader}, until the payload is first needed. Read it
+   * through {@link #getPayload()} unless {@link #isPayloadParsed()} or
+   * {@link #decrypt()} has been called. Assigning it replaces any unparsed
+   * payload.
+   */
   public ExtendedJSONObject payload;
   public KeyBundle   keyBundle;
 
+  // The JSON-encoded payload of a record parsed lazily; see
+  // fromJSONRecord(ExtendedJSONObject, boolean). Ignored once payload is set.
+  protected String rawPayload;
+
+  // The decoded parts of an encrypted payload, as read by CryptoRecordReader.
+  // Ignored once payload is set.
+  protected byte[] rawCiphertext;
+  protected byte[] rawIV;
+  protected byte[] rawHMAC;
+
   /**
    * Don't forget to set cleartext or body!
    */
@@ -111,6 +129,10 @@ public class CryptoRecord extends Record {
     out.sortIndex    = this.sortIndex;
     out.ttl          = this.ttl;
     out.payload      = (this.payload == null) ? null : new ExtendedJSONObject(this.payload.object);
+    out.rawPayload   = this.rawPayload;
+    out.rawCiphertext = (this.rawCiphertext == null) ? null : this.rawCiphertext.clone();
+    out.rawIV         = (this.rawIV == null) ? null : this.rawIV.clone();
+    out.rawHMAC       = (this.rawHMAC == null) ? null : this.rawHMAC.clone();
     out.keyBundle    = this.keyBundle;    // TODO: copy me?
     return out;
   }
@@ -138,16 +160,51 @@ public class CryptoRecord extends Record {
     return CryptoRecord.fromJSONRecord(object);
   }
 
+  /**
+   * As {@link #fromJSONRecord(String)}, optionally leaving the payload
+   * unparsed; see {@link #fromJSONRecord(ExtendedJSONObject, boolean)}.
+   */
+  public static CryptoRecord fromJSONRecord(String jsonRecord, boolean lazy)
+      throws ParseException, NonObjectJSONException, IOException, RecordParseException {
+    byte[] bytes = jsonRecord.getBytes("UTF-8");
+    ExtendedJSONObject object = ExtendedJSONObject.parseUTF8AsJSONObject(bytes);
+
+    return CryptoRecord.fromJSONRecord(object, lazy);
+  }
+
   // TODO: defensive programming.
   public static CryptoRecord fromJSONRecord(ExtendedJSONObject jsonRecord)
       throws IOException, ParseException, NonObjectJSONException, RecordParseException {
+    return fromJSONRecord(jsonRecord, false);
+  }
+
+  /**
+   * Turn a whole record as JSON into a CryptoRecord.
+   * <p>
+   * If <code>lazy</code> is true, only the metadata (id, collection,
+   * modified, sortindex, ttl) is read now. The JSON-encoded payload is kept
+   * as is and only parsed by {@link #getPayload()} or {@link #decrypt()},
+   * so records skipped on their metadata alone never pay for it. A malformed
+   * payload is then reported when it is first needed rather than here.
+   * Lazily parsed records have a null {@link #payload} field until then, so
+   * callers must use {@link #getPayload()} instead of reading the field.
+   */
+  public static CryptoRecord fromJSONRecord(ExtendedJSONObject jsonRecord, boolean lazy)
+      throws IOException, ParseException, NonObjectJSONException, RecordParseException {
     String id                  = (String) jsonRecord.get(KEY_ID);
     String collection          = (String) jsonRecord.get(KEY_COLLECTION);
     String jsonEncodedPayload  = (String) jsonRecord.get(KEY_PAYLOAD);
 
-    ExtendedJSONObject payload = ExtendedJSONObject.parseJSONObject(jsonEncodedPayload);
-
-    CryptoRecord record = new CryptoRecord(payload);
+    CryptoRecord record;
+    if (lazy) {
+      if (jsonEncodedPayload == null) {
+        throw new RecordParseException("payload is missing");
+      }
+      record = new CryptoRecord();
+      record.rawPayload = jsonEncodedPayload;
+    } else {
+      record = new CryptoRecord(ExtendedJSONObject.parseJSONObject(jsonEncodedPayload));
+    }
     record.guid         = id;
     record.collection   = collection;
     if (jsonRecord.containsKey(KEY_MODIFIED)) {
@@ -179,6 +236,47 @@ public class CryptoRecord extends Record {
     return record;
   }
 
+  /**
+   * @return the payload, parsing it first if this record was parsed lazily.
+   */
+  public ExtendedJSONObject getPayload() throws IOException, ParseException, NonObjectJSONException {
+    materializeEncryptedPayload();
+    if (payload == null && rawPayload != null) {
+      payload = ExtendedJSONObject.parseJSONObject(rawPayload);
+      rawPayload = null;
+    }
+    return payload;
+  }
+
+  /**
+   * @return false if this record was parsed lazily and its payload hasn't
+   *         been needed yet.
+   */
+  public boolean isPayloadParsed() {
+    return payload != null || (rawPayload == null && rawCiphertext == null);
+  }
+
+  /**
+   * Turn raw ciphertext, IV and HMAC back into the usual encrypted payload.
+   */
+  protected void materializeEncryptedPayload() {
+    if (payload != null || rawCiphertext == null) {
+      return;
+    }
+    ExtendedJSONObject encrypted = new ExtendedJSONObject();
+    encrypted.put(KEY_CIPHERTEXT, Base64Codec.encodeToString(rawCiphertext));
+    encrypted.put(KEY_HMAC, Utils.byte2Hex(rawHMAC));
+    encrypted.put(KEY_IV, Base64Codec.encodeToString(rawIV));
+    payload = encrypted;
+    clearRawCiphertext();
+  }
+
+  protected void clearRawCiphertext() {
+    rawCiphertext = null;
+    rawIV = null;
+    rawHMAC = null;
+  }
+
   public void setKeyBundle(KeyBundle bundle) {
     this.keyBundle = bundle;
   }
@@ -189,8 +287,19 @@ public class CryptoRecord extends Record {
       throw new NoKeyBundleException();
     }
 
+    // Raw parts are decrypted directly, without a JSON round trip.
+    if (payload == null && rawCiphertext != null) {
+      byte[] cleartext = CryptoInfo.decrypt(rawCiphertext, rawIV, rawHMAC, keyBundle).getMessage();
+      payload = ExtendedJSONObject.parseUTF8AsJSONObject(cleartext);
+      clearRawCiphertext();
+      return this;
+    }
+
+    getPayload();
+
     // Check that payload contains all pieces for crypto.
-    if (!payload.containsKey(KEY_CIPHERTEXT) ||
+    if (payload == null ||
+        !payload.containsKey(KEY_CIPHERTEXT) ||
         !payload.containsKey(KEY_IV) ||
         !payload.containsKey(KEY_HMAC)) {
       throw new MissingCryptoInputException();
@@ -207,17 +316,20 @@ public class CryptoRecord extends Record {
     if (this.keyBundle == null) {
       throw new NoKeyBundleException();
     }
-    String cleartext = payload.toJSONString();
+    materializeEncryptedPayload();
+    // An unparsed payload is encrypted as is.
+    String cleartext = (payload == null && rawPayload != null) ? rawPayload : payload.toJSONString();
     byte[] cleartextBytes = cleartext.getBytes("UTF-8");
     CryptoInfo info = CryptoInfo.encrypt(cleartextBytes, keyBundle);
-    String message = new String(Base64.encodeBase64(info.getMessage()));
-    String iv      = new String(Base64.encodeBase64(info.getIV()));
+    String message = Base64Codec.encodeToString(info.getMessage());
+    String iv      = Base64Codec.encodeToString(info.getIV());
     String hmac    = Utils.byte2Hex(info.getHMAC());
     ExtendedJSONObject ciphertext = new ExtendedJSONObject();
     ciphertext.put(KEY_CIPHERTEXT, message);
     ciphertext.put(KEY_HMAC, hmac);
     ciphertext.put(KEY_IV, iv);
     this.payload = ciphertext;
+    this.rawPayload = null;
     return this;
   }
 
@@ -243,8 +355,10 @@ public class CryptoRecord extends Record {
 
   // TODO: this only works with encrypted object, and has other limitations.
   public JSONObject toJSONObject() {
+    materializeEncryptedPayload();
     ExtendedJSONObject o = new ExtendedJSONObject();
-    o.put(KEY_PAYLOAD, payload.toJSONString());
+    // An unparsed payload is written back exactly as it was read.
+    o.put(KEY_PAYLOAD, payload == null && rawPayload != null ? rawPayload : payload.toJSONString());
     o.put(KEY_ID,      this.guid);
     if (this.ttl > 0) {
       o.put(KEY_TTL, this.ttl);
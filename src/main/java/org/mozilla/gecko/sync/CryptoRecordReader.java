@@ -0,0 +1,172 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads <code>CryptoRecord</code>s written by {@link CryptoRecordWriter}.
+ * <p>
+ * Payloads aren't parsed: encrypted payloads are kept as raw bytes and
+ * handed straight to decryption, and JSON payloads are parsed on first use,
+ * as with <code>CryptoRecord.fromJSONRecord(..., true)</code>.
+ * <p>
+ * Not thread-safe.
+ */
+public class CryptoRecordReader implements Closeable {
+  protected static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Longest field accepted, to fail fast on corrupt input.
+   */
+  public static final int MAX_FIELD_LENGTH = 64 * 1024 * 1024;
+
+  protected final InputStream in;
+  protected final int version;
+
+  protected byte[] scratch = new byte[256];
+
+  /**
+   * Read and check the stream header.
+   *
+   * @throws IOException if the stream doesn't start with a header for a
+   *         version this reader understands.
+   */
+  public CryptoRecordReader(InputStream in) throws IOException {
+    if (in == null) {
+      throw new IllegalArgumentException("in must not be null");
+    }
+    this.in = in;
+    for (byte b : CryptoRecordWriter.MAGIC) {
+      if (readByte() != (b & 0xff)) {
+        throw new IOException("Not a binary record stream.");
+      }
+    }
+    this.version = readByte();
+    if (version != CryptoRecordWriter.VERSION) {
+      throw new IOException("Unsupported binary record format version " + version + ".");
+    }
+  }
+
+  /**
+   * For reading records from a stream without a header, such as a single
+   * record encoded by {@link CryptoRecordWriter#encode(CryptoRecord)}.
+   */
+  protected CryptoRecordReader(InputStream in, int version) {
+    this.in = in;
+    this.version = version;
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * Encrypted payloads are kept as raw bytes, so the record's
+   * {@link CryptoRecord#payload} field is null until
+   * {@link CryptoRecord#getPayload()} or {@link CryptoRecord#decrypt()}.
+   *
+   * @return the next record, or null at the end of the stream.
+   * @throws EOFException if the stream ends part way through a record.
+   * @throws IOException if the record is malformed or uses unknown flags.
+   */
+  public CryptoRecord read() throws IOException {
+    final int flags = in.read();
+    if (flags < 0) {
+      return null;
+    }
+    if ((flags & ~CryptoRecordWriter.KNOWN_FLAGS) != 0) {
+      throw new IOException("Unknown record flags " + flags + ".");
+    }
+
+    final CryptoRecord record = new CryptoRecord();
+    record.deleted = (flags & CryptoRecordWriter.FLAG_DELETED) != 0;
+    if ((flags & CryptoRecordWriter.FLAG_GUID) != 0) {
+      record.guid = readString();
+    }
+    if ((flags & CryptoRecordWriter.FLAG_COLLECTION) != 0) {
+      record.collection = readString();
+    }
+    record.lastModified = readSignedVarint();
+    record.sortIndex = readSignedVarint();
+    record.ttl = readSignedVarint();
+    if ((flags & CryptoRecordWriter.FLAG_ENCRYPTED) != 0) {
+      record.rawCiphertext = readBytes();
+      record.rawIV = readBytes();
+      record.rawHMAC = readBytes();
+    } else if ((flags & CryptoRecordWriter.FLAG_PAYLOAD) != 0) {
+      record.rawPayload = readString();
+    }
+    return record;
+  }
+
+  protected int readByte() throws IOException {
+    final int b = in.read();
+    if (b < 0) {
+      throw new EOFException();
+    }
+    return b;
+  }
+
+  protected long readVarint() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = readByte();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint.");
+  }
+
+  protected long readSignedVarint() throws IOException {
+    final long value = readVarint();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  protected int readLength() throws IOException {
+    final long length = readVarint();
+    if (length < 0 || length > MAX_FIELD_LENGTH) {
+      throw new IOException("Field length " + length + " out of range.");
+    }
+    return (int) length;
+  }
+
+  protected void readFully(byte[] bytes, int length) throws IOException {
+    int read = 0;
+    while (read < length) {
+      final int n = in.read(bytes, read, length - read);
+      if (n < 0) {
+        throw new EOFException();
+      }
+      read += n;
+    }
+  }
+
+  protected byte[] readBytes() throws IOException {
+    final byte[] bytes = new byte[readLength()];
+    readFully(bytes, bytes.length);
+    return bytes;
+  }
+
+  protected String readString() throws IOException {
+    final int length = readLength();
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, 2 * scratch.length)];
+    }
+    readFully(scratch, length);
+    return new String(scratch, 0, length, UTF_8);
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,475 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.mozilla.gecko.background.common.log.Logger;
+
+/**
+ * A local, append-only store of <code>CryptoRecord</code>s, so that a
+ * collection doesn't have to be refetched in full after a restart: reopen the
+ * store and fetch <code>newer={@link #getHighWaterMark()}</code>.
+ * <p>
+ * Records are kept as given, in the {@link CryptoRecordWriter} encoding, so
+ * encrypted records stay encrypted on disk. Each put or removal is appended to
+ * the newest of a directory of memory-mapped segment files; an in-memory index
+ * maps each <code>guid</code> to its latest entry, and is rebuilt by replaying
+ * the segments when the store is opened. Superseded entries take up space
+ * until {@link #compact()} rewrites the live ones into fresh segments.
+ * <p>
+ * A segment entry is a 4-byte body length, a 4-byte CRC-32 of the kind byte
+ * and body, a kind byte and the body. The unwritten tail of a segment is
+ * zeroes. Replay stops at the first entry of a segment that's incomplete or
+ * fails its checksum, so an entry torn by a crash is dropped.
+ * <p>
+ * Thread-safe. Only one store should have a directory open at a time.
+ */
+public class CryptoRecordStore implements Closeable {
+  private static final String LOG_TAG = "CryptoRecordStore";
+
+  public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+  protected static final String SEGMENT_SUFFIX = ".seg";
+
+  protected static final int ENTRY_HEADER_LENGTH = 9;
+  protected static final byte KIND_RECORD  = 1;
+  protected static final byte KIND_REMOVED = 2;
+
+  protected static final class Segment {
+    public final int number;
+    public final File file;
+    public final RandomAccessFile raf;
+    public final MappedByteBuffer buffer;
+    public int position;
+
+    public Segment(int number, File file, RandomAccessFile raf, MappedByteBuffer buffer) {
+      this.number = number;
+      this.file = file;
+      this.raf = raf;
+      this.buffer = buffer;
+    }
+
+    public int remaining() {
+      return buffer.capacity() - position;
+    }
+  }
+
+  protected static final class Location {
+    public Segment segment;         // Segment and offset change on compaction.
+    public int offset;
+    public final int length;        // Including the entry header.
+    public final long lastModified;
+
+    public Location(Segment segment, int offset, int length, long lastModified) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+  }
+
+  protected final File directory;
+  protected final int segmentSize;
+
+  protected ArrayList<Segment> segments = new ArrayList<Segment>();
+  protected int nextSegmentNumber;
+  protected final GuidMap<Location> index = new GuidMap<Location>();
+  protected final SortedGuidIndex modifiedIndex = new SortedGuidIndex();
+
+  protected long liveBytes;
+  protected long totalBytes;
+  protected boolean closed;
+
+  protected final CryptoRecordWriter encoder = new CryptoRecordWriter();
+  protected final CRC32 crc = new CRC32();
+
+  public CryptoRecordStore(File directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Open the store in <code>directory</code>, creating it if necessary, and
+   * replay its segments.
+   *
+   * @param segmentSize
+   *          size of new segment files; a record bigger than this gets a
+   *          segment to itself.
+   */
+  public CryptoRecordStore(File directory, int segmentSize) throws IOException {
+    if (directory == null) {
+      throw new IllegalArgumentException("directory must not be null");
+    }
+    if (segmentSize <= ENTRY_HEADER_LENGTH) {
+      throw new IllegalArgumentException("segmentSize must be greater than " + ENTRY_HEADER_LENGTH);
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Couldn't create " + directory + ".");
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+
+    final File[] files = directory.listFiles();
+    final TreeMap<Integer, File> numbered = new TreeMap<Integer, File>();
+    if (files != null) {
+      for (File file : files) {
+        final int number = segmentNumber(file.getName());
+        if (number >= 0) {
+          numbered.put(number, file);
+        }
+      }
+    }
+    for (Map.Entry<Integer, File> entry : numbered.entrySet()) {
+      final File file = entry.getValue();
+      final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      final Segment segment = new Segment(entry.getKey(), file, raf,
+          raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length()));
+      segments.add(segment);
+      replay(segment);
+      nextSegmentNumber = segment.number + 1;
+    }
+  }
+
+  protected static int segmentNumber(String name) {
+    if (!name.endsWith(SEGMENT_SUFFIX)) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  protected void replay(Segment segment) throws IOException {
+    final MappedByteBuffer buffer = segment.buffer;
+    int position = 0;
+    while (buffer.capacity() - position >= ENTRY_HEADER_LENGTH) {
+      final int length = buffer.getInt(position);
+      if (length == 0) {
+        break;
+      }
+      final byte[] body = length > 0 && length <= buffer.capacity() - position - ENTRY_HEADER_LENGTH
+          ? readBody(segment, position, length) : null;
+      final byte kind = buffer.get(position + 8);
+      if (body == null || buffer.getInt(position + 4) != checksum(kind, body, length)) {
+        Logger.warn(LOG_TAG, "Dropping torn entry at " + position + " in " + segment.file.getName() + ".");
+        // Appends will start here; don't leave the rest to be misread later.
+        for (int i = position; i < buffer.capacity(); i++) {
+          buffer.put(i, (byte) 0);
+        }
+        break;
+      }
+      final int entryLength = ENTRY_HEADER_LENGTH + length;
+      if (kind == KIND_REMOVED) {
+        unindex(new String(body, CryptoRecordReader.UTF_8));
+      } else {
+        final CryptoRecord record = decode(body);
+        if (record.guid != null) {
+          index(record.guid, new Location(segment, position, entryLength, record.lastModified));
+        }
+      }
+      totalBytes += entryLength;
+      position += entryLength;
+    }
+    segment.position = position;
+  }
+
+  protected int checksum(byte kind, byte[] body, int length) {
+    crc.reset();
+    crc.update(kind);
+    crc.update(body, 0, length);
+    return (int) crc.getValue();
+  }
+
+  protected static byte[] readBody(Segment segment, int position, int length) {
+    final ByteBuffer view = segment.buffer.duplicate();
+    view.position(position + ENTRY_HEADER_LENGTH);
+    final byte[] body = new byte[length];
+    view.get(body);
+    return body;
+  }
+
+  protected static CryptoRecord decode(byte[] body) throws IOException {
+    final CryptoRecord record = new CryptoRecordReader(new ByteArrayInputStream(body), CryptoRecordWriter.VERSION).read();
+    if (record == null) {
+      throw new IOException("Empty record entry.");
+    }
+    return record;
+  }
+
+  protected void index(String guid, Location location) {
+    unindex(guid);
+    index.put(guid, location);
+    modifiedIndex.add(location.lastModified, guid);
+    liveBytes += location.length;
+  }
+
+  protected void unindex(String guid) {
+    final Location old = index.remove(guid);
+    if (old == null) {
+      return;
+    }
+    modifiedIndex.remove(old.lastModified, guid);
+    liveBytes -= old.length;
+  }
+
+  protected Segment newSegment(int minimumSize) throws IOException {
+    final int number = nextSegmentNumber++;
+    final File file = new File(directory, number + SEGMENT_SUFFIX);
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    final Segment segment = new Segment(number, file, raf,
+        raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, minimumSize)));
+    segments.add(segment);
+    return segment;
+  }
+
+  /**
+   * Append an entry to the newest segment, starting a new one if it's full.
+   *
+   * @return where the entry was written.
+   */
+  protected Location append(byte kind, byte[] body, int length, long lastModified) throws IOException {
+    final int entryLength = ENTRY_HEADER_LENGTH + length;
+    Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    if (segment == null || segment.remaining() < entryLength) {
+      segment = newSegment(entryLength);
+    }
+    final int offset = segment.position;
+    final ByteBuffer view = segment.buffer.duplicate();
+    view.position(offset + 4);
+    view.putInt(checksum(kind, body, length));
+    view.put(kind);
+    view.put(body, 0, length);
+    // Length last: a zero length marks the end of the segment.
+    view.putInt(offset, length);
+    segment.position += entryLength;
+    totalBytes += entryLength;
+    return new Location(segment, offset, entryLength, lastModified);
+  }
+
+  protected void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Store is closed.");
+    }
+  }
+
+  /**
+   * Store <code>record</code>, replacing any record with the same
+   * <code>guid</code>.
+   */
+  public synchronized void put(CryptoRecord record) throws IOException {
+    if (record == null) {
+      throw new IllegalArgumentException("record must not be null");
+    }
+    if (record.guid == null) {
+      throw new IllegalArgumentException("record.guid must not be null");
+    }
+    checkOpen();
+    encoder.encode(record);
+    index(record.guid, append(KIND_RECORD, encoder.buffer, encoder.length, record.lastModified));
+  }
+
+  /**
+   * Forget the record with this <code>guid</code>, if any. To store a server
+   * tombstone, <code>put</code> a deleted record instead.
+   *
+   * @return true if there was a record to forget.
+   */
+  public synchronized boolean remove(String guid) throws IOException {
+    if (guid == null) {
+      throw new IllegalArgumentException("guid must not be null");
+    }
+    checkOpen();
+    if (!index.containsKey(guid)) {
+      return false;
+    }
+    final byte[] body = guid.getBytes(CryptoRecordReader.UTF_8);
+    append(KIND_REMOVED, body, body.length, 0);
+    unindex(guid);
+    return true;
+  }
+
+  /**
+   * @return the stored record with this <code>guid</code>, or null.
+   */
+  public synchronized CryptoRecord get(String guid) throws IOException {
+    if (guid == null) {
+      throw new IllegalArgumentException("guid must not be null");
+    }
+    checkOpen();
+    final Location location = index.get(guid);
+    if (location == null) {
+      return null;
+    }
+    return read(location);
+  }
+
+  protected static CryptoRecord read(Location location) throws IOException {
+    return decode(readBody(location.segment, location.offset, location.length - ENTRY_HEADER_LENGTH));
+  }
+
+  /**
+   * @return stored records with <code>from &lt;= lastModified &lt; to</code>,
+   *         oldest first.
+   */
+  public synchronized List<CryptoRecord> scan(long from, long to) throws IOException {
+    checkOpen();
+    final ArrayList<CryptoRecord> records = new ArrayList<CryptoRecord>();
+    if (from >= to) {
+      return records;
+    }
+    final SortedGuidIndex.Cursor cursor = modifiedIndex.ascending(from, to - 1);
+    while (cursor.next()) {
+      records.add(read(index.get(cursor.guid())));
+    }
+    return records;
+  }
+
+  /**
+   * @return the greatest <code>lastModified</code> stored, for fetching
+   *         <code>newer=</code> records; -1 if the store is empty.
+   */
+  public synchronized long getHighWaterMark() {
+    checkOpen();
+    return modifiedIndex.isEmpty() ? -1 : modifiedIndex.lastKey();
+  }
+
+  public synchronized int size() {
+    return index.size();
+  }
+
+  /**
+   * @return bytes of entries for records in the store.
+   */
+  public synchronized long getLiveBytes() {
+    return liveBytes;
+  }
+
+  /**
+   * @return bytes of all entries, including superseded ones; compare with
+   *         {@link #getLiveBytes()} to decide when to {@link #compact()}.
+   */
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * Copy live entries into fresh segments and delete the old ones.
+   * <p>
+   * Old segments are deleted oldest first, so if this is interrupted the
+   * remaining files still replay to the same contents.
+   */
+  public synchronized void compact() throws IOException {
+    checkOpen();
+    final ArrayList<Segment> old = segments;
+    final ArrayList<Location> live = new ArrayList<Location>(index.size());
+    final GuidMap<Location>.Cursor cursor = index.cursor();
+    while (cursor.next()) {
+      live.add(cursor.value());
+    }
+    // Copy in the order the entries were written.
+    Collections.sort(live, new Comparator<Location>() {
+      @Override
+      public int compare(Location x, Location y) {
+        if (x.segment.number != y.segment.number) {
+          return x.segment.number < y.segment.number ? -1 : 1;
+        }
+        return x.offset < y.offset ? -1 : (x.offset == y.offset ? 0 : 1);
+      }
+    });
+
+    segments = new ArrayList<Segment>();
+    final Segment[] movedSegments = new Segment[live.size()];
+    final int[] movedOffsets = new int[live.size()];
+    try {
+      Segment current = null;
+      for (int i = 0; i < live.size(); i++) {
+        final Location location = live.get(i);
+        final int entryLength = location.length;
+        if (current == null || current.remaining() < entryLength) {
+          current = newSegment(entryLength);
+        }
+        // Copied as is: the checksum still holds.
+        final ByteBuffer source = location.segment.buffer.duplicate();
+        source.position(location.offset);
+        source.limit(location.offset + entryLength);
+        final ByteBuffer target = current.buffer.duplicate();
+        target.position(current.position);
+        target.put(source);
+        movedSegments[i] = current;
+        movedOffsets[i] = current.position;
+        current.position += entryLength;
+      }
+      for (Segment segment : segments) {
+        segment.buffer.force();
+      }
+    } catch (IOException e) {
+      // Leave the old segments in charge; drop what was copied.
+      for (Segment segment : segments) {
+        close(segment);
+        segment.file.delete();
+      }
+      segments = old;
+      throw e;
+    }
+
+    for (Segment segment : old) {
+      close(segment);
+      if (!segment.file.delete()) {
+        Logger.warn(LOG_TAG, "Couldn't delete compacted segment " + segment.file.getName() + ".");
+      }
+    }
+    for (int i = 0; i < live.size(); i++) {
+      live.get(i).segment = movedSegments[i];
+      live.get(i).offset = movedOffsets[i];
+    }
+    totalBytes = liveBytes;
+  }
+
+  protected static void close(Segment segment) {
+    try {
+      segment.raf.close();
+    } catch (IOException e) {
+      Logger.warn(LOG_TAG, "Couldn't close " + segment.file.getName() + ".", e);
+    }
+  }
+
+  /**
+   * Write changes through to disk.
+   */
+  public synchronized void flush() {
+    checkOpen();
+    for (Segment segment : segments) {
+      segment.buffer.force();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    for (Segment segment : segments) {
+      segment.buffer.force();
+      close(segment);
+    }
+    closed = true;
+  }
+}
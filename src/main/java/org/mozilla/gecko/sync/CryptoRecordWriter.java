@@ -0,0 +1,279 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes <code>CryptoRecord</code>s to a stream in a compact binary format,
+ * for caching and handing records between processes. Read them back with
+ * {@link CryptoRecordReader}.
+ * <p>
+ * A stream is the 4 bytes <code>'S' 'R' 'B' VERSION</code> followed by any
+ * number of records. Each record is:
+ * <ul>
+ * <li>a flags byte (see the <code>FLAG_</code> constants);</li>
+ * <li><code>guid</code> and <code>collection</code>, if flagged, as
+ * length-prefixed UTF-8;</li>
+ * <li><code>lastModified</code>, <code>sortIndex</code> and <code>ttl</code>
+ * as zig-zag varints;</li>
+ * <li>if <code>FLAG_ENCRYPTED</code>, the raw ciphertext, IV and HMAC, each
+ * length-prefixed; otherwise, if <code>FLAG_PAYLOAD</code>, the JSON payload
+ * as length-prefixed UTF-8.</li>
+ * </ul>
+ * Lengths are unsigned varints. An encrypted payload is only written in raw
+ * form if that round-trips exactly; anything else is written as JSON. Key
+ * bundles and local fields such as <code>androidID</code> aren't written.
+ * <p>
+ * Not thread-safe.
+ */
+public class CryptoRecordWriter implements Closeable, Flushable {
+  public static final byte[] MAGIC = new byte[] { 'S', 'R', 'B' };
+  public static final int VERSION = 1;
+
+  public static final int FLAG_DELETED    = 1;
+  public static final int FLAG_GUID       = 1 << 1;
+  public static final int FLAG_COLLECTION = 1 << 2;
+  public static final int FLAG_PAYLOAD    = 1 << 3;
+  public static final int FLAG_ENCRYPTED  = 1 << 4;
+  public static final int KNOWN_FLAGS = FLAG_DELETED | FLAG_GUID | FLAG_COLLECTION | FLAG_PAYLOAD | FLAG_ENCRYPTED;
+
+  protected static final String KEY_CIPHERTEXT = "ciphertext";
+  protected static final String KEY_HMAC       = "hmac";
+  protected static final String KEY_IV         = "IV";
+
+  protected final OutputStream out;
+
+  protected byte[] buffer = new byte[256];
+  protected int length;
+
+  /**
+   * Write the stream header to <code>out</code>. Records are buffered one at
+   * a time; call {@link #flush()} to push them through.
+   */
+  public CryptoRecordWriter(OutputStream out) throws IOException {
+    if (out == null) {
+      throw new IllegalArgumentException("out must not be null");
+    }
+    this.out = out;
+    out.write(MAGIC);
+    out.write(VERSION);
+  }
+
+  /**
+   * For encoding records without a stream; see {@link #encode(CryptoRecord)}.
+   */
+  protected CryptoRecordWriter() {
+    this.out = null;
+  }
+
+  public void write(CryptoRecord record) throws IOException {
+    encode(record);
+    out.write(buffer, 0, length);
+  }
+
+  /**
+   * Encode <code>record</code>, without a stream header, into the first
+   * <code>length</code> bytes of <code>buffer</code>.
+   */
+  protected void encode(CryptoRecord record) {
+    if (record == null) {
+      throw new IllegalArgumentException("record must not be null");
+    }
+    length = 0;
+
+    byte[] ciphertext = null;
+    byte[] iv = null;
+    byte[] hmac = null;
+    String json = null;
+    if (record.payload == null && record.rawCiphertext != null) {
+      ciphertext = record.rawCiphertext;
+      iv = record.rawIV;
+      hmac = record.rawHMAC;
+    } else if (record.payload != null) {
+      final byte[][] parts = rawEncryptedParts(record.payload);
+      if (parts != null) {
+        ciphertext = parts[0];
+        iv = parts[1];
+        hmac = parts[2];
+      } else {
+        json = record.payload.toJSONString();
+      }
+    } else if (record.rawPayload != null) {
+      // A lazily parsed record from the server: usually an encrypted payload.
+      final byte[][] parts = rawEncryptedParts(record.rawPayload);
+      if (parts != null) {
+        ciphertext = parts[0];
+        iv = parts[1];
+        hmac = parts[2];
+      } else {
+        json = record.rawPayload;
+      }
+    }
+
+    int flags = 0;
+    if (record.deleted) {
+      flags |= FLAG_DELETED;
+    }
+    if (record.guid != null) {
+      flags |= FLAG_GUID;
+    }
+    if (record.collection != null) {
+      flags |= FLAG_COLLECTION;
+    }
+    if (ciphertext != null) {
+      flags |= FLAG_ENCRYPTED;
+    } else if (json != null) {
+      flags |= FLAG_PAYLOAD;
+    }
+
+    writeByte(flags);
+    if (record.guid != null) {
+      writeString(record.guid);
+    }
+    if (record.collection != null) {
+      writeString(record.collection);
+    }
+    writeSignedVarint(record.lastModified);
+    writeSignedVarint(record.sortIndex);
+    writeSignedVarint(record.ttl);
+    if (ciphertext != null) {
+      writeBytes(ciphertext);
+      writeBytes(iv);
+      writeBytes(hmac);
+    } else if (json != null) {
+      writeString(json);
+    }
+  }
+
+  /**
+   * As {@link #rawEncryptedParts(ExtendedJSONObject)}, for a payload that
+   * hasn't been parsed yet.
+   */
+  protected static byte[][] rawEncryptedParts(String rawPayload) {
+    // Cheap check before parsing: encrypted payloads always mention all three.
+    if (rawPayload.indexOf(KEY_CIPHERTEXT) < 0 || rawPayload.indexOf(KEY_HMAC) < 0 || rawPayload.indexOf(KEY_IV) < 0) {
+      return null;
+    }
+    try {
+      return rawEncryptedParts(ExtendedJSONObject.parseJSONObject(rawPayload));
+    } catch (Exception e) {
+      // Not a JSON object; keep it as is.
+      return null;
+    }
+  }
+
+  /**
+   * @return ciphertext, IV and HMAC if <code>payload</code> is exactly an
+   *         encrypted payload that can be rebuilt from them; null otherwise.
+   */
+  protected static byte[][] rawEncryptedParts(ExtendedJSONObject payload) {
+    if (payload.size() != 3) {
+      return null;
+    }
+    final Object ciphertext = payload.get(KEY_CIPHERTEXT);
+    final Object iv = payload.get(KEY_IV);
+    final Object hmac = payload.get(KEY_HMAC);
+    if (!(ciphertext instanceof String) || !(iv instanceof String) || !(hmac instanceof String)) {
+      return null;
+    }
+    try {
+      final byte[][] parts = new byte[][] {
+          Base64Codec.decode((String) ciphertext),
+          Base64Codec.decode((String) iv),
+          HexCodec.decode((String) hmac),
+      };
+      // Only if nothing (whitespace, letter case, padding) would be lost.
+      if (Base64Codec.encodeToString(parts[0]).equals(ciphertext) &&
+          Base64Codec.encodeToString(parts[1]).equals(iv) &&
+          Utils.byte2Hex(parts[2]).equals(hmac)) {
+        return parts;
+      }
+    } catch (RuntimeException e) {
+      // Not valid Base64 or hex; keep it as JSON.
+    }
+    return null;
+  }
+
+  protected void ensureCapacity(int extra) {
+    if (length + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(length + extra, 2 * buffer.length));
+    }
+  }
+
+  protected void writeByte(int b) {
+    ensureCapacity(1);
+    buffer[length++] = (byte) b;
+  }
+
+  protected void writeVarint(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7fL) != 0) {
+      buffer[length++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    buffer[length++] = (byte) value;
+  }
+
+  protected void writeSignedVarint(long value) {
+    writeVarint((value << 1) ^ (value >> 63));
+  }
+
+  protected void writeBytes(byte[] bytes) {
+    writeVarint(bytes.length);
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, length, bytes.length);
+    length += bytes.length;
+  }
+
+  protected void writeString(String s) {
+    // Encode straight into the buffer; at most 3 bytes per char.
+    final int n = s.length();
+    ensureCapacity(5 + 3 * n);
+    final int start = length + 5;
+    int p = start;
+    for (int i = 0; i < n; i++) {
+      final char c = s.charAt(i);
+      if (c < 0x80) {
+        buffer[p++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[p++] = (byte) (0xc0 | (c >> 6));
+        buffer[p++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+        final int cp = Character.toCodePoint(c, s.charAt(++i));
+        buffer[p++] = (byte) (0xf0 | (cp >> 18));
+        buffer[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+        buffer[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        buffer[p++] = (byte) (0x80 | (cp & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        // Unpaired surrogate: '?', as String.getBytes would.
+        buffer[p++] = (byte) '?';
+      } else {
+        buffer[p++] = (byte) (0xe0 | (c >> 12));
+        buffer[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[p++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    final int encodedLength = p - start;
+    // Move the bytes up against their length prefix.
+    writeVarint(encodedLength);
+    System.arraycopy(buffer, start, buffer, length, encodedLength);
+    length += encodedLength;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
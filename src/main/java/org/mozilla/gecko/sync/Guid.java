@@ -0,0 +1,173 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync;
+
+/**
+ * A record GUID, held compactly.
+ * <p>
+ * Sync GUIDs are normally 12 base64url characters encoding 9 bytes; those are
+ * packed into a <code>long</code> and a <code>byte</code> and turned back into
+ * a <code>String</code> only on demand. Anything else, such as the
+ * <code>"menu"</code> and <code>"toolbar"</code> bookmark roots, is kept as
+ * the <code>String</code> it is.
+ * <p>
+ * Immutable. Two <code>Guid</code>s are equal exactly when their string forms
+ * are.
+ */
+public final class Guid {
+  public static final int LENGTH = 12;
+  public static final int BYTE_LENGTH = 9;
+
+  protected static final char[] ENCODE =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+  protected static final byte[] DECODE = new byte[128];
+  static {
+    for (int i = 0; i < DECODE.length; i++) {
+      DECODE[i] = -1;
+    }
+    for (int i = 0; i < ENCODE.length; i++) {
+      DECODE[ENCODE[i]] = (byte) i;
+    }
+  }
+
+  // The first 8 of the 9 bytes, big-endian, and the last.
+  protected final long high;
+  protected final byte low;
+  // The GUID itself if it isn't compact; null otherwise.
+  protected final String other;
+
+  protected Guid(long high, byte low, String other) {
+    this.high = high;
+    this.low = low;
+    this.other = other;
+  }
+
+  public static Guid fromString(String guid) {
+    if (guid == null) {
+      throw new IllegalArgumentException("guid must not be null");
+    }
+    if (!isCompact(guid)) {
+      return new Guid(0, (byte) 0, guid);
+    }
+    return new Guid(decodeHigh(guid), decodeLow(guid), null);
+  }
+
+  /**
+   * @param bytes
+   *          the 9 bytes a 12-character GUID encodes.
+   */
+  public static Guid fromBytes(byte[] bytes) {
+    if (bytes == null) {
+      throw new IllegalArgumentException("bytes must not be null");
+    }
+    if (bytes.length != BYTE_LENGTH) {
+      throw new IllegalArgumentException("bytes must be " + BYTE_LENGTH + " bytes long");
+    }
+    long high = 0;
+    for (int i = 0; i < 8; i++) {
+      high = (high << 8) | (bytes[i] & 0xff);
+    }
+    return new Guid(high, bytes[8], null);
+  }
+
+  /**
+   * @return true if <code>guid</code> is 12 base64url characters, and so can
+   *         be held without a <code>String</code>.
+   */
+  public static boolean isCompact(String guid) {
+    if (guid.length() != LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < LENGTH; i++) {
+      final char c = guid.charAt(i);
+      if (c >= DECODE.length || DECODE[c] < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the first 8 bytes encoded by a compact <code>guid</code>.
+   */
+  protected static long decodeHigh(String guid) {
+    long high = 0;
+    for (int i = 0; i < 10; i++) {
+      high = (high << 6) | DECODE[guid.charAt(i)];
+    }
+    return (high << 4) | (DECODE[guid.charAt(10)] >> 2);
+  }
+
+  /**
+   * @return the last byte encoded by a compact <code>guid</code>.
+   */
+  protected static byte decodeLow(String guid) {
+    return (byte) (((DECODE[guid.charAt(10)] & 3) << 6) | DECODE[guid.charAt(11)]);
+  }
+
+  protected static int hash(long high, byte low) {
+    final long h = (high ^ low) * 0x9e3779b97f4a7c15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  protected static int hash(String other) {
+    return other.hashCode() * 0x9e3779b9;
+  }
+
+  public boolean isCompact() {
+    return other == null;
+  }
+
+  /**
+   * @return the 9 bytes this GUID encodes.
+   * @throws IllegalStateException if it isn't compact.
+   */
+  public byte[] toBytes() {
+    if (other != null) {
+      throw new IllegalStateException("Not a compact GUID.");
+    }
+    final byte[] bytes = new byte[BYTE_LENGTH];
+    for (int i = 0; i < 8; i++) {
+      bytes[i] = (byte) (high >>> (56 - 8 * i));
+    }
+    bytes[8] = low;
+    return bytes;
+  }
+
+  protected static String toString(long high, byte low) {
+    final char[] chars = new char[LENGTH];
+    for (int i = 0; i < 10; i++) {
+      chars[i] = ENCODE[(int) (high >>> (58 - 6 * i)) & 0x3f];
+    }
+    chars[10] = ENCODE[(((int) high & 0xf) << 2) | ((low & 0xff) >> 6)];
+    chars[11] = ENCODE[low & 0x3f];
+    return new String(chars);
+  }
+
+  @Override
+  public String toString() {
+    return other != null ? other : toString(high, low);
+  }
+
+  @Override
+  public int hashCode() {
+    return other != null ? hash(other) : hash(high, low);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Guid)) {
+      return false;
+    }
+    final Guid g = (Guid) o;
+    if (other != null) {
+      return other.equals(g.other);
+    }
+    return g.other == null && high == g.high && low == g.low;
+  }
+}
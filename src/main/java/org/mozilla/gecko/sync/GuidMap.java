@@ -0,0 +1,274 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from record GUIDs to values, for large record sets.
+ * <p>
+ * Keys are stored the way {@link Guid} holds them, in parallel primitive
+ * arrays, so a compact GUID costs 9 bytes of key rather than a
+ * <code>String</code>, and lookups by <code>String</code> don't allocate.
+ * Collisions are resolved by linear probing, and removal shifts entries back
+ * rather than leaving tombstones.
+ * <p>
+ * Values must not be null. Not thread-safe; a {@link Cursor} is invalidated
+ * by any change to the map.
+ */
+public class GuidMap<V> {
+  protected static final int DEFAULT_CAPACITY = 16;
+
+  // Resize when more than this fraction of slots are full.
+  protected static final float LOAD_FACTOR = 0.7f;
+
+  protected long[] highs;
+  protected byte[] lows;
+  protected String[] others;   // Non-compact keys; null for compact ones.
+  protected Object[] values;   // Null for an empty slot.
+
+  protected int size;
+  protected int threshold;
+
+  public GuidMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param expectedSize
+   *          entries to make room for before resizing.
+   */
+  public GuidMap(int expectedSize) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("expectedSize must not be negative");
+    }
+    int capacity = 2;
+    while (capacity * LOAD_FACTOR < expectedSize) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  protected void allocate(int capacity) {
+    highs = new long[capacity];
+    lows = new byte[capacity];
+    others = new String[capacity];
+    values = new Object[capacity];
+    threshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    Arrays.fill(others, null);
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  /**
+   * @return the slot holding the key, or the empty slot where it would go.
+   */
+  protected int find(long high, byte low, String other) {
+    final int mask = values.length - 1;
+    int i = (other != null ? Guid.hash(other) : Guid.hash(high, low)) & mask;
+    while (values[i] != null) {
+      if (other != null ? other.equals(others[i]) : (others[i] == null && highs[i] == high && lows[i] == low)) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  protected int find(String guid) {
+    if (guid == null) {
+      throw new IllegalArgumentException("guid must not be null");
+    }
+    if (Guid.isCompact(guid)) {
+      return find(Guid.decodeHigh(guid), Guid.decodeLow(guid), null);
+    }
+    return find(0, (byte) 0, guid);
+  }
+
+  protected int find(Guid guid) {
+    if (guid == null) {
+      throw new IllegalArgumentException("guid must not be null");
+    }
+    return find(guid.high, guid.low, guid.other);
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(String guid) {
+    return (V) values[find(guid)];
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(Guid guid) {
+    return (V) values[find(guid)];
+  }
+
+  public boolean containsKey(String guid) {
+    return values[find(guid)] != null;
+  }
+
+  public boolean containsKey(Guid guid) {
+    return values[find(guid)] != null;
+  }
+
+  /**
+   * @return the previous value for <code>guid</code>, or null.
+   */
+  public V put(String guid, V value) {
+    if (guid == null) {
+      throw new IllegalArgumentException("guid must not be null");
+    }
+    if (Guid.isCompact(guid)) {
+      return put(Guid.decodeHigh(guid), Guid.decodeLow(guid), null, value);
+    }
+    return put(0, (byte) 0, guid, value);
+  }
+
+  /**
+   * @return the previous value for <code>guid</code>, or null.
+   */
+  public V put(Guid guid, V value) {
+    if (guid == null) {
+      throw new IllegalArgumentException("guid must not be null");
+    }
+    return put(guid.high, guid.low, guid.other, value);
+  }
+
+  @SuppressWarnings("unchecked")
+  protected V put(long high, byte low, String other, V value) {
+    if (value == null) {
+      throw new IllegalArgumentException("value must not be null");
+    }
+    int i = find(high, low, other);
+    final V previous = (V) values[i];
+    if (previous == null) {
+      if (size >= threshold) {
+        resize();
+        i = find(high, low, other);
+      }
+      highs[i] = high;
+      lows[i] = low;
+      others[i] = other;
+      size++;
+    }
+    values[i] = value;
+    return previous;
+  }
+
+  protected void resize() {
+    final long[] oldHighs = highs;
+    final byte[] oldLows = lows;
+    final String[] oldOthers = others;
+    final Object[] oldValues = values;
+    allocate(oldValues.length * 2);
+    for (int j = 0; j < oldValues.length; j++) {
+      if (oldValues[j] != null) {
+        final int i = find(oldHighs[j], oldLows[j], oldOthers[j]);
+        highs[i] = oldHighs[j];
+        lows[i] = oldLows[j];
+        others[i] = oldOthers[j];
+        values[i] = oldValues[j];
+      }
+    }
+  }
+
+  /**
+   * @return the removed value, or null.
+   */
+  public V remove(String guid) {
+    return removeAt(find(guid));
+  }
+
+  /**
+   * @return the removed value, or null.
+   */
+  public V remove(Guid guid) {
+    return removeAt(find(guid));
+  }
+
+  @SuppressWarnings("unchecked")
+  protected V removeAt(int i) {
+    final V removed = (V) values[i];
+    if (removed == null) {
+      return null;
+    }
+    // Shift later entries of the probe run back over the gap, unless that
+    // would move them before their home slot.
+    final int mask = values.length - 1;
+    int gap = i;
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      if (values[j] == null) {
+        break;
+      }
+      final int home = (others[j] != null ? Guid.hash(others[j]) : Guid.hash(highs[j], lows[j])) & mask;
+      final boolean stays = gap <= j ? (gap < home && home <= j) : (gap < home || home <= j);
+      if (stays) {
+        continue;
+      }
+      highs[gap] = highs[j];
+      lows[gap] = lows[j];
+      others[gap] = others[j];
+      values[gap] = values[j];
+      gap = j;
+    }
+    others[gap] = null;
+    values[gap] = null;
+    size--;
+    return removed;
+  }
+
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Iterates over entries in no particular order:
+   * <code>while (cursor.next()) { cursor.guid(); cursor.value(); }</code>.
+   */
+  public final class Cursor {
+    protected int position = -1;
+
+    protected Cursor() {
+    }
+
+    /**
+     * @return true if the cursor moved to another entry.
+     */
+    public boolean next() {
+      do {
+        position++;
+      } while (position < values.length && values[position] == null);
+      return position < values.length;
+    }
+
+    public Guid guid() {
+      return new Guid(highs[position], lows[position], others[position]);
+    }
+
+    /**
+     * @return the GUID as a <code>String</code>.
+     */
+    public String guidString() {
+      return others[position] != null ? others[position] : Guid.toString(highs[position], lows[position]);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V value() {
+      return (V) values[position];
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync;
+
+/**
+ * Table-driven lowercase hex encoding and decoding.
+ * <p>
+ * The <code>(src, offset, length, dst, offset)</code> variants write into
+ * caller-supplied arrays and allocate nothing, for hot paths that encode into
+ * reusable buffers.
+ */
+public class HexCodec {
+  protected static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+  // Digit value of each ASCII character, or -1.
+  protected static final byte[] VALUES = new byte[128];
+  static {
+    for (int i = 0; i < VALUES.length; i++) {
+      VALUES[i] = -1;
+    }
+    for (int i = 0; i < 10; i++) {
+      VALUES['0' + i] = (byte) i;
+    }
+    for (int i = 0; i < 6; i++) {
+      VALUES['a' + i] = (byte) (10 + i);
+      VALUES['A' + i] = (byte) (10 + i);
+    }
+  }
+
+  /**
+   * Encode <code>length</code> bytes of <code>src</code> as
+   * <code>2 * length</code> hex characters into <code>dst</code>.
+   *
+   * @return number of characters written.
+   */
+  public static int encode(final byte[] src, final int srcOffset, final int length, final char[] dst, final int dstOffset) {
+    int j = dstOffset;
+    for (int i = srcOffset; i < srcOffset + length; i++) {
+      final int b = src[i] & 0xFF;
+      dst[j++] = DIGITS[b >>> 4];
+      dst[j++] = DIGITS[b & 0x0F];
+    }
+    return j - dstOffset;
+  }
+
+  /**
+   * Encode <code>length</code> bytes of <code>src</code> as
+   * <code>2 * length</code> ASCII hex bytes into <code>dst</code>.
+   *
+   * @return number of bytes written.
+   */
+  public static int encode(final byte[] src, final int srcOffset, final int length, final byte[] dst, final int dstOffset) {
+    int j = dstOffset;
+    for (int i = srcOffset; i < srcOffset + length; i++) {
+      final int b = src[i] & 0xFF;
+      dst[j++] = (byte) DIGITS[b >>> 4];
+      dst[j++] = (byte) DIGITS[b & 0x0F];
+    }
+    return j - dstOffset;
+  }
+
+  /**
+   * Encode bytes as lowercase hex, left-padding with '0' to at least
+   * <code>hexLength</code> characters.
+   */
+  public static String encodeToString(final byte[] src, final int hexLength) {
+    final int padding = Math.max(0, hexLength - 2 * src.length);
+    final char[] chars = new char[padding + 2 * src.length];
+    for (int i = 0; i < padding; i++) {
+      chars[i] = '0';
+    }
+    encode(src, 0, src.length, chars, padding);
+    return new String(chars);
+  }
+
+  public static String encodeToString(final byte[] src) {
+    return encodeToString(src, 0);
+  }
+
+  /**
+   * Decode <code>length</code> hex characters of <code>src</code> into
+   * <code>dst</code>. An odd number of characters is treated as if it had a
+   * leading '0'.
+   *
+   * @return number of bytes written.
+   * @throws NumberFormatException if <code>src</code> contains a non-hex character.
+   */
+  public static int decode(final CharSequence src, final int srcOffset, final int length, final byte[] dst, final int dstOffset) {
+    int i = srcOffset;
+    int j = dstOffset;
+    final int end = srcOffset + length;
+    if ((length & 1) == 1) {
+      dst[j++] = (byte) value(src.charAt(i++));
+    }
+    while (i < end) {
+      final int hi = value(src.charAt(i++));
+      final int lo = value(src.charAt(i++));
+      dst[j++] = (byte) ((hi << 4) | lo);
+    }
+    return j - dstOffset;
+  }
+
+  public static byte[] decode(final CharSequence src) {
+    final byte[] bytes = new byte[decodedLength(src.length())];
+    decode(src, 0, src.length(), bytes, 0);
+    return bytes;
+  }
+
+  public static int decodedLength(final int hexLength) {
+    return (hexLength + 1) / 2;
+  }
+
+  protected static int value(final char c) {
+    final int v = (c < 128) ? VALUES[c] : -1;
+    if (v < 0) {
+      throw new NumberFormatException("Invalid hex character: " + c);
+    }
+    return v;
+  }
+}
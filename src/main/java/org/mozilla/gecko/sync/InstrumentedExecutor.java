@@ -0,0 +1,279 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mozilla.gecko.background.common.log.Logger;
+
+/**
+ * A bounded thread pool that names its threads and counts what it does.
+ * <p>
+ * The pool keeps up to <code>coreThreads</code> threads, queues up to
+ * <code>queueCapacity</code> tasks, and only then grows to
+ * <code>maxThreads</code>. When the queue and the pool are both full, the
+ * rejection handler decides: the default, {@link CallerRunsPolicy}, runs the
+ * task on the submitting thread, which slows producers down instead of
+ * dropping work. Idle threads, core ones included, exit after
+ * <code>keepAliveSeconds</code>.
+ * <p>
+ * Tasks are wrapped to record when they were queued, so
+ * {@link #getQueue()} and {@link #shutdownNow()} expose wrappers rather than
+ * the submitted runnables.
+ */
+public class InstrumentedExecutor extends ThreadPoolExecutor {
+  private static final String LOG_TAG = "InstrumentedExecutor";
+
+  protected final String name;
+
+  protected final AtomicLong submittedCount = new AtomicLong();
+  protected final AtomicLong completedCount = new AtomicLong();
+  protected final AtomicLong failedCount = new AtomicLong();
+  protected final AtomicLong rejectedCount = new AtomicLong();
+  protected final AtomicLong totalQueueNanos = new AtomicLong();
+  protected final AtomicLong maxQueueNanos = new AtomicLong();
+  protected final AtomicLong totalRunNanos = new AtomicLong();
+  protected final AtomicLong maxRunNanos = new AtomicLong();
+
+  protected final ThreadLocal<Long> runStart = new ThreadLocal<Long>();
+
+  /**
+   * A task that remembers when it was queued.
+   */
+  protected static class TimedRunnable implements Runnable {
+    public final Runnable runnable;
+    public final long queuedAt;
+
+    public TimedRunnable(Runnable runnable) {
+      this.runnable = runnable;
+      this.queuedAt = System.nanoTime();
+    }
+
+    @Override
+    public void run() {
+      runnable.run();
+    }
+  }
+
+  /**
+   * Names threads <code>name-1</code>, <code>name-2</code>, ...
+   */
+  public static class NamedThreadFactory implements ThreadFactory {
+    protected final String name;
+    protected final boolean daemon;
+    protected final AtomicInteger count = new AtomicInteger();
+
+    public NamedThreadFactory(String name, boolean daemon) {
+      this.name = name;
+      this.daemon = daemon;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+      thread.setDaemon(daemon);
+      return thread;
+    }
+  }
+
+  /**
+   * Counts rejections, then defers to another handler.
+   */
+  protected static class CountingRejectedExecutionHandler implements RejectedExecutionHandler {
+    protected final RejectedExecutionHandler handler;
+
+    public CountingRejectedExecutionHandler(RejectedExecutionHandler handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+      if (executor instanceof InstrumentedExecutor) {
+        ((InstrumentedExecutor) executor).rejectedCount.incrementAndGet();
+      }
+      handler.rejectedExecution(runnable, executor);
+    }
+  }
+
+  public InstrumentedExecutor(String name, int coreThreads, int maxThreads, int queueCapacity, long keepAliveSeconds) {
+    this(name, coreThreads, maxThreads, queueCapacity, keepAliveSeconds, new CallerRunsPolicy());
+  }
+
+  public InstrumentedExecutor(String name, int coreThreads, int maxThreads, int queueCapacity, long keepAliveSeconds,
+      RejectedExecutionHandler rejectedExecutionHandler) {
+    super(coreThreads, maxThreads, keepAliveSeconds, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(queueCapacity),
+        new NamedThreadFactory(name, false),
+        new CountingRejectedExecutionHandler(rejectedExecutionHandler));
+    if (name == null) {
+      throw new IllegalArgumentException("name must not be null");
+    }
+    this.name = name;
+    if (keepAliveSeconds > 0) {
+      allowCoreThreadTimeOut(true);
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (command == null) {
+      throw new NullPointerException();
+    }
+    submittedCount.incrementAndGet();
+    super.execute(new TimedRunnable(command));
+  }
+
+  @Override
+  protected void beforeExecute(Thread thread, Runnable runnable) {
+    super.beforeExecute(thread, runnable);
+    final long now = System.nanoTime();
+    if (runnable instanceof TimedRunnable) {
+      final long queueNanos = now - ((TimedRunnable) runnable).queuedAt;
+      totalQueueNanos.addAndGet(queueNanos);
+      updateMax(maxQueueNanos, queueNanos);
+    }
+    runStart.set(now);
+  }
+
+  @Override
+  protected void afterExecute(Runnable runnable, Throwable throwable) {
+    super.afterExecute(runnable, throwable);
+    final Long start = runStart.get();
+    if (start != null) {
+      final long runNanos = System.nanoTime() - start;
+      totalRunNanos.addAndGet(runNanos);
+      updateMax(maxRunNanos, runNanos);
+      runStart.remove();
+    }
+    completedCount.incrementAndGet();
+    if (throwable == null) {
+      throwable = failureOf(runnable);
+    }
+    if (throwable != null) {
+      failedCount.incrementAndGet();
+      Logger.warn(LOG_TAG, "Task failed in executor " + name + ".", throwable);
+    }
+  }
+
+  /**
+   * Tasks from <code>submit</code> are {@link Future}s that catch their own
+   * exceptions, so {@link #afterExecute} is never handed them. Recover the
+   * exception from the finished future instead.
+   *
+   * @return what the task threw, or null.
+   */
+  protected static Throwable failureOf(Runnable runnable) {
+    if (runnable instanceof TimedRunnable) {
+      runnable = ((TimedRunnable) runnable).runnable;
+    }
+    if (!(runnable instanceof Future<?>) || !((Future<?>) runnable).isDone()) {
+      return null;
+    }
+    try {
+      ((Future<?>) runnable).get();
+      return null;
+    } catch (CancellationException e) {
+      return null;
+    } catch (ExecutionException e) {
+      return e.getCause();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  protected static void updateMax(AtomicLong max, long value) {
+    long current;
+    while (value > (current = max.get())) {
+      if (max.compareAndSet(current, value)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Stop accepting tasks and wait for queued and running tasks to finish;
+   * interrupt whatever is still running after <code>timeout</code>.
+   *
+   * @return true if every task finished within the timeout.
+   */
+  public boolean shutdownGracefully(long timeout, TimeUnit unit) {
+    shutdown();
+    try {
+      if (awaitTermination(timeout, unit)) {
+        return true;
+      }
+      Logger.warn(LOG_TAG, "Executor " + name + " did not finish in time; interrupting remaining tasks.");
+      shutdownNow();
+      return false;
+    } catch (InterruptedException e) {
+      shutdownNow();
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * A point-in-time view of an executor's counters.
+   */
+  public static class Metrics {
+    public final int queueDepth;
+    public final int remainingQueueCapacity;
+    public final int activeThreads;
+    public final int poolSize;
+    public final int largestPoolSize;
+    public final long submittedTasks;
+    public final long completedTasks;
+    public final long failedTasks;
+    public final long rejectedTasks;
+    public final long meanQueueNanos;
+    public final long maxQueueNanos;
+    public final long meanRunNanos;
+    public final long maxRunNanos;
+
+    protected Metrics(InstrumentedExecutor executor) {
+      this.queueDepth = executor.getQueue().size();
+      this.remainingQueueCapacity = executor.getQueue().remainingCapacity();
+      this.activeThreads = executor.getActiveCount();
+      this.poolSize = executor.getPoolSize();
+      this.largestPoolSize = executor.getLargestPoolSize();
+      this.submittedTasks = executor.submittedCount.get();
+      this.completedTasks = executor.completedCount.get();
+      this.failedTasks = executor.failedCount.get();
+      this.rejectedTasks = executor.rejectedCount.get();
+      this.meanQueueNanos = completedTasks == 0 ? 0 : executor.totalQueueNanos.get() / completedTasks;
+      this.maxQueueNanos = executor.maxQueueNanos.get();
+      this.meanRunNanos = completedTasks == 0 ? 0 : executor.totalRunNanos.get() / completedTasks;
+      this.maxRunNanos = executor.maxRunNanos.get();
+    }
+
+    @Override
+    public String toString() {
+      return "queued " + queueDepth + ", active " + activeThreads + "/" + poolSize +
+          " (largest " + largestPoolSize + "), submitted " + submittedTasks +
+          ", completed " + completedTasks + ", failed " + failedTasks +
+          ", rejected " + rejectedTasks +
+          ", queue wait mean/max " + TimeUnit.NANOSECONDS.toMicros(meanQueueNanos) + "/" + TimeUnit.NANOSECONDS.toMicros(maxQueueNanos) + "us" +
+          ", run mean/max " + TimeUnit.NANOSECONDS.toMicros(meanRunNanos) + "/" + TimeUnit.NANOSECONDS.toMicros(maxRunNanos) + "us";
+    }
+  }
+
+  public Metrics getMetrics() {
+    return new Metrics(this);
+  }
+}
@@ -0,0 +1,371 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A sorted multi-map from <code>long</code> keys, such as
+ * <code>sortIndex</code> or <code>lastModified</code>, to record GUIDs,
+ * without boxing: an alternative to
+ * {@link Utils#addToIndexBucketMap(java.util.TreeMap, long, String)} for large
+ * collections.
+ * <p>
+ * Entries live in parallel key and GUID arrays. Additions are appended and
+ * merged into the sorted prefix on the next query, so loading in key order,
+ * or in bulk with {@link #addAll(long[], String[])}, is cheap. Removals leave
+ * a hole that is swept up once holes make up half the arrays. GUIDs with
+ * equal keys come back in the order they were added.
+ * <p>
+ * Not thread-safe. A {@link Cursor} is invalidated by any change to the index.
+ */
+public class SortedGuidIndex {
+  protected static final int DEFAULT_CAPACITY = 16;
+
+  // Runs at most this long are insertion sorted.
+  protected static final int INSERTION_SORT_THRESHOLD = 16;
+
+  protected long[] keys;
+  protected String[] guids;
+
+  protected int length;       // Slots in use, including holes.
+  protected int sortedLength; // Slots [0, sortedLength) are sorted.
+  protected int holes;
+
+  // Room for the left run of a merge; grown as needed.
+  protected long[] keyScratch = new long[0];
+  protected String[] guidScratch = new String[0];
+
+  public SortedGuidIndex() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public SortedGuidIndex(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("capacity must not be negative");
+    }
+    keys = new long[capacity];
+    guids = new String[capacity];
+  }
+
+  protected void ensureCapacity(int extra) {
+    final int needed = length + extra;
+    if (needed > keys.length) {
+      final int capacity = Math.max(needed, keys.length + (keys.length >> 1) + 1);
+      keys = Arrays.copyOf(keys, capacity);
+      guids = Arrays.copyOf(guids, capacity);
+    }
+  }
+
+  public void add(long key, String guid) {
+    if (guid == null) {
+      throw new IllegalArgumentException("guid must not be null");
+    }
+    ensureCapacity(1);
+    if (sortedLength == length && (length == 0 || keys[length - 1] <= key)) {
+      sortedLength++;
+    }
+    keys[length] = key;
+    guids[length] = guid;
+    length++;
+  }
+
+  /**
+   * Add <code>guids[i]</code> under <code>keys[i]</code> for every
+   * <code>i</code>, sorting once rather than per entry.
+   */
+  public void addAll(long[] keys, String[] guids) {
+    if (keys == null) {
+      throw new IllegalArgumentException("keys must not be null");
+    }
+    if (guids == null) {
+      throw new IllegalArgumentException("guids must not be null");
+    }
+    if (keys.length != guids.length) {
+      throw new IllegalArgumentException("keys and guids must be the same length");
+    }
+    for (String guid : guids) {
+      if (guid == null) {
+        throw new IllegalArgumentException("guids must not contain null");
+      }
+    }
+    ensureCapacity(keys.length);
+    System.arraycopy(keys, 0, this.keys, length, keys.length);
+    System.arraycopy(guids, 0, this.guids, length, guids.length);
+    length += keys.length;
+  }
+
+  /**
+   * Remove one entry for <code>guid</code> under <code>key</code>.
+   *
+   * @return true if there was one.
+   */
+  public boolean remove(long key, String guid) {
+    if (guid == null) {
+      throw new IllegalArgumentException("guid must not be null");
+    }
+    sort();
+    for (int i = lowerBound(key); i < length && keys[i] == key; i++) {
+      if (guid.equals(guids[i])) {
+        guids[i] = null;
+        holes++;
+        if (holes * 2 > length) {
+          sweep();
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public void clear() {
+    Arrays.fill(guids, 0, length, null);
+    length = 0;
+    sortedLength = 0;
+    holes = 0;
+  }
+
+  public int size() {
+    return length - holes;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * @throws NoSuchElementException if the index is empty.
+   */
+  public long firstKey() {
+    final Cursor cursor = ascending(Long.MIN_VALUE, Long.MAX_VALUE);
+    if (!cursor.next()) {
+      throw new NoSuchElementException();
+    }
+    return cursor.key();
+  }
+
+  /**
+   * @throws NoSuchElementException if the index is empty.
+   */
+  public long lastKey() {
+    final Cursor cursor = descending(Long.MIN_VALUE, Long.MAX_VALUE);
+    if (!cursor.next()) {
+      throw new NoSuchElementException();
+    }
+    return cursor.key();
+  }
+
+  /**
+   * @return a cursor over entries with <code>from &lt;= key &lt;= to</code>,
+   *         smallest key first.
+   */
+  public Cursor ascending(long from, long to) {
+    sort();
+    if (from > to) {
+      return new Cursor(0, 0, 1);
+    }
+    return new Cursor(lowerBound(from), upperBound(to), 1);
+  }
+
+  /**
+   * @return a cursor over entries with <code>from &lt;= key &lt;= to</code>,
+   *         largest key first. GUIDs with equal keys come most recently
+   *         added first.
+   */
+  public Cursor descending(long from, long to) {
+    sort();
+    if (from > to) {
+      return new Cursor(0, 0, -1);
+    }
+    return new Cursor(upperBound(to) - 1, lowerBound(from) - 1, -1);
+  }
+
+  /**
+   * @return up to <code>n</code> GUIDs with the largest keys, largest first.
+   */
+  public List<String> top(int n) {
+    if (n < 0) {
+      throw new IllegalArgumentException("n must not be negative");
+    }
+    final ArrayList<String> top = new ArrayList<String>(Math.min(n, size()));
+    final Cursor cursor = descending(Long.MIN_VALUE, Long.MAX_VALUE);
+    while (top.size() < n && cursor.next()) {
+      top.add(cursor.guid());
+    }
+    return top;
+  }
+
+  /**
+   * Iterates over a run of entries:
+   * <code>while (cursor.next()) { cursor.key(); cursor.guid(); }</code>.
+   */
+  public final class Cursor {
+    protected int position;
+    protected final int end;
+    protected final int step;
+
+    protected Cursor(int start, int end, int step) {
+      this.position = start - step;
+      this.end = end;
+      this.step = step;
+    }
+
+    /**
+     * @return true if the cursor moved to another entry.
+     */
+    public boolean next() {
+      do {
+        position += step;
+      } while (position != end && guids[position] == null);
+      return position != end;
+    }
+
+    public long key() {
+      return keys[position];
+    }
+
+    public String guid() {
+      return guids[position];
+    }
+  }
+
+  /**
+   * @return the first slot with a key not less than <code>key</code>.
+   */
+  protected int lowerBound(long key) {
+    int low = 0;
+    int high = length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (keys[mid] < key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the first slot with a key greater than <code>key</code>.
+   */
+  protected int upperBound(long key) {
+    int low = 0;
+    int high = length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (keys[mid] <= key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Merge any appended entries into the sorted prefix.
+   */
+  protected void sort() {
+    if (sortedLength == length) {
+      return;
+    }
+    mergeSort(sortedLength, length);
+    if (sortedLength > 0) {
+      merge(0, sortedLength, length);
+    }
+    sortedLength = length;
+  }
+
+  /**
+   * Stable sort of slots <code>[from, to)</code>.
+   */
+  protected void mergeSort(int from, int to) {
+    if (to - from <= INSERTION_SORT_THRESHOLD) {
+      for (int i = from + 1; i < to; i++) {
+        final long key = keys[i];
+        final String guid = guids[i];
+        int j = i;
+        while (j > from && keys[j - 1] > key) {
+          keys[j] = keys[j - 1];
+          guids[j] = guids[j - 1];
+          j--;
+        }
+        keys[j] = key;
+        guids[j] = guid;
+      }
+      return;
+    }
+    final int mid = (from + to) >>> 1;
+    mergeSort(from, mid);
+    mergeSort(mid, to);
+    merge(from, mid, to);
+  }
+
+  /**
+   * Stable merge of sorted slots <code>[from, mid)</code> and
+   * <code>[mid, to)</code>.
+   */
+  protected void merge(int from, int mid, int to) {
+    if (keys[mid - 1] <= keys[mid]) {
+      return;
+    }
+    // Left entries not greater than the first right one are already in
+    // place, which keeps merging a few additions into a big index cheap.
+    int high = mid;
+    while (from < high) {
+      final int m = (from + high) >>> 1;
+      if (keys[m] <= keys[mid]) {
+        from = m + 1;
+      } else {
+        high = m;
+      }
+    }
+
+    // Move the rest of the left run out of the way and merge back into place.
+    final int leftLength = mid - from;
+    if (keyScratch.length < leftLength) {
+      keyScratch = new long[leftLength];
+      guidScratch = new String[leftLength];
+    }
+    System.arraycopy(keys, from, keyScratch, 0, leftLength);
+    System.arraycopy(guids, from, guidScratch, 0, leftLength);
+    int left = 0;
+    int right = mid;
+    int out = from;
+    while (left < leftLength && right < to) {
+      if (keys[right] < keyScratch[left]) {
+        keys[out] = keys[right];
+        guids[out++] = guids[right++];
+      } else {
+        keys[out] = keyScratch[left];
+        guids[out++] = guidScratch[left++];
+      }
+    }
+    System.arraycopy(keyScratch, left, keys, out, leftLength - left);
+    System.arraycopy(guidScratch, left, guids, out, leftLength - left);
+    Arrays.fill(guidScratch, 0, leftLength, null);
+  }
+
+  /**
+   * Close up the holes left by removals.
+   */
+  protected void sweep() {
+    int out = 0;
+    for (int i = 0; i < length; i++) {
+      if (guids[i] != null) {
+        keys[out] = keys[i];
+        guids[out++] = guids[i];
+      }
+    }
+    Arrays.fill(guids, out, length, null);
+    length = out;
+    sortedLength = out;
+    holes = 0;
+  }
+}
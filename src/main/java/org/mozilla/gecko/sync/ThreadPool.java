@@ -5,11 +5,181 @@
 package org.mozilla.gecko.sync;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Shared background executor.
+ * <p>
+ * This used to be an unbounded cached thread pool, which under a burst of
+ * work (many concurrent logins, say) would start a thread per task. It is now
+ * an {@link InstrumentedExecutor}: bounded, with named threads, and running
+ * tasks on the submitting thread once saturated. The core and maximum sizes
+ * are equal, because a pool only grows past its core size once the queue is
+ * full; with fewer core threads, tasks that wait on other pool tasks could
+ * sit behind them in the queue. Idle threads exit after a while. Use
+ * {@link #configure} to size it before first use, and {@link #getMetrics()} to
+ * watch it.
+ * <p>
+ * Blocking network work can instead opt in to virtual threads with
+ * {@link #setVirtualThreadMode(boolean)} (or the
+ * <code>org.mozilla.gecko.sync.virtualThreads</code> system property). In that
+ * mode {@link #getBlockingExecutor()} starts a virtual thread per task when
+ * the JVM supports them. Otherwise it returns a separate bounded pool of
+ * platform threads, which runs tasks on the submitting thread once
+ * saturated, just as the shared pool does. Blocking work never goes to the
+ * shared pool, where it could fill the queue and stall everything else.
+ */
 public class ThreadPool {
-  public static ExecutorService executorService = Executors.newCachedThreadPool();
+  public static final String THREAD_NAME = "sync-pool";
+  public static final int DEFAULT_CORE_THREADS = 64;
+  public static final int DEFAULT_MAX_THREADS = DEFAULT_CORE_THREADS;
+  public static final int DEFAULT_QUEUE_CAPACITY = 512;
+  public static final long DEFAULT_KEEP_ALIVE_SECONDS = 60;
+
+  private static volatile ExecutorService executorService = new InstrumentedExecutor(THREAD_NAME,
+      DEFAULT_CORE_THREADS, DEFAULT_MAX_THREADS, DEFAULT_QUEUE_CAPACITY, DEFAULT_KEEP_ALIVE_SECONDS);
+
+  public static final String VIRTUAL_THREADS_PROPERTY = "org.mozilla.gecko.sync.virtualThreads";
+
+  private static volatile boolean virtualThreadMode = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
+  public static final String BLOCKING_THREAD_NAME = "sync-blocking";
+
+  private static volatile ExecutorService virtualThreadExecutor;
+  private static volatile ExecutorService platformBlockingExecutor;
+
+  /**
+   * @return the shared executor. It may be replaced by {@link #configure}, so
+   *         don't hold on to it.
+   */
+  public static ExecutorService getExecutorService() {
+    return executorService;
+  }
+
   public static void run(Runnable runnable) {
     executorService.submit(runnable);
   }
+
+  /**
+   * Opt in to (or out of) running blocking work on virtual threads.
+   */
+  public static synchronized void setVirtualThreadMode(boolean enabled) {
+    virtualThreadMode = enabled;
+    if (!enabled) {
+      // Callers may still hold the old executor, so don't shut it down: it
+      // keeps accepting work and threads end with their tasks.
+      virtualThreadExecutor = null;
+    }
+  }
+
+  /**
+   * @return true if blocking work has been opted in to virtual threads. The
+   *         work may still run on platform threads if the JVM lacks them.
+   */
+  public static boolean isVirtualThreadMode() {
+    return virtualThreadMode;
+  }
+
+  /**
+   * @return true if blocking work runs on virtual threads: virtual thread
+   *         mode is on and the JVM supports them.
+   */
+  public static boolean isUsingVirtualThreads() {
+    return virtualThreadMode && VirtualThreads.isSupported();
+  }
+
+  /**
+   * @return the executor to use for tasks that spend most of their time
+   *         blocked on I/O: a virtual thread per task if
+   *         {@link #isUsingVirtualThreads()}, otherwise a bounded pool of
+   *         platform threads.
+   */
+  public static ExecutorService getBlockingExecutor() {
+    if (isUsingVirtualThreads()) {
+      ExecutorService executor = virtualThreadExecutor;
+      if (executor == null) {
+        synchronized (ThreadPool.class) {
+          executor = virtualThreadExecutor;
+          if (executor == null && virtualThreadMode) {
+            executor = virtualThreadExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+          }
+        }
+      }
+      if (executor != null) {
+        return executor;
+      }
+    }
+    ExecutorService executor = platformBlockingExecutor;
+    if (executor == null) {
+      synchronized (ThreadPool.class) {
+        executor = platformBlockingExecutor;
+        if (executor == null) {
+          executor = platformBlockingExecutor = new InstrumentedExecutor(BLOCKING_THREAD_NAME,
+              DEFAULT_CORE_THREADS, DEFAULT_MAX_THREADS, DEFAULT_QUEUE_CAPACITY, DEFAULT_KEEP_ALIVE_SECONDS);
+        }
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * Run a task that spends most of its time blocked on I/O.
+   */
+  public static void runBlocking(Runnable runnable) {
+    getBlockingExecutor().execute(runnable);
+  }
+
+  /**
+   * Replace the shared executor with one of the given shape. The previous
+   * executor finishes the tasks it already has.
+   *
+   * @param rejectedExecutionHandler what to do when saturated; null means run
+   *          the task on the submitting thread.
+   */
+  public static synchronized void configure(int coreThreads, int maxThreads, int queueCapacity,
+      RejectedExecutionHandler rejectedExecutionHandler) {
+    if (rejectedExecutionHandler == null) {
+      rejectedExecutionHandler = new ThreadPoolExecutor.CallerRunsPolicy();
+    }
+    final ExecutorService previous = executorService;
+    executorService = new InstrumentedExecutor(THREAD_NAME, coreThreads, maxThreads, queueCapacity,
+        DEFAULT_KEEP_ALIVE_SECONDS, rejectedExecutionHandler);
+    previous.shutdown();
+  }
+
+  /**
+   * Stop accepting work, wait up to <code>timeout</code> for queued and
+   * running tasks, then interrupt the rest.
+   *
+   * @return true if all tasks finished in time.
+   */
+  public static synchronized boolean shutdown(long timeout, TimeUnit unit) {
+    final ExecutorService executor = executorService;
+    if (executor instanceof InstrumentedExecutor) {
+      return ((InstrumentedExecutor) executor).shutdownGracefully(timeout, unit);
+    }
+    executor.shutdown();
+    try {
+      if (executor.awaitTermination(timeout, unit)) {
+        return true;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    executor.shutdownNow();
+    return false;
+  }
+
+  /**
+   * @return metrics for the shared executor, or null if it has been replaced
+   *         with an executor that does not collect them.
+   */
+  public static InstrumentedExecutor.Metrics getMetrics() {
+    final ExecutorService executor = executorService;
+    if (executor instanceof InstrumentedExecutor) {
+      return ((InstrumentedExecutor) executor).getMetrics();
+    }
+    return null;
+  }
 }
@@ -23,13 +23,9 @@ import java.util.TreeMap;
 import org.json.simple.JSONArray;
 import org.apache.commons.codec.binary.Base32;
 import org.apache.commons.codec.binary.Base64;
-import org.mozilla.gecko.background.common.log.Logger;
-import org.mozilla.gecko.background.nativecode.NativeCrypto;
 
 public class Utils {
 
-  private static final String LOG_TAG = "Utils";
-
   private static final SecureRandom sharedSecureRandom = new SecureRandom();
 
   // See <http://developer.android.com/reference/android/content/Context.html#getSharedPreferences%28java.lang.String,%20int%29>
@@ -40,6 +36,13 @@ public class Utils {
     return new String(encodedBytes).replace("+", "-").replace("/", "_");
   }
 
+  /**
+   * Like {@link #generateGuid()}, without building a <code>String</code>.
+   */
+  public static Guid generateCompactGuid() {
+    return Guid.fromBytes(generateRandomBytes(Guid.BYTE_LENGTH));
+  }
+
   /**
    * Helper to generate secure random bytes.
    *
@@ -79,23 +82,7 @@ public class Utils {
   }
 
   public static String byte2Hex(final byte[] b, int hexLength) {
-    final StringBuilder hs = new StringBuilder(Math.max(2*b.length, hexLength));
-    String stmp;
-
-    for (int n = 0; n < hexLength - 2*b.length; n++) {
-      hs.append("0");
-    }
-
-    for (int n = 0; n < b.length; n++) {
-      stmp = Integer.toHexString(b[n] & 0XFF);
-
-      if (stmp.length() == 1) {
-        hs.append("0");
-      }
-      hs.append(stmp);
-    }
-
-    return hs.toString();
+    return HexCodec.encodeToString(b, hexLength);
   }
 
   public static byte[] concatAll(byte[] first, byte[]... rest) {
@@ -150,15 +137,7 @@ public class Utils {
   }
 
   public static byte[] hex2Byte(String str) {
-    if (str.length() % 2 == 1) {
-      str = "0" + str;
-    }
-
-    byte[] bytes = new byte[str.length() / 2];
-    for (int i = 0; i < bytes.length; i++) {
-      bytes[i] = (byte) Integer.parseInt(str.substring(2 * i, 2 * i + 2), 16);
-    }
-    return bytes;
+    return HexCodec.decode(str);
   }
 
   public static String millisecondsToDecimalSecondsString(long ms) {
@@ -201,23 +180,12 @@ public class Utils {
 
   protected static byte[] sha1(final String utf8)
       throws NoSuchAlgorithmException, UnsupportedEncodingException {
-    final byte[] bytes = utf8.getBytes("UTF-8");
-    try {
-      return NativeCrypto.sha1(bytes);
-    } catch (final LinkageError e) {
-      // This will throw UnsatisifiedLinkError (missing mozglue) the first time it is called, and
-      // ClassNotDefFoundError, for the uninitialized NativeCrypto class, each subsequent time this
-      // is called; LinkageError is their common ancestor.
-      Logger.warn(LOG_TAG, "Got throwable stretching password using native sha1 implementation; " +
-          "ignoring and using Java implementation.", e);
-      final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
-      return sha1.digest(utf8.getBytes("UTF-8"));
-    }
+    return AccountNameNormalizer.sha1(utf8);
   }
 
   protected static String sha1Base32(final String utf8)
       throws NoSuchAlgorithmException, UnsupportedEncodingException {
-    return new Base32().encodeAsString(sha1(utf8)).toLowerCase(Locale.US);
+    return AccountNameNormalizer.sha1Base32(utf8);
   }
 
   /**
@@ -231,13 +199,7 @@ public class Utils {
    * @throws NoSuchAlgorithmException
    */
   public static String usernameFromAccount(final String account) throws NoSuchAlgorithmException, UnsupportedEncodingException {
-    if (account == null || account.equals("")) {
-      throw new IllegalArgumentException("No account name provided.");
-    }
-    if (account.matches("^[A-Za-z0-9._-]+$")) {
-      return account.toLowerCase(Locale.US);
-    }
-    return sha1Base32(account.toLowerCase(Locale.US));
+    return AccountNameNormalizer.usernameFromAccount(account);
   }
 
   /**
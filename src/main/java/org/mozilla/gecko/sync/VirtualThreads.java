@@ -0,0 +1,75 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+import org.mozilla.gecko.background.common.log.Logger;
+
+/**
+ * Runtime detection of virtual threads (JDK 21+).
+ * <p>
+ * We build for Java 1.7 and run on Android, so everything goes through
+ * reflection. On JVMs where virtual threads are absent, or present but
+ * disabled (a preview feature on JDK 19 and 20), {@link #isSupported()}
+ * returns false and {@link #newVirtualThreadPerTaskExecutor()} returns null.
+ */
+public class VirtualThreads {
+  private static final String LOG_TAG = "VirtualThreads";
+
+  private static final Object probeMonitor = new Object();
+  private static volatile Method factoryMethod;
+  private static volatile boolean probed = false;
+
+  /**
+   * @return the <code>Executors.newVirtualThreadPerTaskExecutor</code> method,
+   *         if it exists and works; null otherwise.
+   */
+  protected static Method getFactoryMethod() {
+    if (probed) {
+      return factoryMethod;
+    }
+    synchronized (probeMonitor) {
+      if (probed) {
+        return factoryMethod;
+      }
+      try {
+        final Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        // Preview builds throw UnsupportedOperationException here unless enabled.
+        final ExecutorService probe = (ExecutorService) method.invoke(null);
+        probe.shutdown();
+        factoryMethod = method;
+        Logger.info(LOG_TAG, "Virtual threads are available.");
+      } catch (Exception | LinkageError e) {
+        Logger.info(LOG_TAG, "Virtual threads are not available; using platform threads.");
+        factoryMethod = null;
+      }
+      probed = true;
+      return factoryMethod;
+    }
+  }
+
+  public static boolean isSupported() {
+    return getFactoryMethod() != null;
+  }
+
+  /**
+   * @return a new executor that starts a virtual thread per task, or null if
+   *         virtual threads are not supported.
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor() {
+    final Method method = getFactoryMethod();
+    if (method == null) {
+      return null;
+    }
+    try {
+      return (ExecutorService) method.invoke(null);
+    } catch (Exception e) {
+      Logger.warn(LOG_TAG, "Couldn't create virtual thread executor.", e);
+      return null;
+    }
+  }
+}
@@ -7,6 +7,7 @@ package org.mozilla.gecko.sync.crypto;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Arrays;
 
 import javax.crypto.BadPaddingException;
@@ -18,6 +19,7 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.commons.codec.binary.Base64;
+import org.mozilla.gecko.background.nativecode.NativeCrypto;
 
 /*
  * All info in these objects should be decoded (i.e. not BaseXX encoded).
@@ -25,6 +27,11 @@ import org.apache.commons.codec.binary.Base64;
 public class CryptoInfo {
   private static final String TRANSFORMATION     = "AES/CBC/PKCS5Padding";
   private static final String KEY_ALGORITHM_SPEC = "AES";
+  private static final int    IV_LENGTH          = 16;
+
+  // Use NativeCrypto rather than JCA; decided once, at startup.
+  private static final boolean NATIVE = NativeCrypto.hasAESAndHMAC();
+  private static final SecureRandom random = new SecureRandom();
 
   private byte[] message;
   private byte[] iv;
@@ -112,6 +119,12 @@ public class CryptoInfo {
    * Generate HMAC for given cipher text.
    */
   public static byte[] generatedHMACFor(byte[] message, KeyBundle keys) throws NoSuchAlgorithmException, InvalidKeyException {
+    if (NATIVE) {
+      byte[] encoded = Base64.encodeBase64(message);
+      byte[] hmac = new byte[HKDF.BLOCKSIZE];
+      NativeCrypto.hmacSHA256(keys.getHMACKey(), encoded, 0, encoded.length, hmac, 0);
+      return hmac;
+    }
     Mac hmacHasher = HKDF.makeHMACHasher(keys.getHMACKey());
     return hmacHasher.doFinal(Base64.encodeBase64(message));
   }
@@ -150,6 +163,10 @@ public class CryptoInfo {
    * @throws CryptoException
    */
   public void encrypt() throws CryptoException {
+    if (NATIVE) {
+      nativeEncrypt();
+      return;
+    }
 
     Cipher cipher = CryptoInfo.getCipher(TRANSFORMATION);
     try {
@@ -184,6 +201,31 @@ public class CryptoInfo {
     this.setMessage(encryptedBytes);
   }
 
+  /**
+   * {@link #encrypt()}, using {@link NativeCrypto}.
+   */
+  private void nativeEncrypt() throws CryptoException {
+    // If no IV is provided, make one, as the cipher would.
+    byte[] iv = getIV();
+    if (iv == null || iv.length == 0) {
+      iv = new byte[IV_LENGTH];
+      random.nextBytes(iv);
+    }
+
+    byte[] encryptedBytes;
+    byte[] hmac;
+    try {
+      encryptedBytes = NativeCrypto.aesCBCEncrypt(getKeys().getEncryptionKey(), iv, getMessage());
+      hmac = generatedHMACFor(encryptedBytes, keys);
+    } catch (GeneralSecurityException e) {
+      throw new CryptoException(e);
+    }
+
+    this.setHMAC(hmac);
+    this.setIV(iv);
+    this.setMessage(encryptedBytes);
+  }
+
   /**
    * Decrypt a CryptoInfo in-place.
    *
@@ -200,6 +242,18 @@ public class CryptoInfo {
       throw new CryptoException(e);
     }
 
+    if (NATIVE) {
+      byte[] decryptedBytes;
+      try {
+        decryptedBytes = NativeCrypto.aesCBCDecrypt(getKeys().getEncryptionKey(), getIV(), getMessage());
+      } catch (GeneralSecurityException e) {
+        throw new CryptoException(e);
+      }
+      this.setHMAC(null);
+      this.setMessage(decryptedBytes);
+      return;
+    }
+
     Cipher cipher = CryptoInfo.getCipher(TRANSFORMATION);
     try {
       byte[] encryptionKey = getKeys().getEncryptionKey();
@@ -0,0 +1,135 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync.crypto;
+
+import java.math.BigInteger;
+
+/**
+ * Modular exponentiation <code>g^e mod N</code> for a fixed base
+ * <code>g</code> and modulus <code>N</code>, using precomputed power tables.
+ * <p>
+ * The exponent is split into windows of <code>windowBits</code> bits. For the
+ * window at position <code>i</code> we precompute
+ * <code>g^(d * 2^(windowBits * i)) mod N</code> for every digit
+ * <code>d</code>, so an exponentiation costs one modular multiplication per
+ * non-zero window and no squarings at all.
+ * <p>
+ * Tables are only built for exponents of at most <code>maxExponentBits</code>
+ * bits; larger (or negative) exponents fall back to
+ * {@link BigInteger#modPow(BigInteger, BigInteger)}. The table costs
+ * <code>ceil(maxExponentBits / windowBits) * (2^windowBits - 1)</code>
+ * residues, so keep <code>maxExponentBits</code> to the exponent sizes you
+ * actually see.
+ * <p>
+ * Instances are immutable once constructed and safe to share between threads.
+ */
+public class FixedBaseModPow {
+  public static final int DEFAULT_WINDOW_BITS = 8;
+
+  protected final BigInteger g;
+  protected final BigInteger N;
+  protected final int windowBits;
+  protected final int maxExponentBits;
+
+  // table[i][d] = g^(d * 2^(windowBits * i)) mod N; table[i][0] is unused.
+  protected final BigInteger[][] table;
+
+  public FixedBaseModPow(BigInteger g, BigInteger N, int maxExponentBits) {
+    this(g, N, maxExponentBits, DEFAULT_WINDOW_BITS);
+  }
+
+  public FixedBaseModPow(BigInteger g, BigInteger N, int maxExponentBits, int windowBits) {
+    if (g == null) {
+      throw new IllegalArgumentException("g must not be null");
+    }
+    if (N == null || N.signum() <= 0) {
+      throw new IllegalArgumentException("N must be positive");
+    }
+    if (maxExponentBits <= 0) {
+      throw new IllegalArgumentException("maxExponentBits must be positive");
+    }
+    if (windowBits < 1 || windowBits > 16) {
+      throw new IllegalArgumentException("windowBits must be between 1 and 16");
+    }
+    this.g = g;
+    this.N = N;
+    this.windowBits = windowBits;
+    this.maxExponentBits = maxExponentBits;
+    this.table = buildTable(g.mod(N), N, (maxExponentBits + windowBits - 1) / windowBits, 1 << windowBits);
+  }
+
+  protected static BigInteger[][] buildTable(BigInteger g, BigInteger N, int windows, int digits) {
+    final BigInteger[][] table = new BigInteger[windows][digits];
+    BigInteger base = g;
+    for (int i = 0; i < windows; i++) {
+      final BigInteger[] row = table[i];
+      row[1] = base;
+      for (int d = 2; d < digits; d++) {
+        row[d] = row[d - 1].multiply(base).mod(N);
+      }
+      // Next window's base is g^(2^(windowBits * (i + 1))) = row[digits - 1] * base.
+      base = row[digits - 1].multiply(base).mod(N);
+    }
+    return table;
+  }
+
+  public BigInteger getBase() {
+    return g;
+  }
+
+  public BigInteger getModulus() {
+    return N;
+  }
+
+  public int getMaxExponentBits() {
+    return maxExponentBits;
+  }
+
+  /**
+   * @return true if this engine computes <code>g^e mod N</code> for the
+   *         given base and modulus.
+   */
+  public boolean handles(BigInteger g, BigInteger N) {
+    return this.g.equals(g) && this.N.equals(N);
+  }
+
+  /**
+   * Compute <code>g^e mod N</code>.
+   *
+   * @param e exponent.
+   * @return <code>g^e mod N</code>; identical to <code>g.modPow(e, N)</code>.
+   */
+  public BigInteger modPow(BigInteger e) {
+    if (e == null) {
+      throw new IllegalArgumentException("e must not be null");
+    }
+    final int bitLength = e.bitLength();
+    if (e.signum() < 0 || bitLength > maxExponentBits) {
+      return g.modPow(e, N);
+    }
+
+    BigInteger result = null;
+    int window = 0;
+    for (int bit = 0; bit < bitLength; bit += windowBits, window++) {
+      int digit = 0;
+      for (int k = windowBits - 1; k >= 0; k--) {
+        digit <<= 1;
+        if (e.testBit(bit + k)) {
+          digit |= 1;
+        }
+      }
+      if (digit == 0) {
+        continue;
+      }
+      final BigInteger factor = table[window][digit];
+      result = (result == null) ? factor : result.multiply(factor).mod(N);
+    }
+    if (result == null) {
+      // e == 0.
+      return BigInteger.ONE.mod(N);
+    }
+    return result;
+  }
+}
@@ -11,8 +11,6 @@ import java.security.NoSuchAlgorithmException;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
-import org.mozilla.gecko.sync.Utils;
-
 /*
  * A standards-compliant implementation of RFC 5869
  * for HMAC-based Key Derivation Function.
@@ -42,7 +40,9 @@ public class HKDF {
    * Output: PRK (pseudorandom key)
    */
   public static byte[] hkdfExtract(byte[] salt, byte[] IKM) throws NoSuchAlgorithmException, InvalidKeyException {
-    return digestBytes(IKM, makeHMACHasher(salt));
+    byte[] prk = new byte[BLOCKSIZE];
+    HKDFEngine.get().extract(salt, IKM, prk, 0);
+    return prk;
   }
 
   /*
@@ -51,20 +51,8 @@ public class HKDF {
    * Output: OKM (output keyring material).
    */
   public static byte[] hkdfExpand(byte[] prk, byte[] info, int len) throws NoSuchAlgorithmException, InvalidKeyException {
-    Mac hmacHasher = makeHMACHasher(prk);
-
-    byte[] T  = {};
-    byte[] Tn = {};
-
-    int iterations = (int) Math.ceil(((double)len) / (BLOCKSIZE));
-    for (int i = 0; i < iterations; i++) {
-      Tn = digestBytes(Utils.concatAll(Tn, info, Utils.hex2Byte(Integer.toHexString(i + 1))),
-                       hmacHasher);
-      T = Utils.concatAll(T, Tn);
-    }
-
     byte[] result = new byte[len];
-    System.arraycopy(T, 0, result, 0, len);
+    HKDFEngine.get().expand(prk, info, result, 0, len);
     return result;
   }
 
@@ -110,19 +98,16 @@ public class HKDF {
   }
 
   public static byte[] derive(byte[] skm, byte[] xts, byte[] ctxInfo, int dkLen) throws InvalidKeyException, NoSuchAlgorithmException {
-    return hkdfExpand(hkdfExtract(xts, skm), ctxInfo, dkLen);
+    byte[] result = new byte[dkLen];
+    HKDFEngine.get().derive(skm, xts, ctxInfo, result, 0, dkLen);
+    return result;
   }
 
+  /*
+   * Derive straight into each of keys in turn; no intermediate output
+   * buffer is allocated.
+   */
   public static void deriveMany(byte[] skm, byte[] xts, byte[] ctxInfo, byte[]... keys) throws InvalidKeyException, NoSuchAlgorithmException {
-    int length = 0;
-    for (byte[] key : keys) {
-      length += key.length;
-    }
-    byte[] derived = hkdfExpand(hkdfExtract(xts, skm), ctxInfo, length);
-    int offset = 0;
-    for (byte[] key : keys) {
-      System.arraycopy(derived, offset, key, 0, key.length);
-      offset += key.length;
-    }
+    HKDFEngine.get().deriveMany(skm, xts, ctxInfo, keys);
   }
 }
@@ -0,0 +1,256 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync.crypto;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.mozilla.gecko.background.nativecode.NativeCrypto;
+
+/**
+ * Per-thread RFC 5869 HKDF that writes its output into caller-provided
+ * buffers.
+ * <p>
+ * Each thread keeps one HMAC-SHA256 <code>Mac</code>, re-keyed only when the
+ * key changes (the PRK computed by <code>derive</code> is never kept between
+ * calls), and one block buffer holding <code>T(n)</code>. When
+ * {@link NativeCrypto#hasAESAndHMAC()} is true, HMACs are computed natively
+ * instead. The block counter is fed to the <code>Mac</code> as a single byte and
+ * <code>info</code> is passed through as is, so expanding allocates nothing
+ * beyond what the <code>Mac</code> itself needs to be re-keyed.
+ * <p>
+ * Output is identical to {@link HKDF#hkdfExtract(byte[], byte[])} and
+ * {@link HKDF#hkdfExpand(byte[], byte[], int)}.
+ * <p>
+ * Instances are not thread-safe; use {@link #get()}.
+ */
+public class HKDFEngine {
+  /**
+   * RFC 5869 allows at most 255 blocks of output.
+   */
+  public static final int MAX_OUTPUT_LENGTH = 255 * HKDF.BLOCKSIZE;
+
+  protected static final ThreadLocal<HKDFEngine> engines = new ThreadLocal<HKDFEngine>() {
+    @Override
+    protected HKDFEngine initialValue() {
+      try {
+        return new HKDFEngine();
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
+  /**
+   * @return the engine for the current thread.
+   */
+  public static HKDFEngine get() {
+    return engines.get();
+  }
+
+  protected static final byte[] EMPTY_KEY = new byte[HKDF.BLOCKSIZE];
+
+  /**
+   * Whether to use {@link NativeCrypto} rather than <code>Mac</code>; decided
+   * once, at startup.
+   */
+  protected static final boolean NATIVE = NativeCrypto.hasAESAndHMAC();
+
+  protected final Mac mac;
+  protected byte[] macKey;
+
+  // T(n), and the PRK between extract and expand when deriving.
+  protected final byte[] block = new byte[HKDF.BLOCKSIZE];
+  protected final byte[] prk = new byte[HKDF.BLOCKSIZE];
+  // T(n - 1) | info | n, for the native HMAC.
+  protected byte[] scratch;
+
+  protected HKDFEngine() throws NoSuchAlgorithmException {
+    this.mac = Mac.getInstance(HKDF.HMAC_ALGORITHM);
+  }
+
+  protected void rekey(byte[] key) throws InvalidKeyException {
+    if (key.length == 0) {
+      key = EMPTY_KEY;
+    }
+    if (macKey != null && Arrays.equals(macKey, key)) {
+      mac.reset();
+      return;
+    }
+    mac.init(new SecretKeySpec(key, HKDF.HMAC_ALGORITHM));
+    if (macKey != null && macKey.length == key.length) {
+      System.arraycopy(key, 0, macKey, 0, key.length);
+    } else {
+      macKey = key.clone();
+    }
+  }
+
+  /**
+   * Zero the cached key and re-key the <code>Mac</code> with a dummy key, so
+   * that neither holds a secret after <code>derive</code> returns.
+   */
+  protected void forgetKey() {
+    if (macKey == null) {
+      return;
+    }
+    Arrays.fill(macKey, (byte) 0);
+    macKey = null;
+    try {
+      mac.init(new SecretKeySpec(EMPTY_KEY, HKDF.HMAC_ALGORITHM));
+    } catch (InvalidKeyException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Step 1 of RFC 5869: write <code>PRK = HMAC(salt, IKM)</code> to
+   * <code>out[offset..offset+32)</code>.
+   */
+  public void extract(byte[] salt, byte[] ikm, byte[] out, int offset) throws InvalidKeyException {
+    if (offset < 0 || out.length - offset < HKDF.BLOCKSIZE) {
+      throw new IllegalArgumentException("out is too short");
+    }
+    if (NATIVE) {
+      NativeCrypto.hmacSHA256(salt.length == 0 ? EMPTY_KEY : salt, ikm, 0, ikm.length, out, offset);
+      return;
+    }
+    rekey(salt);
+    mac.update(ikm);
+    doFinal(out, offset);
+  }
+
+  protected void startExpand(byte[] prk) throws InvalidKeyException {
+    if (!NATIVE) {
+      rekey(prk);
+    }
+  }
+
+  /**
+   * Replace <code>T(counter - 1)</code> in <code>block</code> with
+   * <code>T(counter)</code>.
+   */
+  protected void nextBlock(byte[] prk, byte[] info, int counter) {
+    if (NATIVE) {
+      // The native HMAC is one-shot, so assemble T(n - 1) | info | n.
+      final int previous = counter > 1 ? HKDF.BLOCKSIZE : 0;
+      final int length = previous + info.length + 1;
+      if (scratch == null || scratch.length < length) {
+        scratch = new byte[Math.max(length, 2 * HKDF.BLOCKSIZE)];
+      }
+      System.arraycopy(block, 0, scratch, 0, previous);
+      System.arraycopy(info, 0, scratch, previous, info.length);
+      scratch[length - 1] = (byte) counter;
+      NativeCrypto.hmacSHA256(prk.length == 0 ? EMPTY_KEY : prk, scratch, 0, length, block, 0);
+      Arrays.fill(scratch, 0, previous, (byte) 0);
+      return;
+    }
+    if (counter > 1) {
+      mac.update(block, 0, HKDF.BLOCKSIZE);
+    }
+    mac.update(info);
+    mac.update((byte) counter);
+    doFinal(block, 0);
+  }
+
+  /**
+   * Step 2 of RFC 5869: write <code>len</code> bytes of output keying
+   * material to <code>out[offset..offset+len)</code>.
+   */
+  public void expand(byte[] prk, byte[] info, byte[] out, int offset, int len) throws InvalidKeyException {
+    if (len < 0 || len > MAX_OUTPUT_LENGTH) {
+      throw new IllegalArgumentException("len must be between 0 and " + MAX_OUTPUT_LENGTH);
+    }
+    if (offset < 0 || out.length - offset < len) {
+      throw new IllegalArgumentException("out is too short");
+    }
+    startExpand(prk);
+    int written = 0;
+    for (int counter = 1; written < len; counter++) {
+      nextBlock(prk, info, counter);
+      final int n = Math.min(HKDF.BLOCKSIZE, len - written);
+      System.arraycopy(block, 0, out, offset + written, n);
+      written += n;
+    }
+    Arrays.fill(block, (byte) 0);
+  }
+
+  /**
+   * Expand into each of <code>keys</code> in turn, as if one output of their
+   * total length were split between them.
+   */
+  public void expand(byte[] prk, byte[] info, byte[]... keys) throws InvalidKeyException {
+    int len = 0;
+    for (byte[] key : keys) {
+      len += key.length;
+    }
+    if (len > MAX_OUTPUT_LENGTH) {
+      throw new IllegalArgumentException("keys must not total more than " + MAX_OUTPUT_LENGTH + " bytes");
+    }
+    startExpand(prk);
+    int keyIndex = 0;
+    int keyOffset = 0;
+    int written = 0;
+    for (int counter = 1; written < len; counter++) {
+      nextBlock(prk, info, counter);
+      int blockOffset = 0;
+      while (blockOffset < HKDF.BLOCKSIZE && written < len) {
+        while (keys[keyIndex].length == 0) {
+          keyIndex++;
+        }
+        final byte[] key = keys[keyIndex];
+        final int n = Math.min(HKDF.BLOCKSIZE - blockOffset, key.length - keyOffset);
+        System.arraycopy(block, blockOffset, key, keyOffset, n);
+        blockOffset += n;
+        keyOffset += n;
+        written += n;
+        if (keyOffset == key.length) {
+          keyIndex++;
+          keyOffset = 0;
+        }
+      }
+    }
+    Arrays.fill(block, (byte) 0);
+  }
+
+  /**
+   * Extract and expand in one go, without exposing the PRK.
+   */
+  public void derive(byte[] skm, byte[] xts, byte[] ctxInfo, byte[] out, int offset, int len) throws InvalidKeyException {
+    extract(xts, skm, prk, 0);
+    try {
+      expand(prk, ctxInfo, out, offset, len);
+    } finally {
+      Arrays.fill(prk, (byte) 0);
+      forgetKey();
+    }
+  }
+
+  /**
+   * Extract and expand in one go, filling each of <code>keys</code> in turn.
+   */
+  public void deriveMany(byte[] skm, byte[] xts, byte[] ctxInfo, byte[]... keys) throws InvalidKeyException {
+    extract(xts, skm, prk, 0);
+    try {
+      expand(prk, ctxInfo, keys);
+    } finally {
+      Arrays.fill(prk, (byte) 0);
+      forgetKey();
+    }
+  }
+
+  protected void doFinal(byte[] out, int offset) {
+    try {
+      mac.doFinal(out, offset);
+    } catch (ShortBufferException e) {
+      // Callers check lengths first.
+      throw new IllegalStateException(e);
+    }
+  }
+}
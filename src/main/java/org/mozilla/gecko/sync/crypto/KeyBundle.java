@@ -12,7 +12,7 @@ import java.util.Arrays;
 import javax.crypto.KeyGenerator;
 import javax.crypto.Mac;
 
-import org.apache.commons.codec.binary.Base64;
+import org.mozilla.gecko.sync.Base64Codec;
 import org.mozilla.gecko.sync.Utils;
 
 public class KeyBundle {
@@ -78,8 +78,8 @@ public class KeyBundle {
      * @return A KeyBundle with the specified keys.
      */
     public static KeyBundle fromBase64EncodedKeys(String base64EncryptionKey, String base64HmacKey) throws UnsupportedEncodingException {
-      return new KeyBundle(Base64.decodeBase64(base64EncryptionKey.getBytes("UTF-8")),
-                           Base64.decodeBase64(base64HmacKey.getBytes("UTF-8")));
+      return new KeyBundle(Base64Codec.decode(base64EncryptionKey),
+                           Base64Codec.decode(base64HmacKey));
     }
 
     /**
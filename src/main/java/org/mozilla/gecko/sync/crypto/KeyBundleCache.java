@@ -0,0 +1,202 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync.crypto;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mozilla.gecko.sync.Utils;
+
+/**
+ * A bounded, thread-safe cache of the key bundles derived by
+ * {@link KeyBundle#KeyBundle(String, String)}.
+ * <p>
+ * Entries are keyed by a SHA-256 fingerprint of the username and sync key;
+ * neither the sync key nor anything it can be recovered from is retained.
+ * Each lookup returns a fresh <code>KeyBundle</code> with its own copies of
+ * the keys, so callers can't alter what is cached. Invalidated and evicted
+ * entries have their keys zeroed.
+ * <p>
+ * When full, the least recently used entry is evicted.
+ */
+public class KeyBundleCache {
+  public static final int DEFAULT_MAX_ENTRIES = 16;
+
+  protected static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
+  protected static class Entry {
+    public final String username;
+    protected byte[] encryptionKey;
+    protected byte[] hmacKey;
+
+    public Entry(String username, KeyBundle bundle) {
+      this.username = username;
+      this.encryptionKey = bundle.getEncryptionKey().clone();
+      this.hmacKey = bundle.getHMACKey().clone();
+    }
+
+    /**
+     * @return a copy of the cached keys.
+     */
+    public KeyBundle newKeyBundle() {
+      return new KeyBundle(encryptionKey.clone(), hmacKey.clone());
+    }
+
+    public void destroy() {
+      if (encryptionKey == null) {
+        return;
+      }
+      Arrays.fill(encryptionKey, (byte) 0);
+      Arrays.fill(hmacKey, (byte) 0);
+      encryptionKey = null;
+      hmacKey = null;
+    }
+  }
+
+  protected final int maxEntries;
+  // Access-ordered, so the eldest entry is the least recently used. Guarded
+  // by this.
+  protected final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  protected final AtomicLong hits = new AtomicLong();
+  protected final AtomicLong misses = new AtomicLong();
+
+  public KeyBundleCache() {
+    this(DEFAULT_MAX_ENTRIES);
+  }
+
+  public KeyBundleCache(int maxEntries) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maxEntries must be positive");
+    }
+    this.maxEntries = maxEntries;
+  }
+
+  protected static String fingerprint(String username, String base32SyncKey) {
+    final MessageDigest digest = digests.get();
+    try {
+      digest.update(username.getBytes("UTF-8"));
+      digest.update((byte) 0);
+      digest.update(base32SyncKey.getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      digest.reset();
+      throw new IllegalStateException(e);
+    }
+    return Utils.byte2Hex(digest.digest());
+  }
+
+  /**
+   * Return the key bundle for <code>username</code> and
+   * <code>base32SyncKey</code>, deriving it if it isn't cached.
+   * <p>
+   * Keys are derived without holding the cache lock, so two threads missing
+   * on the same keys may both derive them; only one result is cached.
+   *
+   * @return a new <code>KeyBundle</code> equal to
+   *         <code>new KeyBundle(username, base32SyncKey)</code>.
+   */
+  public KeyBundle get(String username, String base32SyncKey) throws CryptoException {
+    if (base32SyncKey == null) {
+      throw new IllegalArgumentException("No sync key provided.");
+    }
+    if (username == null || username.equals("")) {
+      throw new IllegalArgumentException("No username provided.");
+    }
+    final String fingerprint = fingerprint(username, base32SyncKey);
+    synchronized (this) {
+      final Entry cached = entries.get(fingerprint);
+      if (cached != null) {
+        hits.incrementAndGet();
+        return cached.newKeyBundle();
+      }
+    }
+
+    misses.incrementAndGet();
+    final KeyBundle bundle = new KeyBundle(username, base32SyncKey);
+    synchronized (this) {
+      if (entries.containsKey(fingerprint)) {
+        // Another thread derived the same keys first.
+        return bundle;
+      }
+      entries.put(fingerprint, new Entry(username, bundle));
+      evict();
+    }
+    return bundle;
+  }
+
+  // Call with this held.
+  protected void evict() {
+    final Iterator<Entry> it = entries.values().iterator();
+    while (entries.size() > maxEntries && it.hasNext()) {
+      final Entry eldest = it.next();
+      it.remove();
+      eldest.destroy();
+    }
+  }
+
+  protected synchronized void remove(String fingerprint) {
+    final Entry removed = entries.remove(fingerprint);
+    if (removed != null) {
+      removed.destroy();
+    }
+  }
+
+  /**
+   * Drop the bundle for one username and sync key, if cached.
+   */
+  public void invalidate(String username, String base32SyncKey) {
+    if (username == null || base32SyncKey == null) {
+      return;
+    }
+    remove(fingerprint(username, base32SyncKey));
+  }
+
+  /**
+   * Drop every bundle cached for <code>username</code>, whatever its sync key.
+   */
+  public synchronized void invalidate(String username) {
+    final Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      final Entry entry = it.next();
+      if (entry.username.equals(username)) {
+        it.remove();
+        entry.destroy();
+      }
+    }
+  }
+
+  public synchronized void invalidateAll() {
+    for (Entry entry : entries.values()) {
+      entry.destroy();
+    }
+    entries.clear();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+}
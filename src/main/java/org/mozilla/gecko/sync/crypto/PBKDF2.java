@@ -19,10 +19,14 @@ import javax.crypto.spec.PBEKeySpec;
 
 import org.apache.commons.lang3.SystemUtils;
 import org.mozilla.gecko.background.common.log.Logger;
+import org.mozilla.gecko.background.nativecode.NativeCrypto;
 
 public class PBKDF2 {
   private static final String LOG_TAG = "PBKDF2";
   
+  // Use NativeCrypto unless a provider is set; decided once, at startup.
+  private static final boolean NATIVE = NativeCrypto.hasPBKDF2();
+
   private static String cryptoProvider = null;
 	
   public static String getCryptoProvider() {
@@ -35,16 +39,21 @@ public class PBKDF2 {
 		
   public static byte[] pbkdf2SHA256(byte[] password, byte[] salt, int c, int dkLen) throws UnsupportedEncodingException, NoSuchMethodException, GeneralSecurityException {
 	Logger.debug(LOG_TAG, "pbkdf2SHA256()");
-	Logger.info(LOG_TAG, String.format("PBKDF2 iterations: %d, key length: %d", c, dkLen));
+	Logger.info(LOG_TAG, "PBKDF2 iterations: %d, key length: %d", c, dkLen);
 	
-	Logger.debug(LOG_TAG, "Java version: " + SystemUtils.JAVA_VERSION);
+	Logger.debug(LOG_TAG, "Java version: %s", SystemUtils.JAVA_VERSION);
 	
-	Long startTime = System.currentTimeMillis();
+	final long startTime = System.currentTimeMillis();
 	
 	byte[] pbkdf2Digest = null;
 	
-    if ( cryptoProvider != null ) {
-      Logger.info(LOG_TAG, "pbkdf2SHA256 " + cryptoProvider);
+    if ( cryptoProvider == null && NATIVE ) {
+      Logger.info(LOG_TAG, "pbkdf2SHA256 native");
+
+      pbkdf2Digest = NativeCrypto.pbkdf2SHA256(password, salt, c, dkLen);
+
+    } else if ( cryptoProvider != null ) {
+      Logger.info(LOG_TAG, "pbkdf2SHA256 %s", cryptoProvider);
       
       String providerPrefix = null;	
       if ( cryptoProvider.equalsIgnoreCase("SC") ) { 
@@ -106,7 +115,7 @@ public class PBKDF2 {
       pbkdf2Digest = MozPbkdf2SHA256(password, salt, c, dkLen);
 	}
     
-    Logger.info(LOG_TAG, String.format("PBKDF2 execution time: %dms", (System.currentTimeMillis() - startTime)));
+    Logger.info(LOG_TAG, "PBKDF2 execution time: %dms", System.currentTimeMillis() - startTime);
     
     return pbkdf2Digest;
   }  
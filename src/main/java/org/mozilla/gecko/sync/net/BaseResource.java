@@ -12,14 +12,18 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
 import java.security.KeyManagementException;
+import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.mozilla.gecko.background.common.log.Logger;
 import org.mozilla.gecko.sync.ExtendedJSONObject;
+import org.mozilla.gecko.sync.ThreadPool;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -37,6 +41,7 @@ import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLContextBuilder;
 import org.apache.http.conn.ssl.SSLContexts;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicAuthCache;
@@ -61,6 +66,12 @@ public class BaseResource implements Resource {
 
   private boolean retryOnFailedRequest = true;
 
+  // HttpClient sends "Accept-Encoding: gzip,deflate" and decompresses
+  // responses as they are read, unless content compression is disabled.
+  private static volatile boolean acceptCompressedResponses = true;
+
+  private boolean compressRequestBodies = false;
+
   //Breaks desktops and shouldn't need to use loopback for fxaclient anyway
   public static boolean rewriteLocalhost = false;
 
@@ -93,7 +104,7 @@ public class BaseResource implements Resource {
     }
     if (rewrite && "localhost".equals(uri.getHost())) {
       // Rewrite localhost URIs to refer to the special Android emulator loopback passthrough interface.
-      Logger.debug(LOG_TAG, "Rewriting " + uri + " to point to " + ANDROID_LOOPBACK_IP + ".");
+      Logger.debug(LOG_TAG, "Rewriting %s to point to %s.", uri, ANDROID_LOOPBACK_IP);
       try {
         this.uri = new URI(uri.getScheme(), uri.getUserInfo(), ANDROID_LOOPBACK_IP, uri.getPort(), uri.getPath(), uri.getQuery(), uri.getFragment());
       } catch (URISyntaxException e) {
@@ -119,6 +130,33 @@ public class BaseResource implements Resource {
     httpResponseObserver = new WeakReference<HttpResponseObserver>(newHttpResponseObserver);
   }
 
+  /**
+   * Whether to ask servers for gzip or deflate encoded responses. Enabled by
+   * default; response bodies are decompressed as they are streamed, so large
+   * responses are never held in memory in full.
+   */
+  public static void setAcceptCompressedResponses(boolean accept) {
+    acceptCompressedResponses = accept;
+  }
+
+  public static boolean isAcceptCompressedResponses() {
+    return acceptCompressedResponses;
+  }
+
+  /**
+   * Whether to gzip POST and PUT bodies sent by this resource. Only enable
+   * this for servers known to accept <code>Content-Encoding: gzip</code>.
+   * Only JSON bodies built by this class are compressed; bodies that already
+   * have a content encoding, and other entities, are sent as is.
+   */
+  public void setCompressRequestBodies(boolean compress) {
+    this.compressRequestBodies = compress;
+  }
+
+  public boolean isCompressRequestBodies() {
+    return compressRequestBodies;
+  }
+
   @Override
   public URI getURI() {
     return this.uri;
@@ -163,6 +201,9 @@ public class BaseResource implements Resource {
     if (userAgent != null) {
       clientBuilder.setUserAgent(userAgent);
     }
+    if (!acceptCompressedResponses) {
+      clientBuilder.disableContentCompression();
+    }
     client = clientBuilder.build();
 
     // TODO: Eventually we should use Apache HttpAsyncClient. It's not out of alpha yet.
@@ -198,22 +239,116 @@ public class BaseResource implements Resource {
       .setConfig(requestConfig);
     
     if (entity != null) {
-      requestBuilder.setEntity(entity);
+      requestBuilder.setEntity(compressRequestBodies ? compressEntity(entity) : entity);
     }
     
     return requestBuilder.build();
   }
 
+  /**
+   * Gzip a request body, unless it already has a content encoding.
+   * <p>
+   * Only a repeatable {@link DigestingEntity} is compressed: it is compressed
+   * up front, so its Hawk payload hash covers the bytes actually sent. Other
+   * entities are sent as is, since Hawk must be able to read and hash exactly
+   * what goes over the wire.
+   */
+  protected static HttpEntity compressEntity(HttpEntity entity) {
+    if (entity.getContentEncoding() != null) {
+      return entity;
+    }
+    if (!(entity instanceof DigestingEntity) || !entity.isRepeatable()) {
+      return entity;
+    }
+    return ((DigestingEntity) entity).gzip();
+  }
+
   private static final Object connManagerMonitor = new Object();
   private static HttpClientConnectionManager connManager;
 
+  // Guarded by connManagerMonitor. The SSLContext holds the TLS session
+  // cache, so it is kept when the connection manager is shut down.
+  private static TLSConfiguration tlsConfiguration = TLSConfiguration.DEFAULT;
+  private static SSLContext sslContext;
+
+  private static final TLSHandshakeMetrics tlsHandshakeMetrics = new TLSHandshakeMetrics();
+
+  /**
+   * Use new TLS settings for connections opened from now on. Idle pooled
+   * connections are closed. Cached TLS sessions are kept unless the trust
+   * store changes.
+   */
+  public static void setTLSConfiguration(TLSConfiguration configuration) {
+    if (configuration == null) {
+      throw new IllegalArgumentException("configuration must not be null");
+    }
+    HttpClientConnectionManager connectionManager;
+    synchronized (connManagerMonitor) {
+      if (configuration.getTrustStore() != tlsConfiguration.getTrustStore()) {
+        sslContext = null;
+      }
+      tlsConfiguration = configuration;
+      if (sslContext != null) {
+        configureSessionCache(sslContext, configuration);
+      }
+      connectionManager = connManager;
+      connManager = null;
+    }
+    if (connectionManager != null) {
+      connectionManager.shutdown();
+    }
+  }
+
+  public static TLSConfiguration getTLSConfiguration() {
+    synchronized (connManagerMonitor) {
+      return tlsConfiguration;
+    }
+  }
+
+  public static TLSHandshakeMetrics getTLSHandshakeMetrics() {
+    return tlsHandshakeMetrics;
+  }
+
+  /**
+   * @return the <code>SSLContext</code> shared by all connections.
+   */
+  public static SSLContext getSSLContext() throws KeyManagementException, NoSuchAlgorithmException {
+    synchronized (connManagerMonitor) {
+      return getSSLContextLocked();
+    }
+  }
+
   // Call within a synchronized block on connManagerMonitor.
-  private static HttpClientConnectionManager enableTLSConnectionManager() throws KeyManagementException, NoSuchAlgorithmException  {
-    SSLContext sslContext = SSLContexts.custom()
-      .useProtocol("TLS")
-      .build();
+  private static SSLContext getSSLContextLocked() throws KeyManagementException, NoSuchAlgorithmException {
+    if (sslContext != null) {
+      return sslContext;
+    }
+    final SSLContextBuilder builder = SSLContexts.custom().useProtocol("TLS");
+    if (tlsConfiguration.getTrustStore() != null) {
+      try {
+        builder.loadTrustMaterial(tlsConfiguration.getTrustStore());
+      } catch (KeyStoreException e) {
+        throw new KeyManagementException("Couldn't load trust store.", e);
+      }
+    }
+    final SSLContext context = builder.build();
+    configureSessionCache(context, tlsConfiguration);
+    sslContext = context;
+    return context;
+  }
 
-    SSLConnectionSocketFactory sfssl = new SSLConnectionSocketFactory(sslContext);
+  private static void configureSessionCache(SSLContext context, TLSConfiguration configuration) {
+    final SSLSessionContext sessionContext = context.getClientSessionContext();
+    if (sessionContext == null) {
+      return;
+    }
+    sessionContext.setSessionCacheSize(configuration.getSessionCacheSize());
+    sessionContext.setSessionTimeout(configuration.getSessionTimeoutSeconds());
+  }
+
+  // Call within a synchronized block on connManagerMonitor.
+  private static HttpClientConnectionManager enableTLSConnectionManager() throws KeyManagementException, NoSuchAlgorithmException  {
+    SSLConnectionSocketFactory sfssl = new TLSSocketFactory(getSSLContextLocked(), tlsConfiguration, tlsHandshakeMetrics);
     
     ConnectionSocketFactory sfplain = new PlainConnectionSocketFactory();
     
@@ -253,6 +388,25 @@ public class BaseResource implements Resource {
     connectionManager.closeExpiredConnections();
   }
 
+  /**
+   * Close pooled connections that have been idle for at least
+   * <code>idleMillis</code>. Reconnecting resumes their TLS sessions.
+   */
+  public static void closeIdleConnections(long idleMillis) {
+    HttpClientConnectionManager connectionManager;
+    synchronized (connManagerMonitor) {
+      connectionManager = connManager;
+    }
+    if (connectionManager == null) {
+      return;
+    }
+    connectionManager.closeIdleConnections(idleMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Close every pooled connection. The TLS configuration and session cache
+   * are kept, so later connections resume their sessions.
+   */
   public static void shutdownConnectionManager() {
     HttpClientConnectionManager connectionManager;
     synchronized (connManagerMonitor) {
@@ -270,7 +424,7 @@ public class BaseResource implements Resource {
     HttpResponse response;
     try {
       response = client.execute(request, context);
-      Logger.debug(LOG_TAG, "Response: " + response.getStatusLine().toString());
+      Logger.debug(LOG_TAG, "Response: %s", response.getStatusLine());
     } catch (ClientProtocolException e) {
       delegate.handleHttpProtocolException(e);
       return;
@@ -311,8 +465,31 @@ public class BaseResource implements Resource {
     this.execute();
   }
 
-  private void go(HttpUriRequest request) {
-   if (delegate == null) {
+  /**
+   * Make the request. Normally this happens on the calling thread; when
+   * {@link ThreadPool#isUsingVirtualThreads()} it is handed to
+   * {@link ThreadPool#getBlockingExecutor()} and the delegate is called back
+   * from there. Without virtual threads, offloading would only add a
+   * platform thread per request, so the request stays on the calling thread.
+   */
+  private void go(final HttpUriRequest request) {
+    if (delegate == null) {
+      throw new IllegalArgumentException("No delegate provided.");
+    }
+    if (!ThreadPool.isUsingVirtualThreads()) {
+      goSynchronously(request);
+      return;
+    }
+    ThreadPool.runBlocking(new Runnable() {
+      @Override
+      public void run() {
+        goSynchronously(request);
+      }
+    });
+  }
+
+  private void goSynchronously(HttpUriRequest request) {
+    if (delegate == null) {
       throw new IllegalArgumentException("No delegate provided.");
     }
     this.request = request;
@@ -337,7 +514,7 @@ public class BaseResource implements Resource {
 
   @Override
   public void get() {
-    Logger.debug(LOG_TAG, "HTTP GET " + this.uri.toASCIIString());   
+    Logger.debug(LOG_TAG, "HTTP GET %s", this.uri);
     this.go(buildRequest("GET", this.uri));
   }
 
@@ -347,25 +524,35 @@ public class BaseResource implements Resource {
    */
   public void getBlocking() {
     // Until we use the asynchronous Apache HttpClient, we can simply call
-    // through.
-    this.get();
+    // through, bypassing virtual thread mode.
+    Logger.debug(LOG_TAG, "HTTP GET %s", this.uri);
+    this.goSynchronously(buildRequest("GET", this.uri));
   }
 
   @Override
   public void delete() {
-    Logger.debug(LOG_TAG, "HTTP DELETE " + this.uri.toASCIIString());
+    Logger.debug(LOG_TAG, "HTTP DELETE %s", this.uri);
     this.go(buildRequest("DELETE", this.uri));
   }
 
   @Override
   public void post(HttpEntity body) {
-    Logger.debug(LOG_TAG, "HTTP POST " + this.uri.toASCIIString());
+    Logger.debug(LOG_TAG, "HTTP POST %s", this.uri);
     this.go(buildRequest("POST", this.uri, body));
   }
 
+  /**
+   * Perform an HTTP POST as with {@link BaseResource#post(HttpEntity)},
+   * returning only after callbacks have been invoked.
+   */
+  public void postBlocking(HttpEntity body) {
+    Logger.debug(LOG_TAG, "HTTP POST %s", this.uri);
+    this.goSynchronously(buildRequest("POST", this.uri, body));
+  }
+
   @Override
   public void put(HttpEntity body) {
-    Logger.debug(LOG_TAG, "HTTP PUT " + this.uri.toASCIIString());
+    Logger.debug(LOG_TAG, "HTTP PUT %s", this.uri);
     this.go(buildRequest("PUT", this.uri, body));
   }
 
@@ -376,27 +563,28 @@ public class BaseResource implements Resource {
   }
 
   /**
-   * Helper for turning a JSON object into a payload.
+   * Helper for turning a JSON object into a payload. The entity carries its
+   * Hawk payload hash, computed while serializing.
    * @throws UnsupportedEncodingException
    */
-  protected static StringEntity jsonEntity(JSONObject body) throws UnsupportedEncodingException {
-    return stringEntityWithContentTypeApplicationJSON(body.toJSONString());
+  protected static DigestingEntity jsonEntity(JSONObject body) throws UnsupportedEncodingException {
+    return DigestingEntity.fromJSON(body);
   }
 
   /**
    * Helper for turning an extended JSON object into a payload.
    * @throws UnsupportedEncodingException
    */
-  protected static StringEntity jsonEntity(ExtendedJSONObject body) throws UnsupportedEncodingException {
-    return stringEntityWithContentTypeApplicationJSON(body.toJSONString());
+  protected static DigestingEntity jsonEntity(ExtendedJSONObject body) throws UnsupportedEncodingException {
+    return DigestingEntity.fromJSON(body.object);
   }
 
   /**
    * Helper for turning a JSON array into a payload.
    * @throws UnsupportedEncodingException
    */
-  protected static HttpEntity jsonEntity(JSONArray toPOST) throws UnsupportedEncodingException {
-    return stringEntityWithContentTypeApplicationJSON(toPOST.toJSONString());
+  protected static DigestingEntity jsonEntity(JSONArray toPOST) throws UnsupportedEncodingException {
+    return DigestingEntity.fromJSON(toPOST);
   }
 
   /**
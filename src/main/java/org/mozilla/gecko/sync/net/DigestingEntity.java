@@ -0,0 +1,259 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.message.BasicHeader;
+import org.json.simple.JSONStreamAware;
+
+/**
+ * An <code>HttpEntity</code> that knows its Hawk payload verification hash.
+ * <p>
+ * <code>HawkAuthHeaderProvider</code> normally hashes a request body by
+ * reading the entity a second time, which doubles the work for large POST
+ * bodies and is impossible for non-repeatable entities. A
+ * <code>DigestingEntity</code> carries a hash computed while the body was
+ * produced:
+ * <ul>
+ * <li>{@link #fromJSON(JSONStreamAware)} serializes JSON once, hashing the
+ * UTF-8 bytes as they are written;</li>
+ * <li>{@link #newDigest(String)} and {@link #finishDigest(MessageDigest)} let
+ * callers that produce a body elsewhere (say, spooled to disk) compute the
+ * hash themselves, and then send the body as a non-repeatable stream.</li>
+ * </ul>
+ */
+public class DigestingEntity extends AbstractHttpEntity {
+  public static final String CONTENT_TYPE_JSON = "application/json";
+
+  protected final byte[] content;
+  protected final int contentLength;
+  protected final InputStream stream;
+  protected final long streamLength;
+
+  protected String hashedContentType;
+  protected byte[] payloadHash;
+  protected boolean consumed = false;
+
+  protected DigestingEntity(byte[] content, int contentLength, String contentType, byte[] payloadHash) {
+    this.content = content;
+    this.contentLength = contentLength;
+    this.stream = null;
+    this.streamLength = contentLength;
+    setContentType(contentType);
+    this.hashedContentType = HawkAuthHeaderProvider.getBaseContentType(getContentType());
+    this.payloadHash = payloadHash;
+  }
+
+  /**
+   * Wrap a non-repeatable stream whose Hawk payload hash is already known.
+   *
+   * @param stream body to send.
+   * @param length of body in bytes, or a negative number if unknown.
+   * @param contentType of body.
+   * @param payloadHash Hawk payload hash of body, computed with
+   *          {@link #newDigest(String)} and {@link #finishDigest(MessageDigest)}
+   *          for the same <code>contentType</code>.
+   */
+  public DigestingEntity(InputStream stream, long length, String contentType, byte[] payloadHash) {
+    if (stream == null) {
+      throw new IllegalArgumentException("stream must not be null");
+    }
+    if (contentType == null) {
+      throw new IllegalArgumentException("contentType must not be null");
+    }
+    if (payloadHash == null) {
+      throw new IllegalArgumentException("payloadHash must not be null");
+    }
+    this.content = null;
+    this.contentLength = 0;
+    this.stream = stream;
+    this.streamLength = length;
+    setContentType(contentType);
+    this.hashedContentType = HawkAuthHeaderProvider.getBaseContentType(getContentType());
+    this.payloadHash = payloadHash;
+  }
+
+  /**
+   * Serialize a JSON value as UTF-8, hashing the bytes as they are written.
+   *
+   * @param body to serialize.
+   * @return repeatable entity with content type <code>application/json</code>.
+   */
+  public static DigestingEntity fromJSON(JSONStreamAware body) throws UnsupportedEncodingException {
+    if (body == null) {
+      throw new IllegalArgumentException("body must not be null");
+    }
+    final MessageDigest digest = newDigest(CONTENT_TYPE_JSON);
+    final ExposedByteArrayOutputStream bytes = new ExposedByteArrayOutputStream();
+    final Writer writer = new OutputStreamWriter(new DigestOutputStream(bytes, digest), "UTF-8");
+    try {
+      body.writeJSONString(writer);
+      writer.flush();
+    } catch (IOException e) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(e);
+    }
+    return new DigestingEntity(bytes.getBuffer(), bytes.size(), CONTENT_TYPE_JSON, finishDigest(digest));
+  }
+
+  /**
+   * Gzip this entity's content.
+   * <p>
+   * The Hawk payload hash of the returned entity covers the compressed bytes,
+   * since those are what goes over the wire.
+   *
+   * @return repeatable entity with <code>Content-Encoding: gzip</code> and
+   *         the same content type.
+   * @throws IllegalStateException if this entity is not repeatable.
+   */
+  public DigestingEntity gzip() {
+    if (content == null) {
+      throw new IllegalStateException("Cannot compress a non-repeatable entity.");
+    }
+    final Header contentType = getContentType();
+    final MessageDigest digest = newDigest(contentType.getValue());
+    final ExposedByteArrayOutputStream bytes = new ExposedByteArrayOutputStream();
+    try {
+      final GZIPOutputStream out = new GZIPOutputStream(new DigestOutputStream(bytes, digest));
+      out.write(content, 0, contentLength);
+      out.close();
+    } catch (IOException e) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(e);
+    }
+    final DigestingEntity entity = new DigestingEntity(bytes.getBuffer(), bytes.size(), contentType.getValue(), finishDigest(digest));
+    entity.setContentEncoding("gzip");
+    return entity;
+  }
+
+  /**
+   * Start a Hawk payload hash for a body with the given content type.
+   * Update the returned digest with the body bytes and pass it to
+   * {@link #finishDigest(MessageDigest)}.
+   */
+  public static MessageDigest newDigest(String contentType) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    digest.update(HawkAuthHeaderProvider.PAYLOAD_PREFIX);
+    try {
+      digest.update(HawkAuthHeaderProvider.getBaseContentType(new BasicHeader("Content-Type", contentType)).getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+    digest.update((byte) '\n');
+    return digest;
+  }
+
+  /**
+   * @return the Hawk payload hash of a digest started by {@link #newDigest(String)}.
+   */
+  public static byte[] finishDigest(MessageDigest digest) {
+    digest.update((byte) '\n'); // Trailing newline is specified by Hawk.
+    return digest.digest();
+  }
+
+  /**
+   * @return the Hawk payload verification hash for this entity's content and
+   *         current content type.
+   * @throws IllegalStateException if the content type was changed on a
+   *           non-repeatable entity.
+   */
+  public synchronized byte[] getPayloadHash() {
+    final String contentType = HawkAuthHeaderProvider.getBaseContentType(getContentType());
+    if (!contentType.equals(hashedContentType)) {
+      if (content == null) {
+        throw new IllegalStateException("Content type changed after hashing non-repeatable entity.");
+      }
+      final MessageDigest digest = newDigest(contentType);
+      digest.update(content, 0, contentLength);
+      payloadHash = finishDigest(digest);
+      hashedContentType = contentType;
+    }
+    return payloadHash;
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return content != null;
+  }
+
+  @Override
+  public long getContentLength() {
+    return streamLength;
+  }
+
+  @Override
+  public InputStream getContent() throws IOException {
+    if (content != null) {
+      return new ByteArrayInputStream(content, 0, contentLength);
+    }
+    synchronized (this) {
+      if (consumed) {
+        throw new IllegalStateException("Content has already been consumed.");
+      }
+      consumed = true;
+    }
+    return stream;
+  }
+
+  @Override
+  public void writeTo(OutputStream out) throws IOException {
+    if (out == null) {
+      throw new IllegalArgumentException("out must not be null");
+    }
+    if (content != null) {
+      out.write(content, 0, contentLength);
+      out.flush();
+      return;
+    }
+    final InputStream in = getContent();
+    try {
+      final byte[] buffer = new byte[4096];
+      int numRead;
+      while (-1 != (numRead = in.read(buffer))) {
+        out.write(buffer, 0, numRead);
+      }
+      out.flush();
+    } finally {
+      in.close();
+    }
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return content == null && !consumed;
+  }
+
+  /**
+   * Avoid copying the serialized body out of the output stream.
+   */
+  protected static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+    public ExposedByteArrayOutputStream() {
+      super(1024);
+    }
+
+    public byte[] getBuffer() {
+      return buf;
+    }
+  }
+}
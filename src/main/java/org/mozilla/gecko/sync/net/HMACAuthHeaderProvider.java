@@ -20,7 +20,6 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.protocol.BasicHttpContext;
 import org.mozilla.gecko.background.common.log.Logger;
-import org.mozilla.gecko.sync.Utils;
 
 /**
  * An <code>AuthHeaderProvider</code> that returns an Authorization header for
@@ -64,7 +63,7 @@ public class HMACAuthHeaderProvider implements AuthHeaderProvider {
   @Override
   public Header getAuthHeader(HttpUriRequest request, BasicHttpContext context, HttpClient client) throws GeneralSecurityException {
     long timestamp = System.currentTimeMillis() / 1000;
-    String nonce = Base64.encodeBase64String(Utils.generateRandomBytes(NONCE_LENGTH_IN_BYTES));
+    String nonce = NonceGenerator.nextNonce(NONCE_LENGTH_IN_BYTES);
     String extra = "";
 
     try {
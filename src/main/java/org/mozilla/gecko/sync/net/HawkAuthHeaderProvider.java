@@ -5,19 +5,15 @@
 package org.mozilla.gecko.sync.net;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Locale;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
-import org.apache.commons.codec.binary.Base64;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
@@ -26,7 +22,7 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.protocol.BasicHttpContext;
 import org.mozilla.gecko.background.common.log.Logger;
-import org.mozilla.gecko.sync.Utils;
+import org.mozilla.gecko.sync.Base64Codec;
 
 /**
  * An <code>AuthHeaderProvider</code> that returns an Authorization header for
@@ -44,6 +40,15 @@ public class HawkAuthHeaderProvider implements AuthHeaderProvider {
   protected static final int NONCE_LENGTH_IN_BYTES = 8;
   protected static final String HMAC_SHA256_ALGORITHM = "hmacSHA256";
 
+  protected static final byte[] PAYLOAD_PREFIX;
+  static {
+    try {
+      PAYLOAD_PREFIX = ("hawk." + HAWK_HEADER_VERSION + ".payload\n").getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   protected final String id;
   protected final byte[] key;
   protected final boolean includePayloadHash;
@@ -106,7 +111,7 @@ public class HawkAuthHeaderProvider implements AuthHeaderProvider {
   @Override
   public Header getAuthHeader(HttpUriRequest request, BasicHttpContext context, HttpClient client) throws GeneralSecurityException {
     long timestamp = getTimestampSeconds();
-    String nonce = Base64.encodeBase64String(Utils.generateRandomBytes(NONCE_LENGTH_IN_BYTES));
+    String nonce = NonceGenerator.nextNonce(NONCE_LENGTH_IN_BYTES);
     String extra = "";
 
     try {
@@ -148,8 +153,8 @@ public class HawkAuthHeaderProvider implements AuthHeaderProvider {
 
     String app = null;
     String dlg = null;
-    String requestString = getRequestString(request, "header", timestamp, nonce, payloadHash, extra, app, dlg);
-    String macString = getSignature(requestString.getBytes("UTF-8"), this.key);
+    byte[] mac = HawkSigner.get().sign(this.key, "header", request.getMethod(), request.getURI(), timestamp, nonce, payloadHash, extra, app, dlg);
+    String macString = Base64Codec.encodeToString(mac);
 
     StringBuilder sb = new StringBuilder();
     sb.append("Hawk id=\"");
@@ -207,7 +212,7 @@ public class HawkAuthHeaderProvider implements AuthHeaderProvider {
     if (entity == null) {
       throw new IllegalArgumentException("Cannot compute payload verification hash for enclosing request with a null entity");
     }
-    return Base64.encodeBase64String(getPayloadHash(entity));
+    return Base64Codec.encodeToString(getPayloadHash(entity));
   }
 
   /**
@@ -266,7 +271,10 @@ public class HawkAuthHeaderProvider implements AuthHeaderProvider {
    * Generate the SHA-256 hash of a normalized Hawk payload generated from an
    * HTTP entity.
    * <p>
-   * <b>Warning:</b> the entity <b>must</b> be repeatable.  If it is not, this
+   * A {@link DigestingEntity} already knows its hash, so it is not read again
+   * and need not be repeatable.
+   * <p>
+   * <b>Warning:</b> any other entity <b>must</b> be repeatable.  If it is not, this
    * code throws an <code>IllegalArgumentException</code>.
    * <p>
    * This is under-specified; the code here was reverse engineered from the code
@@ -277,99 +285,32 @@ public class HawkAuthHeaderProvider implements AuthHeaderProvider {
    * @throws IllegalArgumentException if entity is not repeatable.
    */
   protected static byte[] getPayloadHash(HttpEntity entity) throws UnsupportedEncodingException, IOException, NoSuchAlgorithmException {
+    if (entity instanceof DigestingEntity) {
+      return ((DigestingEntity) entity).getPayloadHash();
+    }
     if (!entity.isRepeatable()) {
       throw new IllegalArgumentException("entity must be repeatable");
     }
-    final MessageDigest digest = MessageDigest.getInstance("SHA-256");
-    digest.update(("hawk." + HAWK_HEADER_VERSION + ".payload\n").getBytes("UTF-8"));
-    digest.update(getBaseContentType(entity.getContentType()).getBytes("UTF-8"));
-    digest.update("\n".getBytes("UTF-8"));
-    InputStream stream = entity.getContent();
-    try {
-      int numRead;
-      byte[] buffer = new byte[4096];
-      while (-1 != (numRead = stream.read(buffer))) {
-        if (numRead > 0) {
-          digest.update(buffer, 0, numRead);
-        }
-      }
-      digest.update("\n".getBytes("UTF-8")); // Trailing newline is specified by Hawk.
-      return digest.digest();
-    } finally {
-      stream.close();
-    }
+    return HawkSigner.get().payloadHash(entity);
   }
 
   /**
-   * Generate a normalized Hawk request string. This is under-specified; the
-   * code here was reverse engineered from the code at
-   * <a href="https://github.com/hueniverse/hawk/blob/871cc597973110900467bd3dfb84a3c892f678fb/lib/crypto.js#L55">https://github.com/hueniverse/hawk/blob/871cc597973110900467bd3dfb84a3c892f678fb/lib/crypto.js#L55</a>.
-   * <p>
-   * This method trusts its inputs to be valid.
+   * @return the port of the URI, defaulting for http and https.
+   * @throws IllegalArgumentException for other schemes without an explicit port.
    */
-  protected static String getRequestString(HttpUriRequest request, String type, long timestamp, String nonce, String hash, String extra, String app, String dlg) {
-    String method = request.getMethod().toUpperCase(Locale.US);
-
-    URI uri = request.getURI();
-    String host = uri.getHost();
-
-    String path = uri.getRawPath();
-    if (uri.getRawQuery() != null) {
-      path += "?";
-      path += uri.getRawQuery();
-    }
-    if (uri.getRawFragment() != null) {
-      path += "#";
-      path += uri.getRawFragment();
-    }
-
-    int port = uri.getPort();
-    String scheme = uri.getScheme();
+  protected static int getPort(URI uri) {
+    final int port = uri.getPort();
     if (port != -1) {
-    } else if ("http".equalsIgnoreCase(scheme)) {
-      port = 80;
-    } else if ("https".equalsIgnoreCase(scheme)) {
-      port = 443;
-    } else {
-      throw new IllegalArgumentException("Unsupported URI scheme: " + scheme + ".");
+      return port;
     }
-
-    StringBuilder sb = new StringBuilder();
-    sb.append("hawk.");
-    sb.append(HAWK_HEADER_VERSION);
-    sb.append('.');
-    sb.append(type);
-    sb.append('\n');
-    sb.append(timestamp);
-    sb.append('\n');
-    sb.append(nonce);
-    sb.append('\n');
-    sb.append(method);
-    sb.append('\n');
-    sb.append(path);
-    sb.append('\n');
-    sb.append(host);
-    sb.append('\n');
-    sb.append(port);
-    sb.append('\n');
-    if (hash != null) {
-      sb.append(hash);
+    final String scheme = uri.getScheme();
+    if ("http".equalsIgnoreCase(scheme)) {
+      return 80;
     }
-    sb.append("\n");
-    if (extra != null && extra.length() > 0) {
-      sb.append(escapeExtraString(extra));
+    if ("https".equalsIgnoreCase(scheme)) {
+      return 443;
     }
-    sb.append("\n");
-    if (app != null) {
-      sb.append(app);
-      sb.append("\n");
-      if (dlg != null) {
-        sb.append(dlg);
-      }
-      sb.append("\n");
-    }
-
-    return sb.toString();
+    throw new IllegalArgumentException("Unsupported URI scheme: " + scheme + ".");
   }
 
   protected static byte[] hmacSha256(byte[] message, byte[] key)
@@ -396,6 +337,6 @@ public class HawkAuthHeaderProvider implements AuthHeaderProvider {
    */
   protected static String getSignature(byte[] requestString, byte[] key)
       throws InvalidKeyException, NoSuchAlgorithmException, UnsupportedEncodingException {
-    return Base64.encodeBase64String(hmacSha256(requestString, key));
+    return Base64Codec.encodeToString(hmacSha256(requestString, key));
   }
 }
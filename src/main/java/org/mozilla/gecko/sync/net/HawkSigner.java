@@ -0,0 +1,273 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.http.HttpEntity;
+
+/**
+ * Per-thread state for computing Hawk request MACs and payload hashes.
+ * <p>
+ * Each thread keeps one HMAC-SHA256 <code>Mac</code>, one SHA-256 digest,
+ * and a byte buffer into which the normalized request string is written
+ * directly as UTF-8. The <code>Mac</code> is keyed with the Hawk key only
+ * for the duration of {@link #sign}, and re-keyed with a dummy key before it
+ * returns, so a pool thread doesn't keep the last credential it signed with.
+ * <p>
+ * The normalized request string is the newline-terminated lines
+ * <code>hawk.1.</code><i>type</i>, timestamp, nonce, upper-cased method, raw path
+ * with query and fragment, host, port, payload hash (or empty), escaped
+ * <code>ext</code> (or empty), and then, only if <code>app</code> is given,
+ * <code>app</code> and <code>dlg</code> (or empty).
+ * <p>
+ * Instances are not thread-safe; use {@link #get()}.
+ */
+public class HawkSigner {
+  protected static final int INITIAL_BUFFER_SIZE = 512;
+  protected static final int PAYLOAD_BUFFER_SIZE = 4096;
+
+  protected static final ThreadLocal<HawkSigner> signers = new ThreadLocal<HawkSigner>() {
+    @Override
+    protected HawkSigner initialValue() {
+      try {
+        return new HawkSigner();
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
+  /**
+   * @return the signer for the current thread.
+   */
+  public static HawkSigner get() {
+    return signers.get();
+  }
+
+  /**
+   * Keys the <code>Mac</code> between signatures.
+   */
+  protected static final byte[] DUMMY_KEY = new byte[32];
+
+  protected final Mac mac;
+  protected final MessageDigest digest;
+
+  protected byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+  protected int length;
+  protected byte[] payloadBuffer;
+
+  protected HawkSigner() throws NoSuchAlgorithmException {
+    this.mac = Mac.getInstance(HawkAuthHeaderProvider.HMAC_SHA256_ALGORITHM);
+    this.digest = MessageDigest.getInstance("SHA-256");
+  }
+
+  /**
+   * Compute the MAC of a normalized Hawk request string, laid out as
+   * described above.
+   * <p>
+   * This method trusts its inputs, other than <code>key</code>, to be valid.
+   *
+   * @return HMAC-SHA256 of the normalized request string under <code>key</code>.
+   */
+  public byte[] sign(byte[] key, String type, String method, URI uri, long timestamp, String nonce, String hash, String extra, String app, String dlg)
+      throws InvalidKeyException {
+    if (key == null) {
+      throw new IllegalArgumentException("key must not be null");
+    }
+    writeRequest(type, method, uri, timestamp, nonce, hash, extra, app, dlg);
+    mac.init(new SecretKeySpec(key, HawkAuthHeaderProvider.HMAC_SHA256_ALGORITHM));
+    try {
+      mac.update(buffer, 0, length);
+      return mac.doFinal();
+    } finally {
+      forgetKey();
+    }
+  }
+
+  /**
+   * Re-key the <code>Mac</code> with a dummy key, so that it doesn't hold the
+   * Hawk key after <code>sign</code> returns.
+   */
+  protected void forgetKey() {
+    try {
+      mac.init(new SecretKeySpec(DUMMY_KEY, HawkAuthHeaderProvider.HMAC_SHA256_ALGORITHM));
+    } catch (InvalidKeyException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Write the normalized Hawk request string, laid out as described above,
+   * into the buffer. This is under-specified; the code here was reverse engineered from the code at
+   * <a href="https://github.com/hueniverse/hawk/blob/871cc597973110900467bd3dfb84a3c892f678fb/lib/crypto.js#L55">https://github.com/hueniverse/hawk/blob/871cc597973110900467bd3dfb84a3c892f678fb/lib/crypto.js#L55</a>.
+   * <p>
+   * This method trusts its inputs to be valid.
+   *
+   * @return number of bytes written.
+   */
+  protected int writeRequest(String type, String method, URI uri, long timestamp, String nonce, String hash, String extra, String app, String dlg) {
+    length = 0;
+    appendAscii("hawk.");
+    appendLong(HawkAuthHeaderProvider.HAWK_HEADER_VERSION);
+    appendByte('.');
+    appendString(type);
+    appendByte('\n');
+    appendLong(timestamp);
+    appendByte('\n');
+    appendString(nonce);
+    appendByte('\n');
+    appendString(method.toUpperCase(Locale.US));
+    appendByte('\n');
+    appendString(uri.getRawPath());
+    final String query = uri.getRawQuery();
+    if (query != null) {
+      appendByte('?');
+      appendString(query);
+    }
+    final String fragment = uri.getRawFragment();
+    if (fragment != null) {
+      appendByte('#');
+      appendString(fragment);
+    }
+    appendByte('\n');
+    appendString(uri.getHost());
+    appendByte('\n');
+    appendLong(HawkAuthHeaderProvider.getPort(uri));
+    appendByte('\n');
+    if (hash != null) {
+      appendString(hash);
+    }
+    appendByte('\n');
+    if (extra != null && extra.length() > 0) {
+      appendString(HawkAuthHeaderProvider.escapeExtraString(extra));
+    }
+    appendByte('\n');
+    if (app != null) {
+      appendString(app);
+      appendByte('\n');
+      if (dlg != null) {
+        appendString(dlg);
+      }
+      appendByte('\n');
+    }
+    return length;
+  }
+
+  /**
+   * @return a copy of the bytes last written by <code>writeRequest</code>.
+   */
+  protected byte[] getRequestBytes() {
+    return Arrays.copyOf(buffer, length);
+  }
+
+  /**
+   * Generate the SHA-256 hash of a normalized Hawk payload, reading the
+   * entity content once.
+   *
+   * @param entity to normalize and hash; must be repeatable if it is to be sent afterwards.
+   * @return hash.
+   */
+  public byte[] payloadHash(HttpEntity entity) throws IOException {
+    digest.reset();
+    digest.update(HawkAuthHeaderProvider.PAYLOAD_PREFIX);
+    updateString(HawkAuthHeaderProvider.getBaseContentType(entity.getContentType()));
+    digest.update((byte) '\n');
+    if (payloadBuffer == null) {
+      payloadBuffer = new byte[PAYLOAD_BUFFER_SIZE];
+    }
+    final InputStream stream = entity.getContent();
+    try {
+      int numRead;
+      while (-1 != (numRead = stream.read(payloadBuffer))) {
+        if (numRead > 0) {
+          digest.update(payloadBuffer, 0, numRead);
+        }
+      }
+    } finally {
+      stream.close();
+    }
+    digest.update((byte) '\n'); // Trailing newline is specified by Hawk.
+    return digest.digest();
+  }
+
+  protected void updateString(String s) {
+    length = 0;
+    appendString(s);
+    digest.update(buffer, 0, length);
+  }
+
+  protected void ensureCapacity(int extra) {
+    final int needed = length + extra;
+    if (needed > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(needed, 2 * buffer.length));
+    }
+  }
+
+  protected void appendByte(char c) {
+    ensureCapacity(1);
+    buffer[length++] = (byte) c;
+  }
+
+  protected void appendAscii(String s) {
+    final int n = s.length();
+    ensureCapacity(n);
+    for (int i = 0; i < n; i++) {
+      buffer[length++] = (byte) s.charAt(i);
+    }
+  }
+
+  /**
+   * Append a string as UTF-8. URI components, nonces and hashes are ASCII,
+   * so only fall back to the JDK encoder when we have to.
+   */
+  protected void appendString(String s) {
+    final int n = s.length();
+    for (int i = 0; i < n; i++) {
+      if (s.charAt(i) >= 0x80) {
+        final byte[] bytes;
+        try {
+          bytes = s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+          throw new IllegalStateException(e);
+        }
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+        return;
+      }
+    }
+    appendAscii(s);
+  }
+
+  protected void appendLong(long value) {
+    if (value < 0) {
+      appendAscii(Long.toString(value));
+      return;
+    }
+    ensureCapacity(20);
+    int digits = 1;
+    for (long v = value / 10; v > 0; v /= 10) {
+      digits++;
+    }
+    int position = length + digits;
+    length = position;
+    do {
+      buffer[--position] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while (value > 0);
+  }
+}
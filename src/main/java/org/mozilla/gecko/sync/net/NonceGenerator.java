@@ -0,0 +1,104 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync.net;
+
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+
+import org.mozilla.gecko.sync.Base64Codec;
+
+/**
+ * Generate Base64-encoded random nonces for HMAC and Hawk Authorization
+ * headers.
+ * <p>
+ * <code>Utils.generateRandomBytes</code> draws from a single shared
+ * <code>SecureRandom</code>, which serializes threads signing requests
+ * concurrently. Instead, each thread has its own <code>SecureRandom</code>
+ * and draws random bytes from it in chunks of {@link #BUFFER_SIZE}, handing
+ * out a few bytes per nonce. Encoding reuses a per-thread buffer, so the only
+ * allocation per nonce is the returned <code>String</code>.
+ * <p>
+ * Instances are not thread-safe; use {@link #get()}.
+ */
+public class NonceGenerator {
+  public static final int BUFFER_SIZE = 1024;
+
+  protected static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+  protected static final ThreadLocal<NonceGenerator> generators = new ThreadLocal<NonceGenerator>() {
+    @Override
+    protected NonceGenerator initialValue() {
+      return new NonceGenerator(new SecureRandom(), BUFFER_SIZE);
+    }
+  };
+
+  /**
+   * @return the generator for the current thread.
+   */
+  public static NonceGenerator get() {
+    return generators.get();
+  }
+
+  /**
+   * @return a nonce of <code>lengthInBytes</code> random bytes, Base64
+   *         encoded, from the current thread's generator.
+   */
+  public static String nextNonce(int lengthInBytes) {
+    return generators.get().next(lengthInBytes);
+  }
+
+  protected final SecureRandom random;
+  protected final byte[] randomBytes;
+  protected int position;
+  protected byte[] encoded = new byte[16];
+
+  protected NonceGenerator(SecureRandom random, int bufferSize) {
+    if (random == null) {
+      throw new IllegalArgumentException("random must not be null");
+    }
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("bufferSize must be positive");
+    }
+    this.random = random;
+    this.randomBytes = new byte[bufferSize];
+    // Start empty, so the first call fills the buffer.
+    this.position = bufferSize;
+  }
+
+  /**
+   * @param lengthInBytes number of random bytes; must be positive.
+   * @return Base64 encoding of <code>lengthInBytes</code> fresh random bytes.
+   */
+  public String next(int lengthInBytes) {
+    if (lengthInBytes <= 0) {
+      throw new IllegalArgumentException("lengthInBytes must be positive");
+    }
+    final int encodedLength = Base64Codec.encodedLength(lengthInBytes);
+    if (encoded.length < encodedLength) {
+      encoded = new byte[encodedLength];
+    }
+
+    int written = 0;
+    int remaining = lengthInBytes;
+    if (remaining > randomBytes.length) {
+      // Too big to buffer; don't bother.
+      final byte[] bytes = new byte[remaining];
+      random.nextBytes(bytes);
+      written = Base64Codec.encode(bytes, 0, remaining, encoded, 0);
+    } else {
+      if (position + remaining > randomBytes.length) {
+        random.nextBytes(randomBytes);
+        position = 0;
+      }
+      written = Base64Codec.encode(randomBytes, position, remaining, encoded, 0);
+      // Don't leave handed-out bytes lying around.
+      for (int i = 0; i < remaining; i++) {
+        randomBytes[position + i] = 0;
+      }
+      position += remaining;
+    }
+    return new String(encoded, 0, written, US_ASCII);
+  }
+}
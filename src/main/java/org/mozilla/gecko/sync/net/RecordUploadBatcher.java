@@ -0,0 +1,438 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync.net;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.json.simple.JSONArray;
+import org.mozilla.gecko.background.common.log.Logger;
+import org.mozilla.gecko.sync.CryptoRecord;
+import org.mozilla.gecko.sync.ExtendedJSONObject;
+import org.mozilla.gecko.sync.HTTPFailureException;
+import org.mozilla.gecko.sync.InstrumentedExecutor;
+import org.mozilla.gecko.sync.SyncException;
+import org.mozilla.gecko.sync.Utils;
+import org.mozilla.gecko.sync.crypto.KeyBundle;
+import org.mozilla.gecko.sync.net.DigestingEntity.ExposedByteArrayOutputStream;
+
+/**
+ * Upload <code>CryptoRecord</code>s to a Sync storage collection in as many
+ * POSTs as the server's limits require.
+ * <p>
+ * Each POST body holds at most <code>maxPostRecords</code> records and
+ * <code>maxPostBytes</code> bytes. Records are serialized one at a time
+ * straight into the body's bytes, which are hashed for Hawk as a
+ * {@link DigestingEntity}; there's no intermediate <code>JSONArray</code> or
+ * body <code>String</code>. While one body is being POSTed, the next is
+ * encrypted and serialized on a thread of the upload's own, so waiting for it
+ * can't deadlock a shared pool that <code>upload</code> itself runs on.
+ * <p>
+ * Every record is reported exactly once, stored or failed, from the server's
+ * <code>success</code> and <code>failed</code> lists; then the upload is
+ * reported complete. A record too big for any POST fails on its own. An HTTP
+ * or network failure fails its batch and every record not yet sent.
+ */
+public class RecordUploadBatcher {
+  private static final String LOG_TAG = "RecordUploadBatcher";
+  protected static final String PREPARE_THREAD_NAME = "sync-upload-prepare";
+
+  public static final int DEFAULT_MAX_POST_RECORDS = 100;
+  public static final int DEFAULT_MAX_POST_BYTES = 1024 * 1024;
+
+  protected static final String KEY_SUCCESS  = "success";
+  protected static final String KEY_FAILED   = "failed";
+  protected static final String KEY_MODIFIED = "modified";
+
+  /**
+   * Callbacks come on the thread that called
+   * {@link RecordUploadBatcher#upload(List, RecordUploadDelegate)}.
+   */
+  public interface RecordUploadDelegate {
+    public void onRecordStored(String guid);
+    public void onRecordFailed(String guid, Exception e);
+    /**
+     * @param lastModified server timestamp of a successful POST, in
+     *          milliseconds.
+     */
+    public void onBatchStored(long lastModified);
+    public void onUploadComplete();
+  }
+
+  /**
+   * A record that can't fit in a POST body on its own.
+   */
+  public static class RecordTooLargeException extends SyncException {
+    private static final long serialVersionUID = 2812795743281329613L;
+    public final long length;
+
+    public RecordTooLargeException(long length) {
+      this.length = length;
+    }
+
+    @Override
+    public String toString() {
+      return "<RecordTooLargeException " + length + " bytes>";
+    }
+  }
+
+  /**
+   * A record the server listed as failed, or didn't list at all.
+   */
+  public static class RecordRejectedException extends SyncException {
+    private static final long serialVersionUID = -4000946437366826581L;
+    public final String reason;
+
+    public RecordRejectedException(String reason) {
+      this.reason = reason;
+    }
+
+    @Override
+    public String toString() {
+      return "<RecordRejectedException (" + reason + ")>";
+    }
+  }
+
+  protected final URI uri;
+  protected final AuthHeaderProvider authHeaderProvider;
+  protected final KeyBundle keyBundle;
+  protected final int maxPostRecords;
+  protected final int maxPostBytes;
+
+  protected volatile String userAgent;
+  protected volatile boolean compressRequestBodies = false;
+
+  /**
+   * @param uri of the collection to POST to.
+   * @param authHeaderProvider for each POST; may be null.
+   * @param keyBundle to encrypt records with; null if they're already
+   *          encrypted.
+   */
+  public RecordUploadBatcher(URI uri, AuthHeaderProvider authHeaderProvider, KeyBundle keyBundle) {
+    this(uri, authHeaderProvider, keyBundle, DEFAULT_MAX_POST_RECORDS, DEFAULT_MAX_POST_BYTES);
+  }
+
+  public RecordUploadBatcher(URI uri, AuthHeaderProvider authHeaderProvider, KeyBundle keyBundle,
+                             int maxPostRecords, int maxPostBytes) {
+    if (uri == null) {
+      throw new IllegalArgumentException("uri must not be null");
+    }
+    if (maxPostRecords < 1) {
+      throw new IllegalArgumentException("maxPostRecords must be positive");
+    }
+    if (maxPostBytes < 3) {
+      throw new IllegalArgumentException("maxPostBytes must be at least 3");
+    }
+    this.uri = uri;
+    this.authHeaderProvider = authHeaderProvider;
+    this.keyBundle = keyBundle;
+    this.maxPostRecords = maxPostRecords;
+    this.maxPostBytes = maxPostBytes;
+  }
+
+  public void setUserAgent(String userAgent) {
+    this.userAgent = userAgent;
+  }
+
+  /**
+   * Whether to gzip POST bodies. Off by default; see
+   * {@link BaseResource#setCompressRequestBodies(boolean)}.
+   */
+  public void setCompressRequestBodies(boolean compress) {
+    this.compressRequestBodies = compress;
+  }
+
+  /**
+   * Records up to <code>end</code>, encrypted and serialized into one POST
+   * body.
+   */
+  protected static class Batch {
+    public int end;
+    // Whether record end was encrypted here, but didn't fit.
+    public boolean endEncrypted;
+    public DigestingEntity entity;
+    public final ArrayList<String> guids = new ArrayList<String>();
+
+    // Records that failed before upload.
+    public final ArrayList<String> failedGuids = new ArrayList<String>();
+    public final ArrayList<Exception> failures = new ArrayList<Exception>();
+  }
+
+  /**
+   * Fill a batch from <code>records</code>, starting at <code>start</code>,
+   * until it hits a limit.
+   *
+   * @param startEncrypted
+   *          true if the record at <code>start</code> was encrypted by the
+   *          previous batch.
+   */
+  protected Batch prepare(List<CryptoRecord> records, int start, boolean startEncrypted) throws IOException {
+    final Batch batch = new Batch();
+    final ExposedByteArrayOutputStream body = new ExposedByteArrayOutputStream();
+    final ExposedByteArrayOutputStream record = new ExposedByteArrayOutputStream();
+    final Writer writer = new OutputStreamWriter(record, "UTF-8");
+    body.write('[');
+
+    int i = start;
+    for (; i < records.size() && batch.guids.size() < maxPostRecords; i++) {
+      final CryptoRecord r = records.get(i);
+      record.reset();
+      try {
+        if (keyBundle != null && !(i == start && startEncrypted)) {
+          r.keyBundle = keyBundle;
+          r.encrypt();
+        }
+        r.toJSONObject().writeJSONString(writer);
+        writer.flush();
+      } catch (Exception e) {
+        batch.failedGuids.add(r.guid);
+        batch.failures.add(e);
+        continue;
+      }
+
+      // Room for a separator and the closing bracket.
+      final int separator = batch.guids.isEmpty() ? 0 : 1;
+      if (2 + record.size() > maxPostBytes) {
+        batch.failedGuids.add(r.guid);
+        batch.failures.add(new RecordTooLargeException(record.size()));
+        continue;
+      }
+      if (body.size() + separator + record.size() + 1 > maxPostBytes) {
+        batch.endEncrypted = keyBundle != null;
+        break;
+      }
+      if (separator > 0) {
+        body.write(',');
+      }
+      body.write(record.getBuffer(), 0, record.size());
+      batch.guids.add(r.guid);
+    }
+    body.write(']');
+    batch.end = i;
+
+    if (!batch.guids.isEmpty()) {
+      final MessageDigest digest = DigestingEntity.newDigest(DigestingEntity.CONTENT_TYPE_JSON);
+      digest.update(body.getBuffer(), 0, body.size());
+      batch.entity = new DigestingEntity(body.getBuffer(), body.size(), DigestingEntity.CONTENT_TYPE_JSON,
+          DigestingEntity.finishDigest(digest));
+    }
+    return batch;
+  }
+
+  protected Future<Batch> prepareAsync(ExecutorService executor, final List<CryptoRecord> records,
+                                       final int start, final boolean startEncrypted) {
+    return executor.submit(new Callable<Batch>() {
+      @Override
+      public Batch call() throws Exception {
+        return prepare(records, start, startEncrypted);
+      }
+    });
+  }
+
+  /**
+   * Upload <code>records</code>, returning once every record has been
+   * reported to <code>delegate</code>. If a key bundle was given, records are
+   * encrypted in place.
+   *
+   * @throws IllegalArgumentException if a record is null, lacks a guid, or
+   *           shares its guid with another record.
+   */
+  public void upload(List<CryptoRecord> records, RecordUploadDelegate delegate) {
+    if (records == null) {
+      throw new IllegalArgumentException("records must not be null");
+    }
+    if (delegate == null) {
+      throw new IllegalArgumentException("delegate must not be null");
+    }
+    final HashSet<String> guids = new HashSet<String>(records.size() * 2);
+    for (CryptoRecord record : records) {
+      if (record == null || record.guid == null) {
+        throw new IllegalArgumentException("records must have guids");
+      }
+      // The server reports records by guid, so a duplicate couldn't be
+      // reported on its own.
+      if (!guids.add(record.guid)) {
+        throw new IllegalArgumentException("records must have distinct guids; " + record.guid + " repeats");
+      }
+    }
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor(
+        new InstrumentedExecutor.NamedThreadFactory(PREPARE_THREAD_NAME, true));
+    try {
+      upload(records, delegate, executor);
+    } finally {
+      executor.shutdownNow();
+    }
+    delegate.onUploadComplete();
+  }
+
+  protected void upload(List<CryptoRecord> records, RecordUploadDelegate delegate, ExecutorService executor) {
+    int start = 0;
+    Future<Batch> next = records.isEmpty() ? null : prepareAsync(executor, records, 0, false);
+    while (next != null) {
+      final Batch batch;
+      try {
+        batch = next.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failAll(records, start, e, delegate);
+        break;
+      } catch (ExecutionException e) {
+        final Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        failAll(records, start, cause, delegate);
+        break;
+      }
+      start = batch.end;
+      next = batch.end < records.size() ? prepareAsync(executor, records, batch.end, batch.endEncrypted) : null;
+
+      for (int i = 0; i < batch.failedGuids.size(); i++) {
+        delegate.onRecordFailed(batch.failedGuids.get(i), batch.failures.get(i));
+      }
+      if (batch.entity == null) {
+        continue;
+      }
+
+      Logger.debug(LOG_TAG, "Uploading " + batch.guids.size() + " records in " +
+          batch.entity.getContentLength() + " bytes.");
+      final Exception failure = post(batch, delegate);
+      if (failure != null) {
+        for (String guid : batch.guids) {
+          delegate.onRecordFailed(guid, failure);
+        }
+        if (next != null) {
+          // Let the next batch finish with the records before giving up.
+          try {
+            next.get();
+          } catch (Exception e) {
+            // Those records fail below either way.
+          }
+          next = null;
+        }
+        failAll(records, start, failure, delegate);
+      }
+    }
+  }
+
+  protected void failAll(List<CryptoRecord> records, int start, Exception e, RecordUploadDelegate delegate) {
+    for (int i = start; i < records.size(); i++) {
+      delegate.onRecordFailed(records.get(i).guid, e);
+    }
+  }
+
+  /**
+   * POST a batch and report its records.
+   *
+   * @return null if the POST succeeded; otherwise why it failed, with none of
+   *         the batch's records reported.
+   */
+  protected Exception post(Batch batch, RecordUploadDelegate delegate) {
+    final BaseResource resource = new BaseResource(uri);
+    final ExtendedJSONObject[] result = new ExtendedJSONObject[1];
+    final Exception[] failure = new Exception[1];
+    resource.delegate = new BaseResourceDelegate(resource) {
+      @Override
+      public AuthHeaderProvider getAuthHeaderProvider() {
+        return authHeaderProvider;
+      }
+
+      @Override
+      public String getUserAgent() {
+        return userAgent;
+      }
+
+      @Override
+      public void handleHttpResponse(HttpResponse response) {
+        final SyncStorageResponse storageResponse = new SyncStorageResponse(response);
+        try {
+          if (!storageResponse.wasSuccessful()) {
+            failure[0] = new HTTPFailureException(storageResponse);
+            return;
+          }
+          result[0] = storageResponse.jsonObjectBody();
+        } catch (Exception e) {
+          failure[0] = e;
+        } finally {
+          BaseResource.consumeEntity(response);
+        }
+      }
+
+      @Override
+      public void handleHttpProtocolException(ClientProtocolException e) {
+        failure[0] = e;
+      }
+
+      @Override
+      public void handleHttpIOException(IOException e) {
+        failure[0] = e;
+      }
+
+      @Override
+      public void handleTransportException(GeneralSecurityException e) {
+        failure[0] = e;
+      }
+    };
+    resource.setCompressRequestBodies(compressRequestBodies);
+    resource.postBlocking(batch.entity);
+    if (failure[0] != null) {
+      return failure[0];
+    }
+    processResponse(batch, result[0], delegate);
+    return null;
+  }
+
+  /**
+   * Report each record in <code>batch</code> from a successful response like
+   * <code>{"modified": 1234.56, "success": ["guid"], "failed": {"guid": ["reason"]}}</code>.
+   */
+  protected void processResponse(Batch batch, ExtendedJSONObject response, RecordUploadDelegate delegate) {
+    final HashSet<String> unreported = new HashSet<String>(batch.guids);
+
+    final Object success = response.get(KEY_SUCCESS);
+    if (success instanceof JSONArray) {
+      for (Object guid : (JSONArray) success) {
+        if (unreported.remove(guid)) {
+          delegate.onRecordStored((String) guid);
+        }
+      }
+    }
+    final Object failed = response.get(KEY_FAILED);
+    if (failed instanceof Map) {
+      for (Map.Entry<?, ?> e : ((Map<?, ?>) failed).entrySet()) {
+        if (unreported.remove(e.getKey())) {
+          final Object reasons = e.getValue();
+          final String reason = reasons instanceof JSONArray && ((JSONArray) reasons).size() == 1
+              ? String.valueOf(((JSONArray) reasons).get(0)) : String.valueOf(reasons);
+          delegate.onRecordFailed((String) e.getKey(), new RecordRejectedException(reason));
+        }
+      }
+    }
+    // Keep batch order for anything the server didn't mention.
+    for (String guid : batch.guids) {
+      if (unreported.contains(guid)) {
+        delegate.onRecordFailed(guid, new RecordRejectedException("Not acknowledged by server."));
+      }
+    }
+
+    final Object modified = response.get(KEY_MODIFIED);
+    if (modified instanceof Number || modified instanceof String) {
+      delegate.onBatchStored(Utils.decimalSecondsToMilliseconds(modified.toString()));
+    }
+  }
+}
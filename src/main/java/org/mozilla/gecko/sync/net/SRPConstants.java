@@ -6,6 +6,8 @@ package org.mozilla.gecko.sync.net;
 
 import java.math.BigInteger;
 
+import org.mozilla.gecko.sync.crypto.FixedBaseModPow;
+
 /**
  * SRP Group Parameters from
  * <a href="http://tools.ietf.org/html/rfc5054#appendix-A">Appendix A of RFC 5054</a>.
@@ -19,6 +21,13 @@ import java.math.BigInteger;
  * The 1024-bit and 1536-bit groups <b>MUST</b> be supported.
  */
 public class SRPConstants {
+  /**
+   * Exponents of at most this many bits are computed from precomputed power
+   * tables. This covers SHA-256-sized exponents, like the SRP verifier
+   * <tt>x</tt>; larger exponents fall back to <code>BigInteger.modPow</code>.
+   */
+  public static final int FIXED_BASE_EXPONENT_BITS = 256;
+
   public static class Parameters {
     public final BigInteger N;
     public final BigInteger g;
@@ -26,6 +35,9 @@ public class SRPConstants {
     public final int byteLength;
     public final int hexLength;
 
+    // Built lazily by <code>getFixedBaseModPow</code>; most groups are never used.
+    private volatile FixedBaseModPow fixedBaseModPow;
+
     protected Parameters(String N, long g) {
       if (N == null) {
         throw new IllegalArgumentException("N must not be null");
@@ -36,6 +48,58 @@ public class SRPConstants {
       this.byteLength = hexLength / 2;
       this.bitLength = this.byteLength * 8;
     }
+
+    /**
+     * @return fixed-base exponentiation engine for <code>g</code> modulo <code>N</code>.
+     */
+    public FixedBaseModPow getFixedBaseModPow() {
+      FixedBaseModPow engine = fixedBaseModPow;
+      if (engine == null) {
+        synchronized (this) {
+          engine = fixedBaseModPow;
+          if (engine == null) {
+            engine = new FixedBaseModPow(g, N, FIXED_BASE_EXPONENT_BITS);
+            fixedBaseModPow = engine;
+          }
+        }
+      }
+      return engine;
+    }
+
+    /**
+     * Compute <code>g^e mod N</code>.
+     */
+    public BigInteger gModPow(BigInteger e) {
+      return getFixedBaseModPow().modPow(e);
+    }
+  }
+
+  /**
+   * Compute <code>g^e mod N</code>, using precomputed tables if
+   * <code>g</code> and <code>N</code> are one of the known groups.
+   */
+  public static BigInteger modPow(BigInteger g, BigInteger e, BigInteger N) {
+    final Parameters params = getParameters(g, N);
+    if (params == null) {
+      return g.modPow(e, N);
+    }
+    return params.gModPow(e);
+  }
+
+  /**
+   * @return the known group with generator <code>g</code> and modulus
+   *         <code>N</code>, or null if there is no such group.
+   */
+  public static Parameters getParameters(BigInteger g, BigInteger N) {
+    if (g == null || N == null) {
+      return null;
+    }
+    for (Parameters params : new Parameters[] { _1024, _1536, _2048, _3072, _4096, _6144, _8192 }) {
+      if (params.N.equals(N) && params.g.equals(g)) {
+        return params;
+      }
+    }
+    return null;
   }
 
   public static final Parameters _1024 = new Parameters("" +
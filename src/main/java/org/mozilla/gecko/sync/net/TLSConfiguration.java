@@ -0,0 +1,130 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync.net;
+
+import java.security.KeyStore;
+
+/**
+ * TLS settings for {@link BaseResource} connections. Build one with
+ * {@link #custom()} and install it with
+ * {@link BaseResource#setTLSConfiguration(TLSConfiguration)}.
+ * <p>
+ * The session cache belongs to the shared <code>SSLContext</code>, which
+ * outlives connection managers: connections re-opened after idle eviction or
+ * {@link BaseResource#shutdownConnectionManager()} resume their TLS session
+ * rather than repeating the full handshake, as long as the session hasn't
+ * timed out.
+ */
+public class TLSConfiguration {
+  public static final int DEFAULT_SESSION_CACHE_SIZE = 100;
+  public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+
+  public static final TLSConfiguration DEFAULT = custom().build();
+
+  protected final int sessionCacheSize;
+  protected final int sessionTimeoutSeconds;
+  protected final String[] protocols;
+  protected final String[] cipherSuites;
+  protected final KeyStore trustStore;
+
+  protected TLSConfiguration(Builder builder) {
+    this.sessionCacheSize = builder.sessionCacheSize;
+    this.sessionTimeoutSeconds = builder.sessionTimeoutSeconds;
+    this.protocols = builder.protocols == null ? null : builder.protocols.clone();
+    this.cipherSuites = builder.cipherSuites == null ? null : builder.cipherSuites.clone();
+    this.trustStore = builder.trustStore;
+  }
+
+  public static Builder custom() {
+    return new Builder();
+  }
+
+  /**
+   * @return maximum number of cached client sessions; 0 means unlimited.
+   */
+  public int getSessionCacheSize() {
+    return sessionCacheSize;
+  }
+
+  /**
+   * @return seconds a cached session may be resumed for; 0 means no limit.
+   */
+  public int getSessionTimeoutSeconds() {
+    return sessionTimeoutSeconds;
+  }
+
+  /**
+   * @return protocols to enable, in preference order, or null for the platform defaults.
+   */
+  public String[] getProtocols() {
+    return protocols == null ? null : protocols.clone();
+  }
+
+  /**
+   * @return cipher suites to enable, in preference order, or null for the platform defaults.
+   */
+  public String[] getCipherSuites() {
+    return cipherSuites == null ? null : cipherSuites.clone();
+  }
+
+  /**
+   * @return trusted certificates, or null for the platform trust store.
+   */
+  public KeyStore getTrustStore() {
+    return trustStore;
+  }
+
+  public static class Builder {
+    protected int sessionCacheSize = DEFAULT_SESSION_CACHE_SIZE;
+    protected int sessionTimeoutSeconds = DEFAULT_SESSION_TIMEOUT_SECONDS;
+    protected String[] protocols;
+    protected String[] cipherSuites;
+    protected KeyStore trustStore;
+
+    protected Builder() {
+    }
+
+    public Builder setSessionCacheSize(int sessionCacheSize) {
+      if (sessionCacheSize < 0) {
+        throw new IllegalArgumentException("sessionCacheSize must not be negative");
+      }
+      this.sessionCacheSize = sessionCacheSize;
+      return this;
+    }
+
+    public Builder setSessionTimeoutSeconds(int sessionTimeoutSeconds) {
+      if (sessionTimeoutSeconds < 0) {
+        throw new IllegalArgumentException("sessionTimeoutSeconds must not be negative");
+      }
+      this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+      return this;
+    }
+
+    /**
+     * Protocols the platform doesn't support are skipped when connecting.
+     */
+    public Builder setProtocols(String... protocols) {
+      this.protocols = protocols;
+      return this;
+    }
+
+    /**
+     * Cipher suites the platform doesn't support are skipped when connecting.
+     */
+    public Builder setCipherSuites(String... cipherSuites) {
+      this.cipherSuites = cipherSuites;
+      return this;
+    }
+
+    public Builder setTrustStore(KeyStore trustStore) {
+      this.trustStore = trustStore;
+      return this;
+    }
+
+    public TLSConfiguration build() {
+      return new TLSConfiguration(this);
+    }
+  }
+}
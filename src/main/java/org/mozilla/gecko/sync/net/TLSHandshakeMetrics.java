@@ -0,0 +1,86 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and times the TLS handshakes made by {@link TLSSocketFactory}.
+ * Thread-safe.
+ */
+public class TLSHandshakeMetrics {
+  protected final AtomicLong handshakes = new AtomicLong();
+  protected final AtomicLong resumedHandshakes = new AtomicLong();
+  protected final AtomicLong failedHandshakes = new AtomicLong();
+  protected final AtomicLong totalNanos = new AtomicLong();
+  protected final AtomicLong resumedNanos = new AtomicLong();
+
+  public void recordHandshake(long nanos, boolean resumed) {
+    handshakes.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    if (resumed) {
+      resumedHandshakes.incrementAndGet();
+      resumedNanos.addAndGet(nanos);
+    }
+  }
+
+  public void recordFailure() {
+    failedHandshakes.incrementAndGet();
+  }
+
+  /**
+   * @return completed handshakes, full and resumed.
+   */
+  public long getHandshakes() {
+    return handshakes.get();
+  }
+
+  public long getResumedHandshakes() {
+    return resumedHandshakes.get();
+  }
+
+  public long getFailedHandshakes() {
+    return failedHandshakes.get();
+  }
+
+  public long getTotalHandshakeNanos() {
+    return totalNanos.get();
+  }
+
+  /**
+   * @return mean duration of full handshakes, in milliseconds, or 0 if there were none.
+   */
+  public double getMeanFullHandshakeMillis() {
+    return mean(totalNanos.get() - resumedNanos.get(), handshakes.get() - resumedHandshakes.get());
+  }
+
+  /**
+   * @return mean duration of resumed handshakes, in milliseconds, or 0 if there were none.
+   */
+  public double getMeanResumedHandshakeMillis() {
+    return mean(resumedNanos.get(), resumedHandshakes.get());
+  }
+
+  protected static double mean(long nanos, long count) {
+    return count <= 0 ? 0 : nanos / (count * 1000000.0);
+  }
+
+  public void reset() {
+    handshakes.set(0);
+    resumedHandshakes.set(0);
+    failedHandshakes.set(0);
+    totalNanos.set(0);
+    resumedNanos.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return "TLSHandshakeMetrics[handshakes=" + getHandshakes() +
+           ", resumed=" + getResumedHandshakes() +
+           ", failed=" + getFailedHandshakes() +
+           ", meanFullMillis=" + getMeanFullHandshakeMillis() +
+           ", meanResumedMillis=" + getMeanResumedHandshakeMillis() + "]";
+  }
+}
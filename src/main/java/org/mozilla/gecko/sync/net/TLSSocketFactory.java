@@ -0,0 +1,111 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.gecko.sync.net;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+import org.mozilla.gecko.background.common.log.Logger;
+
+/**
+ * An <code>SSLConnectionSocketFactory</code> that applies a
+ * {@link TLSConfiguration}'s protocols and cipher suites, and records
+ * handshake timings in a {@link TLSHandshakeMetrics}.
+ */
+public class TLSSocketFactory extends SSLConnectionSocketFactory {
+  private static final String LOG_TAG = "TLSSocketFactory";
+
+  protected final TLSConfiguration configuration;
+  protected final TLSHandshakeMetrics metrics;
+
+  public TLSSocketFactory(SSLContext sslContext, TLSConfiguration configuration, TLSHandshakeMetrics metrics) {
+    super(sslContext, BROWSER_COMPATIBLE_HOSTNAME_VERIFIER);
+    if (configuration == null) {
+      throw new IllegalArgumentException("configuration must not be null");
+    }
+    if (metrics == null) {
+      throw new IllegalArgumentException("metrics must not be null");
+    }
+    this.configuration = configuration;
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return the entries of <code>wanted</code> that are in
+   *         <code>supported</code>, in the order given by <code>wanted</code>.
+   */
+  public static String[] select(String[] wanted, String[] supported) {
+    final Set<String> available = new HashSet<String>(Arrays.asList(supported));
+    final List<String> selected = new ArrayList<String>(wanted.length);
+    for (String name : wanted) {
+      if (available.contains(name)) {
+        selected.add(name);
+      }
+    }
+    return selected.toArray(new String[selected.size()]);
+  }
+
+  @Override
+  protected void prepareSocket(SSLSocket socket) throws IOException {
+    final String[] protocols = configuration.protocols;
+    if (protocols != null) {
+      final String[] enabled = select(protocols, socket.getSupportedProtocols());
+      if (enabled.length == 0) {
+        throw new SSLException("None of the configured TLS protocols are supported: " + Arrays.toString(protocols));
+      }
+      socket.setEnabledProtocols(enabled);
+    }
+    final String[] cipherSuites = configuration.cipherSuites;
+    if (cipherSuites != null) {
+      final String[] enabled = select(cipherSuites, socket.getSupportedCipherSuites());
+      if (enabled.length == 0) {
+        throw new SSLException("None of the configured cipher suites are supported.");
+      }
+      socket.setEnabledCipherSuites(enabled);
+    }
+  }
+
+  /**
+   * A handshake resumed a cached session if that session is older than the
+   * handshake. This holds for TLS 1.2 session IDs and TLS 1.3 tickets alike.
+   */
+  protected static boolean isResumed(SSLSession session, long handshakeStartMillis) {
+    return session.getCreationTime() < handshakeStartMillis;
+  }
+
+  @Override
+  public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+    final long startMillis = System.currentTimeMillis();
+    final long start = System.nanoTime();
+    final Socket layered;
+    try {
+      layered = super.createLayeredSocket(socket, target, port, context);
+    } catch (IOException e) {
+      metrics.recordFailure();
+      throw e;
+    }
+    final long elapsed = System.nanoTime() - start;
+    final SSLSession session = ((SSLSocket) layered).getSession();
+    final boolean resumed = isResumed(session, startMillis);
+    metrics.recordHandshake(elapsed, resumed);
+    if (Logger.isDebugEnabled(LOG_TAG)) {
+      Logger.debug(LOG_TAG, "%s handshake with %s:%d (%s, %s) took %d ms.",
+          resumed ? "Resumed" : "Full", target, port, session.getProtocol(), session.getCipherSuite(), elapsed / 1000000);
+    }
+    return layered;
+  }
+}
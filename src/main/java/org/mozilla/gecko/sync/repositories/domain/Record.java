@@ -209,7 +209,12 @@ public abstract class Record {
   protected abstract void initFromPayload(ExtendedJSONObject payload);
 
   public void initFromEnvelope(CryptoRecord envelope) {
-    ExtendedJSONObject p = envelope.payload;
+    ExtendedJSONObject p;
+    try {
+      p = envelope.getPayload();
+    } catch (Exception e) {
+      throw new IllegalStateException("Envelope payload could not be parsed.", e);
+    }
     this.guid = envelope.guid;
     checkGUIDs(p);
 
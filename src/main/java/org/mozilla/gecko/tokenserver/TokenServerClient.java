@@ -127,7 +127,7 @@ public class TokenServerClient {
   public TokenServerToken processResponse(SyncResponse res) throws TokenServerException {
     int statusCode = res.getStatusCode();
 
-    Logger.debug(LOG_TAG, "Got token response with status code " + statusCode + ".");
+    Logger.debug(LOG_TAG, "Got token response with status code %d.", statusCode);
 
     // Responses should *always* be JSON, even in the case of 4xx and 5xx
     // errors. If we don't see JSON, the server is likely very unhappy.
@@ -220,7 +220,7 @@ public class TokenServerClient {
 
     TokenServerToken token = fromJSONObject(result);
 
-    Logger.debug(LOG_TAG, "Successful token response: " + token.id);
+    Logger.debug(LOG_TAG, "Successful token response: %s", token.id);
 
     return token;
   }
@@ -313,7 +313,7 @@ public class TokenServerClient {
                                              final String clientState,
                                              final TokenServerClientDelegate delegate) {
 	Logger.debug(LOG_TAG, "getTokenFromBrowserIDAssertion()");
-	Logger.debug(LOG_TAG, String.format("BaseResource.rewrite: %s", BaseResource.rewriteLocalhost));
+	Logger.debug(LOG_TAG, "BaseResource.rewrite: %s", BaseResource.rewriteLocalhost);
 
     final BaseResource resource = new BaseResource(this.uri);
     resource.delegate = new TokenFetchResourceDelegate(this, resource, delegate,
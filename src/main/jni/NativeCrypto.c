@@ -0,0 +1,277 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+/*
+ * JNI implementation of org.mozilla.gecko.background.nativecode.NativeCrypto
+ * on top of OpenSSL's libcrypto.
+ */
+
+#include <jni.h>
+#include <stdlib.h>
+
+#include <openssl/evp.h>
+#include <openssl/hmac.h>
+#include <openssl/sha.h>
+
+#define AES_BLOCK_LENGTH 16
+
+static void throwNew(JNIEnv *env, const char *className, const char *message) {
+  jclass cls = (*env)->FindClass(env, className);
+  if (cls != NULL) {
+    (*env)->ThrowNew(env, cls, message);
+    (*env)->DeleteLocalRef(env, cls);
+  }
+}
+
+static jbyteArray newByteArray(JNIEnv *env, const unsigned char *bytes, int length) {
+  jbyteArray out = (*env)->NewByteArray(env, length);
+  if (out != NULL) {
+    (*env)->SetByteArrayRegion(env, out, 0, length, (const jbyte *) bytes);
+  }
+  return out;
+}
+
+/*
+ * Copy a Java byte array into a new C buffer, which the caller frees. Empty
+ * arrays get a one-byte buffer so the result is never NULL on success.
+ */
+static unsigned char *copyByteArray(JNIEnv *env, jbyteArray array, jsize *length) {
+  unsigned char *buffer;
+  *length = (*env)->GetArrayLength(env, array);
+  buffer = malloc(*length > 0 ? *length : 1);
+  if (buffer == NULL) {
+    throwNew(env, "java/lang/OutOfMemoryError", "Native buffer allocation failed.");
+    return NULL;
+  }
+  (*env)->GetByteArrayRegion(env, array, 0, *length, (jbyte *) buffer);
+  return buffer;
+}
+
+static void freeSecret(unsigned char *buffer, jsize length) {
+  if (buffer != NULL) {
+    OPENSSL_cleanse(buffer, length);
+    free(buffer);
+  }
+}
+
+static jbyteArray digest(JNIEnv *env, jbyteArray in, const EVP_MD *md) {
+  unsigned char out[EVP_MAX_MD_SIZE];
+  unsigned int outLength = 0;
+  jsize length;
+  unsigned char *bytes;
+  int ok;
+
+  if (in == NULL) {
+    throwNew(env, "java/lang/NullPointerException", "in must not be null");
+    return NULL;
+  }
+  bytes = copyByteArray(env, in, &length);
+  if (bytes == NULL) {
+    return NULL;
+  }
+  ok = EVP_Digest(bytes, length, out, &outLength, md, NULL);
+  free(bytes);
+  if (!ok) {
+    throwNew(env, "java/lang/IllegalStateException", "Digest failed.");
+    return NULL;
+  }
+  return newByteArray(env, out, outLength);
+}
+
+JNIEXPORT jbyteArray JNICALL
+Java_org_mozilla_gecko_background_nativecode_NativeCrypto_sha1(JNIEnv *env, jclass cls, jbyteArray in) {
+  return digest(env, in, EVP_sha1());
+}
+
+JNIEXPORT jbyteArray JNICALL
+Java_org_mozilla_gecko_background_nativecode_NativeCrypto_sha256(JNIEnv *env, jclass cls, jbyteArray in) {
+  return digest(env, in, EVP_sha256());
+}
+
+JNIEXPORT jbyteArray JNICALL
+Java_org_mozilla_gecko_background_nativecode_NativeCrypto_pbkdf2SHA256(JNIEnv *env, jclass cls,
+    jbyteArray password, jbyteArray salt, jint c, jint dkLen) {
+  jsize passwordLength, saltLength;
+  unsigned char *passwordBytes, *saltBytes, *out;
+  jbyteArray result = NULL;
+
+  if (password == NULL || salt == NULL) {
+    throwNew(env, "java/lang/NullPointerException", "password and salt must not be null");
+    return NULL;
+  }
+  if (c <= 0 || dkLen <= 0) {
+    throwNew(env, "java/security/GeneralSecurityException", "Iteration count and key length must be positive.");
+    return NULL;
+  }
+  passwordBytes = copyByteArray(env, password, &passwordLength);
+  if (passwordBytes == NULL) {
+    return NULL;
+  }
+  saltBytes = copyByteArray(env, salt, &saltLength);
+  out = malloc(dkLen);
+  if (saltBytes == NULL || out == NULL) {
+    freeSecret(passwordBytes, passwordLength);
+    free(saltBytes);
+    free(out);
+    if (!(*env)->ExceptionCheck(env)) {
+      throwNew(env, "java/lang/OutOfMemoryError", "Native buffer allocation failed.");
+    }
+    return NULL;
+  }
+
+  if (PKCS5_PBKDF2_HMAC((const char *) passwordBytes, passwordLength, saltBytes, saltLength,
+                        c, EVP_sha256(), dkLen, out)) {
+    result = newByteArray(env, out, dkLen);
+  } else {
+    throwNew(env, "java/security/GeneralSecurityException", "PBKDF2 failed.");
+  }
+
+  freeSecret(passwordBytes, passwordLength);
+  free(saltBytes);
+  freeSecret(out, dkLen);
+  return result;
+}
+
+JNIEXPORT void JNICALL
+Java_org_mozilla_gecko_background_nativecode_NativeCrypto_hmacSHA256(JNIEnv *env, jclass cls,
+    jbyteArray key, jbyteArray data, jint offset, jint length, jbyteArray out, jint outOffset) {
+  unsigned char mac[SHA256_DIGEST_LENGTH];
+  unsigned int macLength = 0;
+  jsize keyLength;
+  unsigned char *keyBytes;
+  jbyte *dataBytes;
+  unsigned char *result;
+
+  if (key == NULL || data == NULL || out == NULL) {
+    throwNew(env, "java/lang/NullPointerException", "key, data and out must not be null");
+    return;
+  }
+  if (offset < 0 || length < 0 || offset > (*env)->GetArrayLength(env, data) - length ||
+      outOffset < 0 || outOffset > (*env)->GetArrayLength(env, out) - SHA256_DIGEST_LENGTH) {
+    throwNew(env, "java/lang/ArrayIndexOutOfBoundsException", "HMAC input or output out of bounds.");
+    return;
+  }
+
+  keyBytes = copyByteArray(env, key, &keyLength);
+  if (keyBytes == NULL) {
+    return;
+  }
+  dataBytes = (*env)->GetPrimitiveArrayCritical(env, data, NULL);
+  if (dataBytes == NULL) {
+    freeSecret(keyBytes, keyLength);
+    return;
+  }
+  result = HMAC(EVP_sha256(), keyBytes, keyLength,
+                (const unsigned char *) dataBytes + offset, length, mac, &macLength);
+  (*env)->ReleasePrimitiveArrayCritical(env, data, dataBytes, JNI_ABORT);
+  freeSecret(keyBytes, keyLength);
+
+  if (result == NULL) {
+    throwNew(env, "java/lang/IllegalStateException", "HMAC failed.");
+    return;
+  }
+  (*env)->SetByteArrayRegion(env, out, outOffset, macLength, (const jbyte *) mac);
+  OPENSSL_cleanse(mac, sizeof(mac));
+}
+
+static const EVP_CIPHER *aesCBC(jsize keyLength) {
+  switch (keyLength) {
+  case 16:
+    return EVP_aes_128_cbc();
+  case 24:
+    return EVP_aes_192_cbc();
+  case 32:
+    return EVP_aes_256_cbc();
+  default:
+    return NULL;
+  }
+}
+
+static jbyteArray aesCBCCrypt(JNIEnv *env, jbyteArray key, jbyteArray iv, jbyteArray in, int encrypt) {
+  const EVP_CIPHER *cipher;
+  EVP_CIPHER_CTX *ctx = NULL;
+  jsize keyLength = 0, ivLength = 0, inLength = 0;
+  unsigned char *keyBytes = NULL, *ivBytes = NULL, *inBytes = NULL, *outBytes = NULL;
+  int outLength = 0, finalLength = 0;
+  jbyteArray result = NULL;
+
+  if (key == NULL || iv == NULL || in == NULL) {
+    throwNew(env, "java/lang/NullPointerException", "key, iv and input must not be null");
+    return NULL;
+  }
+  cipher = aesCBC((*env)->GetArrayLength(env, key));
+  if (cipher == NULL) {
+    throwNew(env, "java/security/InvalidKeyException", "AES keys must be 16, 24 or 32 bytes.");
+    return NULL;
+  }
+  if ((*env)->GetArrayLength(env, iv) != AES_BLOCK_LENGTH) {
+    throwNew(env, "java/security/InvalidAlgorithmParameterException", "AES-CBC IVs must be 16 bytes.");
+    return NULL;
+  }
+
+  keyBytes = copyByteArray(env, key, &keyLength);
+  if (keyBytes == NULL) {
+    goto done;
+  }
+  ivBytes = copyByteArray(env, iv, &ivLength);
+  if (ivBytes == NULL) {
+    goto done;
+  }
+  inBytes = copyByteArray(env, in, &inLength);
+  if (inBytes == NULL) {
+    goto done;
+  }
+  if (!encrypt && (inLength == 0 || inLength % AES_BLOCK_LENGTH != 0)) {
+    throwNew(env, "javax/crypto/IllegalBlockSizeException", "Ciphertext length must be a positive multiple of 16.");
+    goto done;
+  }
+  outBytes = malloc(inLength + AES_BLOCK_LENGTH);
+  ctx = EVP_CIPHER_CTX_new();
+  if (outBytes == NULL || ctx == NULL) {
+    throwNew(env, "java/lang/OutOfMemoryError", "Native buffer allocation failed.");
+    goto done;
+  }
+
+  if (!EVP_CipherInit_ex(ctx, cipher, NULL, keyBytes, ivBytes, encrypt) ||
+      !EVP_CipherUpdate(ctx, outBytes, &outLength, inBytes, inLength)) {
+    throwNew(env, "java/security/GeneralSecurityException", "AES-CBC failed.");
+    goto done;
+  }
+  if (!EVP_CipherFinal_ex(ctx, outBytes + outLength, &finalLength)) {
+    if (encrypt) {
+      throwNew(env, "java/security/GeneralSecurityException", "AES-CBC failed.");
+    } else {
+      throwNew(env, "javax/crypto/BadPaddingException", "Invalid padding.");
+    }
+    goto done;
+  }
+  result = newByteArray(env, outBytes, outLength + finalLength);
+
+done:
+  if (ctx != NULL) {
+    EVP_CIPHER_CTX_free(ctx);
+  }
+  freeSecret(keyBytes, keyLength);
+  free(ivBytes);
+  if (encrypt) {
+    freeSecret(inBytes, inLength);
+    free(outBytes);
+  } else {
+    free(inBytes);
+    freeSecret(outBytes, inLength + AES_BLOCK_LENGTH);
+  }
+  return result;
+}
+
+JNIEXPORT jbyteArray JNICALL
+Java_org_mozilla_gecko_background_nativecode_NativeCrypto_aesCBCEncrypt(JNIEnv *env, jclass cls,
+    jbyteArray key, jbyteArray iv, jbyteArray plaintext) {
+  return aesCBCCrypt(env, key, iv, plaintext, 1);
+}
+
+JNIEXPORT jbyteArray JNICALL
+Java_org_mozilla_gecko_background_nativecode_NativeCrypto_aesCBCDecrypt(JNIEnv *env, jclass cls,
+    jbyteArray key, jbyteArray iv, jbyteArray ciphertext) {
+  return aesCBCCrypt(env, key, iv, ciphertext, 0);
+}
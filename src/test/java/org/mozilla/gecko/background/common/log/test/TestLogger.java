@@ -0,0 +1,59 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.background.common.log.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mozilla.gecko.background.common.log.Logger;
+
+public class TestLogger {
+  protected static class CountingArg {
+    public int count = 0;
+
+    @Override
+    public String toString() {
+      count++;
+      return "arg";
+    }
+  }
+
+  @Test
+  public void testInstancesAreCached() {
+    Assert.assertSame(Logger.getInstance("TestLogger.cached"), Logger.getInstance("TestLogger.cached"));
+    Assert.assertNotSame(Logger.getInstance("TestLogger.cached"), Logger.getInstance("TestLogger.other"));
+  }
+
+  @Test
+  public void testSetLogLevelUpdatesCachedInstance() {
+    final String tag = "TestLogger.level";
+    Logger.setLogLevel(tag, "warn");
+    Assert.assertFalse(Logger.isDebugEnabled(tag));
+    Assert.assertTrue(Logger.isWarnEnabled(tag));
+
+    Logger.setLogLevel(tag, "debug");
+    Assert.assertTrue(Logger.isDebugEnabled(tag));
+    Assert.assertFalse(Logger.isTraceEnabled(tag));
+
+    Logger.setLogLevel(tag, "off");
+    Assert.assertFalse(Logger.isWarnEnabled(tag));
+  }
+
+  @Test
+  public void testFormatIsLazy() {
+    final String tag = "TestLogger.lazy";
+    final CountingArg arg = new CountingArg();
+    Logger.setLogLevel(tag, "off");
+    Logger.trace(tag, "value %s", arg);
+    Logger.debug(tag, "value %s", arg);
+    Logger.info(tag, "value %s", arg);
+    Logger.warn(tag, "value %s", arg);
+    Assert.assertEquals(0, arg.count);
+
+    Logger.setLogLevel(tag, "info");
+    Logger.debug(tag, "value %s", arg);
+    Assert.assertEquals(0, arg.count);
+    Logger.info(tag, "value %s", arg);
+    Assert.assertEquals(1, arg.count);
+  }
+}
@@ -0,0 +1,252 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.background.fxa.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.gecko.background.fxa.CoalescingFxAccountClient;
+import org.mozilla.gecko.background.fxa.FxAccountClient;
+import org.mozilla.gecko.background.fxa.FxAccountClient10.RequestDelegate;
+import org.mozilla.gecko.background.fxa.FxAccountClient10.StatusResponse;
+import org.mozilla.gecko.background.fxa.FxAccountClient10.TwoKeys;
+import org.mozilla.gecko.background.fxa.FxAccountClient20.LoginResponse;
+import org.mozilla.gecko.background.fxa.FxAccountClientException.FxAccountClientRemoteException;
+import org.mozilla.gecko.background.fxa.PasswordStretcher;
+import org.mozilla.gecko.sync.ExtendedJSONObject;
+
+public class TestCoalescingFxAccountClient {
+  protected static final byte[] TOKEN_A = new byte[] { 1, 2, 3, 4 };
+  protected static final byte[] TOKEN_B = new byte[] { 5, 6, 7, 8 };
+
+  /**
+   * Records status and keys calls; tests complete them by hand.
+   */
+  protected static class StubClient implements FxAccountClient {
+    public final List<RequestDelegate<StatusResponse>> statusCalls = new ArrayList<RequestDelegate<StatusResponse>>();
+    public final List<RequestDelegate<TwoKeys>> keysCalls = new ArrayList<RequestDelegate<TwoKeys>>();
+    public RuntimeException toThrow;
+
+    @Override
+    public void status(byte[] sessionToken, RequestDelegate<StatusResponse> requestDelegate) {
+      statusCalls.add(requestDelegate);
+      if (toThrow != null) {
+        throw toThrow;
+      }
+    }
+
+    @Override
+    public void keys(byte[] keyFetchToken, RequestDelegate<TwoKeys> requestDelegate) {
+      keysCalls.add(requestDelegate);
+      if (toThrow != null) {
+        throw toThrow;
+      }
+    }
+
+    @Override
+    public void createAccountAndGetKeys(byte[] emailUTF8, PasswordStretcher passwordStretcher, Map<String, String> queryParameters, RequestDelegate<LoginResponse> delegate) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void loginAndGetKeys(byte[] emailUTF8, PasswordStretcher passwordStretcher, Map<String, String> queryParameters, RequestDelegate<LoginResponse> requestDelegate) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sign(byte[] sessionToken, ExtendedJSONObject publicKey, long certificateDurationInMilliseconds, RequestDelegate<String> requestDelegate) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void resendCode(byte[] sessionToken, RequestDelegate<Void> delegate) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void resendUnlockCode(byte[] emailUTF8, RequestDelegate<Void> delegate) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  protected static class ResultDelegate<T> implements RequestDelegate<T> {
+    public T result;
+    public Exception error;
+    public FxAccountClientRemoteException failure;
+    public int calls;
+
+    @Override
+    public void handleSuccess(T result) {
+      this.result = result;
+      calls++;
+    }
+
+    @Override
+    public void handleFailure(FxAccountClientRemoteException e) {
+      this.failure = e;
+      calls++;
+    }
+
+    @Override
+    public void handleError(Exception e) {
+      this.error = e;
+      calls++;
+    }
+  }
+
+  protected StubClient stub;
+  protected CoalescingFxAccountClient client;
+
+  @Before
+  public void setUp() {
+    stub = new StubClient();
+    client = new CoalescingFxAccountClient(stub);
+  }
+
+  @Test
+  public void testConcurrentStatusShareOneRequest() {
+    final List<ResultDelegate<StatusResponse>> delegates = new ArrayList<ResultDelegate<StatusResponse>>();
+    for (int i = 0; i < 5; i++) {
+      final ResultDelegate<StatusResponse> delegate = new ResultDelegate<StatusResponse>();
+      delegates.add(delegate);
+      client.status(TOKEN_A.clone(), delegate);
+    }
+    Assert.assertEquals(1, stub.statusCalls.size());
+    Assert.assertEquals(4, client.getCoalescedCount());
+
+    final StatusResponse response = new StatusResponse("test@example.com", true);
+    stub.statusCalls.get(0).handleSuccess(response);
+    for (ResultDelegate<StatusResponse> delegate : delegates) {
+      Assert.assertEquals(1, delegate.calls);
+      Assert.assertSame(response, delegate.result);
+    }
+  }
+
+  @Test
+  public void testDifferentTokensAndEndpointsNotShared() {
+    client.status(TOKEN_A, new ResultDelegate<StatusResponse>());
+    client.status(TOKEN_B, new ResultDelegate<StatusResponse>());
+    client.keys(TOKEN_A, new ResultDelegate<TwoKeys>());
+    Assert.assertEquals(2, stub.statusCalls.size());
+    Assert.assertEquals(1, stub.keysCalls.size());
+    Assert.assertEquals(0, client.getCoalescedCount());
+  }
+
+  @Test
+  public void testNewRequestAfterCompletion() {
+    final ResultDelegate<StatusResponse> first = new ResultDelegate<StatusResponse>();
+    client.status(TOKEN_A, first);
+    stub.statusCalls.get(0).handleSuccess(new StatusResponse("test@example.com", false));
+
+    final ResultDelegate<StatusResponse> second = new ResultDelegate<StatusResponse>();
+    client.status(TOKEN_A, second);
+    Assert.assertEquals(2, stub.statusCalls.size());
+    Assert.assertEquals(0, second.calls);
+    Assert.assertEquals(1, first.calls);
+  }
+
+  @Test
+  public void testFailureAndErrorFanOut() {
+    final ResultDelegate<StatusResponse> a = new ResultDelegate<StatusResponse>();
+    final ResultDelegate<StatusResponse> b = new ResultDelegate<StatusResponse>();
+    client.status(TOKEN_A, a);
+    client.status(TOKEN_A, b);
+    final HttpResponse response = new BasicHttpResponse(new ProtocolVersion("HTTP", 1, 1), 401, "Unauthorized");
+    final FxAccountClientRemoteException failure = new FxAccountClientRemoteException(response, 401, 110, "Unauthorized", "Invalid token", null, new ExtendedJSONObject());
+    stub.statusCalls.get(0).handleFailure(failure);
+    Assert.assertSame(failure, a.failure);
+    Assert.assertSame(failure, b.failure);
+
+    final ResultDelegate<TwoKeys> c = new ResultDelegate<TwoKeys>();
+    final ResultDelegate<TwoKeys> d = new ResultDelegate<TwoKeys>();
+    client.keys(TOKEN_A, c);
+    client.keys(TOKEN_A, d);
+    final Exception error = new Exception("boom");
+    stub.keysCalls.get(0).handleError(error);
+    Assert.assertSame(error, c.error);
+    Assert.assertSame(error, d.error);
+  }
+
+  @Test
+  public void testThrowingDelegateDoesNotStarveOthers() {
+    client.status(TOKEN_A, new ResultDelegate<StatusResponse>() {
+      @Override
+      public void handleSuccess(StatusResponse result) {
+        throw new IllegalStateException("delegate failed");
+      }
+    });
+    final ResultDelegate<StatusResponse> other = new ResultDelegate<StatusResponse>();
+    client.status(TOKEN_A, other);
+    stub.statusCalls.get(0).handleSuccess(new StatusResponse("test@example.com", true));
+    Assert.assertEquals(1, other.calls);
+  }
+
+  @Test
+  public void testKeysCopiedPerDelegate() {
+    final ResultDelegate<TwoKeys> a = new ResultDelegate<TwoKeys>();
+    final ResultDelegate<TwoKeys> b = new ResultDelegate<TwoKeys>();
+    client.keys(TOKEN_A, a);
+    client.keys(TOKEN_A, b);
+    stub.keysCalls.get(0).handleSuccess(new TwoKeys(new byte[] { 1, 1 }, new byte[] { 2, 2 }));
+
+    Assert.assertNotSame(a.result.kA, b.result.kA);
+    Assert.assertArrayEquals(a.result.kA, b.result.kA);
+    Assert.assertArrayEquals(a.result.wrapkB, b.result.wrapkB);
+    a.result.kA[0] = 9;
+    Assert.assertEquals(1, b.result.kA[0]);
+  }
+
+  @Test
+  public void testThrowingClientFailsWaitersAndClearsEntry() {
+    stub.toThrow = new RejectedExecutionException("pool full");
+    final ResultDelegate<StatusResponse> a = new ResultDelegate<StatusResponse>();
+    client.status(TOKEN_A, a);
+    Assert.assertEquals(1, a.calls);
+    Assert.assertSame(stub.toThrow, a.error);
+
+    final ResultDelegate<TwoKeys> b = new ResultDelegate<TwoKeys>();
+    client.keys(TOKEN_A, b);
+    Assert.assertEquals(1, b.calls);
+    Assert.assertSame(stub.toThrow, b.error);
+
+    // Neither entry is left behind for later callers to join.
+    stub.toThrow = null;
+    final ResultDelegate<StatusResponse> c = new ResultDelegate<StatusResponse>();
+    client.status(TOKEN_A, c);
+    Assert.assertEquals(2, stub.statusCalls.size());
+    stub.statusCalls.get(1).handleSuccess(new StatusResponse("test@example.com", true));
+    Assert.assertEquals(1, c.calls);
+
+    final ResultDelegate<TwoKeys> d = new ResultDelegate<TwoKeys>();
+    client.keys(TOKEN_A, d);
+    Assert.assertEquals(2, stub.keysCalls.size());
+    Assert.assertEquals(0, client.getCoalescedCount());
+  }
+
+  @Test
+  public void testCompletionAfterThrowIsIgnored() {
+    stub.toThrow = new IllegalStateException("late");
+    final ResultDelegate<StatusResponse> a = new ResultDelegate<StatusResponse>();
+    client.status(TOKEN_A, a);
+    Assert.assertEquals(1, a.calls);
+
+    // A new request for the same token is not completed by the old one.
+    stub.toThrow = null;
+    final ResultDelegate<StatusResponse> b = new ResultDelegate<StatusResponse>();
+    client.status(TOKEN_A, b);
+    stub.statusCalls.get(0).handleSuccess(new StatusResponse("test@example.com", true));
+    Assert.assertEquals(1, a.calls);
+    Assert.assertEquals(0, b.calls);
+    stub.statusCalls.get(1).handleSuccess(new StatusResponse("test@example.com", true));
+    Assert.assertEquals(1, b.calls);
+  }
+}
@@ -0,0 +1,134 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.background.nativecode.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.mozilla.gecko.background.nativecode.NativeCrypto;
+
+/**
+ * Compare the native implementations with the platform's. Each test is
+ * skipped unless the native library providing it is on
+ * <code>java.library.path</code>; see <code>src/main/jni/Makefile</code>.
+ */
+public class TestNativeCrypto {
+  protected final Random random = new Random(1);
+
+  protected byte[] randomBytes(int length) {
+    final byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void testDigests() throws Exception {
+    Assume.assumeTrue(NativeCrypto.hasSHA1() && NativeCrypto.hasSHA256());
+    for (int length : new int[] { 0, 1, 55, 56, 64, 1000 }) {
+      final byte[] in = randomBytes(length);
+      assertArrayEquals(MessageDigest.getInstance("SHA-1").digest(in), NativeCrypto.sha1(in));
+      assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(in), NativeCrypto.sha256(in));
+    }
+  }
+
+  @Test
+  public void testHMAC() throws Exception {
+    Assume.assumeTrue(NativeCrypto.hasAESAndHMAC());
+    for (int keyLength : new int[] { 1, 32, 64, 100 }) {
+      final byte[] key = randomBytes(keyLength);
+      final byte[] data = randomBytes(300);
+      final Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(key, "HmacSHA256"));
+      mac.update(data, 7, 250);
+      final byte[] expected = mac.doFinal();
+
+      final byte[] out = new byte[40];
+      NativeCrypto.hmacSHA256(key, data, 7, 250, out, 3);
+      final byte[] actual = new byte[32];
+      System.arraycopy(out, 3, actual, 0, 32);
+      assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test(expected=ArrayIndexOutOfBoundsException.class)
+  public void testHMACOutOfBounds() {
+    Assume.assumeTrue(NativeCrypto.hasAESAndHMAC());
+    NativeCrypto.hmacSHA256(new byte[32], new byte[10], 5, 6, new byte[32], 0);
+  }
+
+  @Test
+  public void testAESCBC() throws Exception {
+    Assume.assumeTrue(NativeCrypto.hasAESAndHMAC());
+    for (int keyLength : new int[] { 16, 32 }) {
+      for (int length : new int[] { 0, 1, 15, 16, 17, 1000 }) {
+        final byte[] key = randomBytes(keyLength);
+        final byte[] iv = randomBytes(16);
+        final byte[] plaintext = randomBytes(length);
+        final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        final byte[] expected = cipher.doFinal(plaintext);
+
+        final byte[] ciphertext = NativeCrypto.aesCBCEncrypt(key, iv, plaintext);
+        assertArrayEquals(expected, ciphertext);
+        assertArrayEquals(plaintext, NativeCrypto.aesCBCDecrypt(key, iv, ciphertext));
+      }
+    }
+  }
+
+  @Test
+  public void testAESCBCErrors() throws Exception {
+    Assume.assumeTrue(NativeCrypto.hasAESAndHMAC());
+    final byte[] key = randomBytes(32);
+    final byte[] iv = randomBytes(16);
+    try {
+      NativeCrypto.aesCBCEncrypt(new byte[17], iv, new byte[1]);
+      fail("Expected InvalidKeyException.");
+    } catch (InvalidKeyException e) {
+      // Expected.
+    }
+    try {
+      NativeCrypto.aesCBCEncrypt(key, new byte[8], new byte[1]);
+      fail("Expected GeneralSecurityException.");
+    } catch (GeneralSecurityException e) {
+      // Expected.
+    }
+    final byte[] ciphertext = NativeCrypto.aesCBCEncrypt(key, iv, randomBytes(20));
+    ciphertext[ciphertext.length - 1] ^= 1;
+    try {
+      NativeCrypto.aesCBCDecrypt(key, iv, ciphertext);
+      fail("Expected BadPaddingException.");
+    } catch (BadPaddingException e) {
+      // Expected. The last block's padding is almost certainly garbage now.
+    }
+  }
+
+  @Test
+  public void testPBKDF2() throws Exception {
+    Assume.assumeTrue(NativeCrypto.hasPBKDF2());
+    final byte[] password = "password".getBytes("UTF-8");
+    final byte[] salt = "salt".getBytes("UTF-8");
+    final char[] chars = new char[password.length];
+    for (int i = 0; i < password.length; i++) {
+      chars[i] = (char) password[i];
+    }
+    final byte[] expected = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256")
+        .generateSecret(new PBEKeySpec(chars, salt, 1000, 40 * 8)).getEncoded();
+    assertArrayEquals(expected, NativeCrypto.pbkdf2SHA256(password, salt, 1000, 40));
+  }
+}
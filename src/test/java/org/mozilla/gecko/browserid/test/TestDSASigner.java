@@ -0,0 +1,88 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.browserid.test;
+
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.DSAPrivateKey;
+import java.security.spec.DSAPrivateKeySpec;
+import java.security.spec.DSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.mozilla.gecko.browserid.ASNUtils;
+import org.mozilla.gecko.browserid.DSACryptoImplementation;
+import org.mozilla.gecko.browserid.DSASigner;
+import org.mozilla.gecko.browserid.JSONWebTokenUtils;
+import org.mozilla.gecko.browserid.SigningPrivateKey;
+
+public class TestDSASigner {
+  protected static final BigInteger p = new BigInteger("fca682ce8e12caba26efccf7110e526db078b05edecbcd1eb4a208f3ae1617ae01f35b91a47e6df63413c5e12ed0899bcd132acd50d99151bdc43ee737592e17", 16);
+  protected static final BigInteger q = new BigInteger("962eddcc369cba8ebb260ee6b6a126d9346e38c5", 16);
+  protected static final BigInteger g = new BigInteger("678471b27a9cf44ee91a49c5147db1a9aaf244f05a434d6486931d2d14271b9e35030b71fd73da179069b32e2935630e1c2062354d0da20a6c416e50be794ca4", 16);
+  protected static final BigInteger x = new BigInteger("9516d860392003db5a4f168444903265467614db", 16);
+  protected static final BigInteger y = new BigInteger("455152a0e499f5c9d11f9f1868c8b868b1443ca853843226a5a9552dd909b4bdba879acc504acb690df0348d60e63ea37e8c7f075302e0df5bcdc76a383888a0", 16);
+
+  protected static DSAPrivateKey privateKey() throws Exception {
+    return (DSAPrivateKey) KeyFactory.getInstance("DSA").generatePrivate(new DSAPrivateKeySpec(x, p, q, g));
+  }
+
+  protected static void assertVerifies(byte[] message, byte[] signature) throws Exception {
+    Assert.assertEquals(40, signature.length);
+    // Minimal DER integers, so strict verifiers accept them.
+    byte[] r = new BigInteger(1, Arrays.copyOfRange(signature, 0, 20)).toByteArray();
+    byte[] s = new BigInteger(1, Arrays.copyOfRange(signature, 20, 40)).toByteArray();
+    PublicKey publicKey = KeyFactory.getInstance("DSA").generatePublic(new DSAPublicKeySpec(y, p, q, g));
+    Signature verifier = Signature.getInstance("SHA1withDSA");
+    verifier.initVerify(publicKey);
+    verifier.update(message);
+    Assert.assertTrue(verifier.verify(ASNUtils.encodeTwoArraysToASN1(r, s)));
+  }
+
+  @Test
+  public void testSign() throws Exception {
+    DSASigner signer = new DSASigner(privateKey());
+    Assert.assertEquals(40, signer.getSignatureLength());
+    for (int i = 0; i < 10; i++) {
+      byte[] message = ("message " + i).getBytes("UTF-8");
+      assertVerifies(message, signer.sign(message));
+    }
+  }
+
+  @Test
+  public void testDecodeDER() throws Exception {
+    // Short components are zero-padded; DER sign bytes are dropped.
+    byte[] der = ASNUtils.encodeTwoArraysToASN1(new byte[] { 0x01, 0x02 }, new byte[] { 0x00, (byte) 0x80 });
+    byte[] decoded = DSASigner.decodeDER(der, 20);
+    Assert.assertEquals(40, decoded.length);
+    Assert.assertEquals(0x01, decoded[18]);
+    Assert.assertEquals(0x02, decoded[19]);
+    Assert.assertEquals((byte) 0x80, decoded[39]);
+    for (int i = 0; i < 18; i++) {
+      Assert.assertEquals(0, decoded[i]);
+      Assert.assertEquals(0, decoded[20 + i]);
+    }
+  }
+
+  @Test
+  public void testSignAll() throws Exception {
+    SigningPrivateKey key = DSACryptoImplementation.createPrivateKey(x, p, q, g);
+    List<byte[]> messages = new ArrayList<byte[]>();
+    for (int i = 0; i < 25; i++) {
+      messages.add(("message " + i).getBytes("UTF-8"));
+    }
+    List<byte[]> signatures = JSONWebTokenUtils.signAll(key, messages);
+    Assert.assertEquals(messages.size(), signatures.size());
+    for (int i = 0; i < messages.size(); i++) {
+      assertVerifies(messages.get(i), signatures.get(i));
+    }
+    Assert.assertTrue(JSONWebTokenUtils.signAll(key, new ArrayList<byte[]>()).isEmpty());
+  }
+}
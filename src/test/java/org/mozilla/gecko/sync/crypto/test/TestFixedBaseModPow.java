@@ -0,0 +1,64 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.crypto.test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mozilla.gecko.sync.crypto.FixedBaseModPow;
+import org.mozilla.gecko.sync.net.SRPConstants;
+
+public class TestFixedBaseModPow {
+  protected static void assertMatchesModPow(FixedBaseModPow engine, BigInteger e) {
+    Assert.assertEquals(engine.getBase().modPow(e, engine.getModulus()), engine.modPow(e));
+  }
+
+  @Test
+  public void testSmallExponents() {
+    final SRPConstants.Parameters params = SRPConstants._1024;
+    final FixedBaseModPow engine = new FixedBaseModPow(params.g, params.N, 64, 4);
+    for (int i = 0; i < 300; i++) {
+      assertMatchesModPow(engine, BigInteger.valueOf(i));
+    }
+  }
+
+  @Test
+  public void testRandomExponents() {
+    final Random random = new Random(1L);
+    final SRPConstants.Parameters params = SRPConstants._2048;
+    final FixedBaseModPow engine = new FixedBaseModPow(params.g, params.N, 256, 5);
+    for (int bits : new int[] { 1, 7, 8, 31, 255, 256 }) {
+      for (int i = 0; i < 10; i++) {
+        assertMatchesModPow(engine, new BigInteger(bits, random));
+      }
+    }
+    // All bits set, exactly at coverage.
+    assertMatchesModPow(engine, BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE));
+  }
+
+  @Test
+  public void testFallback() {
+    final Random random = new Random(2L);
+    final SRPConstants.Parameters params = SRPConstants._1024;
+    final FixedBaseModPow engine = new FixedBaseModPow(params.g, params.N, 32, 4);
+    assertMatchesModPow(engine, new BigInteger(1024, random));
+    assertMatchesModPow(engine, BigInteger.ONE.shiftLeft(32));
+    assertMatchesModPow(engine, BigInteger.valueOf(-5));
+  }
+
+  @Test
+  public void testSRPConstantsModPow() {
+    final Random random = new Random(3L);
+    final SRPConstants.Parameters params = SRPConstants._2048;
+    final BigInteger x = new BigInteger(256, random);
+    final BigInteger a = new BigInteger(2048, random).mod(params.N);
+    Assert.assertEquals(params.g.modPow(x, params.N), params.gModPow(x));
+    Assert.assertEquals(params.g.modPow(a, params.N), params.gModPow(a));
+    Assert.assertEquals(params.g.modPow(x, params.N), SRPConstants.modPow(params.g, x, params.N));
+    Assert.assertSame(params, SRPConstants.getParameters(params.g, params.N));
+    Assert.assertNull(SRPConstants.getParameters(BigInteger.valueOf(3), params.N));
+  }
+}
@@ -3,15 +3,22 @@
 
 package org.mozilla.gecko.sync.crypto.test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.Arrays;
 
+import javax.crypto.Mac;
+
 import org.junit.Test;
 import org.apache.commons.codec.binary.Base64;
 import org.mozilla.gecko.sync.Utils;
 import org.mozilla.gecko.sync.crypto.HKDF;
+import org.mozilla.gecko.sync.crypto.HKDFEngine;
 import org.mozilla.gecko.sync.crypto.KeyBundle;
 
 /*
@@ -110,6 +117,96 @@ public class TestHKDF {
     assertTrue(Arrays.equals(bundle.getHMACKey(), expectedHMACKey));
   }
 
+  /*
+   * The straightforward RFC 5869 expansion, one block at a time.
+   */
+  private static byte[] referenceExpand(byte[] prk, byte[] info, int len) throws Exception {
+    Mac hmacHasher = HKDF.makeHMACHasher(prk);
+    byte[] T  = {};
+    byte[] Tn = {};
+    for (int i = 0; T.length < len; i++) {
+      Tn = HKDF.digestBytes(Utils.concatAll(Tn, info, new byte[] { (byte) (i + 1) }), hmacHasher);
+      T = Utils.concatAll(T, Tn);
+    }
+    return Arrays.copyOf(T, len);
+  }
+
+  @Test
+  public void testExpandMatchesReference() throws Exception {
+    byte[] prk  = Utils.hex2Byte("077709362c2e32df0ddc3f0dc47bba6390b6c73bb50f9c3122ec844ad7c2b3e5");
+    byte[] info = HKDF.bytes("identity.mozilla.com/picl/v1/keyFetchToken");
+    for (int len : new int[] { 0, 1, 31, 32, 33, 64, 96, 255, 1000, HKDFEngine.MAX_OUTPUT_LENGTH }) {
+      assertArrayEquals(referenceExpand(prk, info, len), HKDF.hkdfExpand(prk, info, len));
+    }
+  }
+
+  @Test
+  public void testExpandAtOffset() throws Exception {
+    byte[] prk  = Utils.hex2Byte("077709362c2e32df0ddc3f0dc47bba6390b6c73bb50f9c3122ec844ad7c2b3e5");
+    byte[] info = Utils.hex2Byte("f0f1f2f3f4f5f6f7f8f9");
+    byte[] out  = new byte[50];
+    HKDFEngine.get().expand(prk, info, out, 5, 42);
+    assertArrayEquals(HKDF.hkdfExpand(prk, info, 42), Arrays.copyOfRange(out, 5, 47));
+    assertEquals(0, out[4]);
+    assertEquals(0, out[47]);
+  }
+
+  @Test
+  public void testDeriveManySplitsDerive() throws Exception {
+    byte[] skm = Utils.hex2Byte("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b");
+    byte[] info = HKDF.bytes("identity.mozilla.com/picl/v1/sessionToken");
+    byte[] expected = HKDF.derive(skm, new byte[0], info, 32 + 0 + 45 + 7);
+
+    byte[] a = new byte[32];
+    byte[] b = new byte[0];
+    byte[] c = new byte[45];
+    byte[] d = new byte[7];
+    HKDF.deriveMany(skm, new byte[0], info, a, b, c, d);
+    assertArrayEquals(Arrays.copyOfRange(expected, 0, 32), a);
+    assertArrayEquals(Arrays.copyOfRange(expected, 32, 77), c);
+    assertArrayEquals(Arrays.copyOfRange(expected, 77, 84), d);
+  }
+
+  @Test
+  public void testRekeyBetweenCalls() throws Exception {
+    byte[] info = HKDF.bytes("info");
+    byte[] first  = HKDF.derive(HKDF.bytes("first"), new byte[0], info, 32);
+    byte[] second = HKDF.derive(HKDF.bytes("second"), new byte[0], info, 32);
+    assertFalse(Arrays.equals(first, second));
+    assertArrayEquals(first, HKDF.derive(HKDF.bytes("first"), new byte[0], info, 32));
+  }
+
+  protected static class LeakyHKDFEngine extends HKDFEngine {
+    public LeakyHKDFEngine() throws Exception {
+      super();
+    }
+
+    public byte[] cachedKey() {
+      return macKey;
+    }
+  }
+
+  @Test
+  public void testDeriveForgetsPRK() throws Exception {
+    LeakyHKDFEngine engine = new LeakyHKDFEngine();
+    byte[] info = HKDF.bytes("info");
+    byte[] out = new byte[64];
+    engine.derive(HKDF.bytes("skm"), new byte[0], info, out, 0, 64);
+    assertNull(engine.cachedKey());
+    engine.deriveMany(HKDF.bytes("skm"), new byte[0], info, new byte[16], new byte[16]);
+    assertNull(engine.cachedKey());
+    // Still usable afterwards.
+    byte[] again = new byte[64];
+    engine.derive(HKDF.bytes("skm"), new byte[0], info, again, 0, 64);
+    assertArrayEquals(out, again);
+    assertArrayEquals(HKDF.derive(HKDF.bytes("skm"), new byte[0], info, 64), out);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testExpandTooLong() throws Exception {
+    HKDF.hkdfExpand(new byte[32], new byte[0], HKDFEngine.MAX_OUTPUT_LENGTH + 1);
+  }
+
   /*
    * Helper to do step 1 of RFC 5869.
    */
@@ -0,0 +1,135 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.crypto.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+import org.mozilla.gecko.sync.crypto.KeyBundle;
+import org.mozilla.gecko.sync.crypto.KeyBundleCache;
+
+public class TestKeyBundleCache {
+  protected static final String USERNAME = "smqvooxj664hmrkrv6bw4r4vkegjhkns";
+  protected static final String SYNC_KEY = "gbh7teqqcgyzd65svjgibd7tqy";
+  protected static final String OTHER_SYNC_KEY = "abcdefghijkmnpqrstuvwxyz23";
+
+  @Test
+  public void testMatchesKeyBundle() throws Exception {
+    final KeyBundleCache cache = new KeyBundleCache();
+    final KeyBundle bundle = cache.get(USERNAME, SYNC_KEY);
+    assertArrayEquals(Base64.decodeBase64("069EnS3EtDK4y1tZ1AyKX+U7WEsWRp9bRIKLdW/7aoE="), bundle.getEncryptionKey());
+    assertArrayEquals(Base64.decodeBase64("LF2YCS1QCgSNCf0BCQvQ06SGH8jqJDi9dKj0O+b0fwI="), bundle.getHMACKey());
+    assertTrue(new KeyBundle("test@example.com", SYNC_KEY).equals(cache.get("test@example.com", SYNC_KEY)));
+  }
+
+  @Test
+  public void testHitsReturnCopies() throws Exception {
+    final KeyBundleCache cache = new KeyBundleCache();
+    final KeyBundle first = cache.get(USERNAME, SYNC_KEY);
+    final KeyBundle second = cache.get(USERNAME, SYNC_KEY);
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getHits());
+    assertNotSame(first.getEncryptionKey(), second.getEncryptionKey());
+    assertTrue(first.equals(second));
+
+    // Mangling a returned bundle doesn't affect the cache.
+    first.getEncryptionKey()[0] ^= 1;
+    assertTrue(second.equals(cache.get(USERNAME, SYNC_KEY)));
+  }
+
+  @Test
+  public void testKeyedByUsernameAndSyncKey() throws Exception {
+    final KeyBundleCache cache = new KeyBundleCache();
+    final KeyBundle a = cache.get(USERNAME, SYNC_KEY);
+    final KeyBundle b = cache.get(USERNAME, OTHER_SYNC_KEY);
+    final KeyBundle c = cache.get("other", SYNC_KEY);
+    assertEquals(3, cache.getMisses());
+    assertEquals(3, cache.size());
+    assertTrue(!a.equals(b) && !a.equals(c) && !b.equals(c));
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    final KeyBundleCache cache = new KeyBundleCache();
+    cache.get(USERNAME, SYNC_KEY);
+    cache.get(USERNAME, OTHER_SYNC_KEY);
+    cache.get("other", SYNC_KEY);
+
+    cache.invalidate(USERNAME, OTHER_SYNC_KEY);
+    assertEquals(2, cache.size());
+    cache.invalidate(USERNAME);
+    assertEquals(1, cache.size());
+    cache.get(USERNAME, SYNC_KEY);
+    assertEquals(4, cache.getMisses());
+
+    cache.invalidateAll();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testBounded() throws Exception {
+    final KeyBundleCache cache = new KeyBundleCache(2);
+    cache.get("a", SYNC_KEY);
+    cache.get("b", SYNC_KEY);
+    cache.get("c", SYNC_KEY);
+    assertEquals(2, cache.size());
+    // The oldest went first.
+    cache.get("c", SYNC_KEY);
+    cache.get("b", SYNC_KEY);
+    assertEquals(2, cache.getHits());
+    cache.get("a", SYNC_KEY);
+    assertEquals(4, cache.getMisses());
+    assertEquals(2, cache.size());
+    // Then the least recently used: "c", not "b".
+    cache.get("b", SYNC_KEY);
+    assertEquals(3, cache.getHits());
+  }
+
+  @Test
+  public void testBoundedUnderContention() throws Exception {
+    final KeyBundleCache cache = new KeyBundleCache(4);
+    final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    final Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final int seed = t;
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          final Random random = new Random(seed);
+          try {
+            for (int i = 0; i < 200; i++) {
+              final String username = "user" + random.nextInt(8);
+              if (random.nextInt(4) == 0) {
+                cache.invalidate(username, SYNC_KEY);
+              } else {
+                cache.get(username, SYNC_KEY);
+              }
+            }
+          } catch (Exception e) {
+            failure.set(e);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+    assertTrue(cache.size() <= 4);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testNoUsername() throws Exception {
+    new KeyBundleCache().get("", SYNC_KEY);
+  }
+}
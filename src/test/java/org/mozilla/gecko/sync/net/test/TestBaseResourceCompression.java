@@ -0,0 +1,230 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.net.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.StringEntity;
+import org.json.simple.JSONArray;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.gecko.sync.Utils;
+import org.mozilla.gecko.sync.net.AuthHeaderProvider;
+import org.mozilla.gecko.sync.net.BaseResource;
+import org.mozilla.gecko.sync.net.BaseResourceDelegate;
+import org.mozilla.gecko.sync.net.DigestingEntity;
+import org.mozilla.gecko.sync.net.HawkAuthHeaderProvider;
+import org.mozilla.gecko.sync.net.HawkSigner;
+import org.mozilla.gecko.sync.net.SyncResponse;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Round-trip request and response bodies through a local server that
+ * understands gzip.
+ */
+public class TestBaseResourceCompression {
+  protected HttpServer server;
+  protected volatile String requestContentEncoding;
+  protected volatile String requestAcceptEncoding;
+  protected volatile String requestContentType;
+  protected volatile String requestAuthorization;
+  protected volatile byte[] requestRawBody;
+
+  protected static byte[] readAll(InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[4096];
+    int numRead;
+    while (-1 != (numRead = in.read(buffer))) {
+      out.write(buffer, 0, numRead);
+    }
+    return out.toByteArray();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/echo", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        requestContentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        requestAcceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        requestContentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        requestAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+        requestRawBody = readAll(exchange.getRequestBody());
+        InputStream in = new ByteArrayInputStream(requestRawBody);
+        if ("gzip".equals(requestContentEncoding)) {
+          in = new GZIPInputStream(in);
+        }
+        final byte[] body = readAll(in);
+
+        final boolean gzip = requestAcceptEncoding != null && requestAcceptEncoding.contains("gzip");
+        if (gzip) {
+          exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        if (gzip) {
+          out = new GZIPOutputStream(out);
+        }
+        out.write(body);
+        out.close();
+      }
+    });
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+    BaseResource.setAcceptCompressedResponses(true);
+  }
+
+  protected String uri() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/echo";
+  }
+
+  protected static class EchoDelegate extends BaseResourceDelegate {
+    public String body;
+    public Exception exception;
+    public AuthHeaderProvider authHeaderProvider;
+
+    public EchoDelegate(BaseResource resource) {
+      super(resource);
+    }
+
+    @Override
+    public String getUserAgent() {
+      return null;
+    }
+
+    @Override
+    public AuthHeaderProvider getAuthHeaderProvider() {
+      return authHeaderProvider;
+    }
+
+    @Override
+    public void handleHttpResponse(HttpResponse response) {
+      try {
+        body = new SyncResponse(response).body();
+      } catch (Exception e) {
+        exception = e;
+      }
+    }
+
+    @Override
+    public void handleHttpProtocolException(ClientProtocolException e) {
+      exception = e;
+    }
+
+    @Override
+    public void handleHttpIOException(IOException e) {
+      exception = e;
+    }
+
+    @Override
+    public void handleTransportException(GeneralSecurityException e) {
+      exception = e;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  protected static JSONArray exampleBody() {
+    final JSONArray body = new JSONArray();
+    for (int i = 0; i < 1000; i++) {
+      body.add("record " + i);
+    }
+    return body;
+  }
+
+  protected EchoDelegate post(boolean compressRequestBodies) throws Exception {
+    return post(compressRequestBodies, null, DigestingEntity.fromJSON(exampleBody()));
+  }
+
+  protected EchoDelegate post(boolean compressRequestBodies, AuthHeaderProvider authHeaderProvider, HttpEntity body) throws Exception {
+    final BaseResource resource = new BaseResource(uri());
+    final EchoDelegate delegate = new EchoDelegate(resource);
+    delegate.authHeaderProvider = authHeaderProvider;
+    resource.delegate = delegate;
+    resource.setCompressRequestBodies(compressRequestBodies);
+    resource.post(body);
+    if (delegate.exception != null) {
+      throw delegate.exception;
+    }
+    return delegate;
+  }
+
+  /**
+   * @return the Hawk payload hash of the body the server received.
+   */
+  protected String receivedPayloadHash() throws Exception {
+    final ByteArrayEntity received = new ByteArrayEntity(requestRawBody);
+    received.setContentType(requestContentType);
+    return Base64.encodeBase64String(HawkSigner.get().payloadHash(received));
+  }
+
+  protected static HawkAuthHeaderProvider hawk() {
+    return new HawkAuthHeaderProvider("id", Utils.generateRandomBytes(32), true, 0L);
+  }
+
+  @Test
+  public void testCompressedRoundTrip() throws Exception {
+    final EchoDelegate delegate = post(true);
+    Assert.assertEquals("gzip", requestContentEncoding);
+    Assert.assertTrue(requestAcceptEncoding.contains("gzip"));
+    Assert.assertEquals(exampleBody().toJSONString(), delegate.body);
+  }
+
+  @Test
+  public void testUncompressedRequest() throws Exception {
+    final EchoDelegate delegate = post(false);
+    Assert.assertNull(requestContentEncoding);
+    Assert.assertEquals(exampleBody().toJSONString(), delegate.body);
+  }
+
+  @Test
+  public void testDisableCompressedResponses() throws Exception {
+    BaseResource.setAcceptCompressedResponses(false);
+    final EchoDelegate delegate = post(true);
+    Assert.assertNull(requestAcceptEncoding);
+    Assert.assertEquals(exampleBody().toJSONString(), delegate.body);
+  }
+
+  @Test
+  public void testHawkHashesCompressedBody() throws Exception {
+    final EchoDelegate delegate = post(true, hawk(), DigestingEntity.fromJSON(exampleBody()));
+    Assert.assertEquals("gzip", requestContentEncoding);
+    Assert.assertEquals(exampleBody().toJSONString(), delegate.body);
+    Assert.assertTrue(requestAuthorization.contains("hash=\"" + receivedPayloadHash() + "\""));
+  }
+
+  @Test
+  public void testStringEntityIsNotCompressed() throws Exception {
+    final String body = exampleBody().toJSONString();
+    final StringEntity entity = new StringEntity(body, "UTF-8");
+    entity.setContentType("application/json");
+    final EchoDelegate delegate = post(true, hawk(), entity);
+    Assert.assertNull(requestContentEncoding);
+    Assert.assertEquals(body, delegate.body);
+    Assert.assertTrue(requestAuthorization.contains("hash=\"" + receivedPayloadHash() + "\""));
+  }
+}
@@ -0,0 +1,97 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.net.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mozilla.gecko.sync.Base64Codec;
+import org.mozilla.gecko.sync.net.DigestingEntity;
+import org.mozilla.gecko.sync.net.HawkSigner;
+import org.mozilla.gecko.sync.net.test.TestHawkAuthHeaderProvider.LeakyHawkAuthHeaderProvider;
+
+public class TestDigestingEntity {
+  protected static final String SPEC_BODY = "Thank you for flying Hawk";
+  protected static final String SPEC_HASH = "Yi9LfIIFRtBEPt74PVmbTF/xVAwPn7ub15ePICfgnuY=";
+
+  @SuppressWarnings("unchecked")
+  protected static JSONArray exampleBody() {
+    final JSONArray array = new JSONArray();
+    for (int i = 0; i < 50; i++) {
+      final JSONObject o = new JSONObject();
+      o.put("id", "record" + i);
+      o.put("payload", "{\"ciphertext\":\"café ☃\",\"index\":" + i + "}");
+      o.put("sortindex", i);
+      array.add(o);
+    }
+    return array;
+  }
+
+  @Test
+  public void testFromJSONMatchesStringEntity() throws Exception {
+    final JSONArray body = exampleBody();
+    final DigestingEntity entity = DigestingEntity.fromJSON(body);
+    final StringEntity expected = new StringEntity(body.toJSONString(), "UTF-8");
+    expected.setContentType("application/json");
+
+    Assert.assertTrue(entity.isRepeatable());
+    Assert.assertEquals("application/json", entity.getContentType().getValue());
+    Assert.assertEquals(expected.getContentLength(), entity.getContentLength());
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entity.writeTo(out);
+    Assert.assertEquals(body.toJSONString(), new String(out.toByteArray(), "UTF-8"));
+    Assert.assertArrayEquals(HawkSigner.get().payloadHash(expected), entity.getPayloadHash());
+  }
+
+  @Test
+  public void testContentTypeChangeRehashes() throws Exception {
+    final JSONArray body = exampleBody();
+    final DigestingEntity entity = DigestingEntity.fromJSON(body);
+    entity.setContentType("text/plain; charset=UTF-8");
+    final StringEntity expected = new StringEntity(body.toJSONString(), "UTF-8");
+    expected.setContentType("text/plain");
+    Assert.assertArrayEquals(HawkSigner.get().payloadHash(expected), entity.getPayloadHash());
+  }
+
+  @Test
+  public void testNonRepeatableStream() throws Exception {
+    final byte[] bytes = SPEC_BODY.getBytes("UTF-8");
+    final MessageDigest digest = DigestingEntity.newDigest("text/plain");
+    digest.update(bytes);
+    final byte[] hash = DigestingEntity.finishDigest(digest);
+    Assert.assertEquals(SPEC_HASH, Base64Codec.encodeToString(hash));
+
+    final DigestingEntity entity = new DigestingEntity(new ByteArrayInputStream(bytes), bytes.length, "text/plain", hash);
+    Assert.assertFalse(entity.isRepeatable());
+    Assert.assertTrue(entity.isStreaming());
+
+    // The provider uses the carried hash instead of reading the stream.
+    final LeakyHawkAuthHeaderProvider provider = new LeakyHawkAuthHeaderProvider("dh37fgj492je", "werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn".getBytes("UTF-8"));
+    final HttpPost req = new HttpPost(new URI("http://example.com:8000/resource/1?b=1&a=2"));
+    req.setEntity(entity);
+    final Header header = provider.getAuthHeader(req, null, null, 1353832234L, "j4h3g2", "some-app-ext-data", true);
+    Assert.assertEquals("Hawk id=\"dh37fgj492je\", ts=\"1353832234\", nonce=\"j4h3g2\", hash=\"" + SPEC_HASH + "\", ext=\"some-app-ext-data\", mac=\"aSe1DERmZuRl3pI36/9BdZmnErTw3sNzOOAUlfeKjVw=\"", header.getValue());
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entity.writeTo(out);
+    Assert.assertEquals(SPEC_BODY, new String(out.toByteArray(), "UTF-8"));
+    Assert.assertFalse(entity.isStreaming());
+    try {
+      entity.getContent();
+      Assert.fail("Expected IllegalStateException.");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+  }
+}
@@ -34,11 +34,6 @@ public class TestHawkAuthHeaderProvider {
       super(tokenId, reqHMACKey, false, 0L);
     }
 
-    // Public for testing.
-    public static String getRequestString(HttpUriRequest request, String type, long timestamp, String nonce, String hash, String extra, String app, String dlg) {
-      return HawkAuthHeaderProvider.getRequestString(request, type, timestamp, nonce, hash, extra, app, dlg);
-    }
-
     // Public for testing.
     public static String getSignature(String requestString, String key)
         throws InvalidKeyException, NoSuchAlgorithmException, UnsupportedEncodingException {
@@ -59,32 +54,6 @@ public class TestHawkAuthHeaderProvider {
     }
   }
 
-  @Test
-  public void testSpecRequestString() throws Exception {
-    long timestamp = 1353832234;
-    String nonce = "j4h3g2";
-    String extra = "some-app-ext-data";
-    String hash = null;
-    String app = null;
-    String dlg = null;
-
-    URI uri = new URI("http://example.com:8000/resource/1?b=1&a=2");
-    HttpUriRequest req = new HttpGet(uri);
-
-    String expected = "hawk.1.header\n" +
-        "1353832234\n" +
-        "j4h3g2\n" +
-        "GET\n" +
-        "/resource/1?b=1&a=2\n" +
-        "example.com\n" +
-        "8000\n" +
-        "\n" +
-        "some-app-ext-data\n";
-
-    // LeakyHawkAuthHeaderProvider.
-    assertEquals(expected, LeakyHawkAuthHeaderProvider.getRequestString(req, "header", timestamp, nonce, hash, extra, app, dlg));
-  }
-
   @Test
   public void testSpecSignatureExample() throws Exception {
     String input = "hawk.1.header\n" +
@@ -0,0 +1,142 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.net.test;
+
+import java.net.URI;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mozilla.gecko.sync.Utils;
+import org.mozilla.gecko.sync.net.HawkSigner;
+
+/**
+ * The first test vector was taken from
+ * <a href="https://github.com/hueniverse/hawk/blob/871cc597973110900467bd3dfb84a3c892f678fb/README.md">https://github.com/hueniverse/hawk/blob/871cc597973110900467bd3dfb84a3c892f678fb/README.md</a>.
+ */
+public class TestHawkSigner {
+  protected static class LeakyHawkSigner extends HawkSigner {
+    public LeakyHawkSigner() throws NoSuchAlgorithmException {
+      super();
+    }
+
+    public byte[] requestBytes(HttpUriRequest request, long timestamp, String nonce, String hash, String extra, String app, String dlg) {
+      writeRequest("header", request.getMethod(), request.getURI(), timestamp, nonce, hash, extra, app, dlg);
+      return getRequestBytes();
+    }
+
+    public byte[] macOf(byte[] message) {
+      return mac.doFinal(message);
+    }
+  }
+
+  protected static byte[] hmac(byte[] key, byte[] message) throws Exception {
+    final Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(key, "HmacSHA256"));
+    return mac.doFinal(message);
+  }
+
+  protected static void assertRequest(String expected, LeakyHawkSigner signer, HttpUriRequest request, long timestamp, String nonce, String hash, String extra, String app, String dlg) throws Exception {
+    Assert.assertEquals(expected, new String(signer.requestBytes(request, timestamp, nonce, hash, extra, app, dlg), "UTF-8"));
+  }
+
+  @Test
+  public void testSpecRequestString() throws Exception {
+    final LeakyHawkSigner signer = new LeakyHawkSigner();
+    final HttpUriRequest request = new HttpGet(new URI("http://example.com:8000/resource/1?b=1&a=2"));
+    final String expected = "hawk.1.header\n" +
+        "1353832234\n" +
+        "j4h3g2\n" +
+        "GET\n" +
+        "/resource/1?b=1&a=2\n" +
+        "example.com\n" +
+        "8000\n" +
+        "\n" +
+        "some-app-ext-data\n";
+    assertRequest(expected, signer, request, 1353832234L, "j4h3g2", null, "some-app-ext-data", null, null);
+
+    final byte[] mac = signer.sign("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn".getBytes("UTF-8"), "header", "GET", request.getURI(), 1353832234L, "j4h3g2", null, "some-app-ext-data", null, null);
+    Assert.assertEquals("6R4rV5iE+NPoym+WwjeHzjAGXUtLNIxmo1vpMofpLAE=", Base64.encodeBase64String(mac));
+  }
+
+  @Test
+  public void testRequestStrings() throws Exception {
+    final LeakyHawkSigner signer = new LeakyHawkSigner();
+    assertRequest("hawk.1.header\n" +
+        "0\n" +
+        "abc\n" +
+        "PUT\n" +
+        "/1.5/12345/storage/bookmarks#frag\n" +
+        "sync.example.com\n" +
+        "443\n" +
+        "Yi9LfIIFRtBEPt74PVmbTF/xVAwPn7ub15ePICfgnuY=\n" +
+        "\n" +
+        "app\n" +
+        "dlg\n",
+        signer, new HttpPut(new URI("https://sync.example.com/1.5/12345/storage/bookmarks#frag")), 0L, "abc", "Yi9LfIIFRtBEPt74PVmbTF/xVAwPn7ub15ePICfgnuY=", null, "app", "dlg");
+    // Non-ASCII is written as UTF-8.
+    assertRequest("hawk.1.header\n" +
+        "9223372036854775807\n" +
+        "n\n" +
+        "GET\n" +
+        "/café?q=ü\n" +
+        "example.com\n" +
+        "80\n" +
+        "\n" +
+        "ext ☃\n" +
+        "app\n" +
+        "\n",
+        signer, new HttpGet(new URI("http", "example.com", "/café", "q=ü", null)), Long.MAX_VALUE, "n", null, "ext ☃", "app", null);
+  }
+
+  @Test
+  public void testBufferGrows() throws Exception {
+    final LeakyHawkSigner signer = new LeakyHawkSigner();
+    final StringBuilder path = new StringBuilder("/");
+    for (int i = 0; i < 1000; i++) {
+      path.append("segment/");
+    }
+    assertRequest("hawk.1.header\n1\nnonce\nGET\n" + path + "\nexample.com\n443\n\n\n",
+        signer, new HttpGet(new URI("https://example.com" + path)), 1L, "nonce", null, null, null, null);
+    assertRequest("hawk.1.header\n2\nnonce\nGET\n/\nexample.com\n443\n\n\n",
+        signer, new HttpGet(new URI("https://example.com/")), 2L, "nonce", null, null, null, null);
+  }
+
+  @Test
+  public void testSignRekeys() throws Exception {
+    final LeakyHawkSigner signer = new LeakyHawkSigner();
+    final URI uri = new URI("https://example.com/1.5/1/info/collections");
+    final byte[] expectedMessage = "hawk.1.header\n10\nnonce\nGET\n/1.5/1/info/collections\nexample.com\n443\n\n\n".getBytes("UTF-8");
+
+    final byte[] key1 = Utils.generateRandomBytes(32);
+    final byte[] key2 = Utils.generateRandomBytes(32);
+    Assert.assertArrayEquals(hmac(key1, expectedMessage), signer.sign(key1, "header", "GET", uri, 10L, "nonce", null, null, null, null));
+    Assert.assertArrayEquals(hmac(key1, expectedMessage), signer.sign(key1.clone(), "header", "GET", uri, 10L, "nonce", null, null, null, null));
+    Assert.assertArrayEquals(hmac(key2, expectedMessage), signer.sign(key2, "header", "GET", uri, 10L, "nonce", null, null, null, null));
+    Assert.assertArrayEquals(hmac(key1, expectedMessage), signer.sign(key1, "header", "GET", uri, 10L, "nonce", null, null, null, null));
+  }
+
+  @Test
+  public void testSignForgetsKey() throws Exception {
+    final LeakyHawkSigner signer = new LeakyHawkSigner();
+    final URI uri = new URI("https://example.com/1.5/1/info/collections");
+    final byte[] key = Utils.generateRandomBytes(32);
+    signer.sign(key, "header", "GET", uri, 10L, "nonce", null, null, null, null);
+
+    final byte[] message = "message".getBytes("UTF-8");
+    Assert.assertArrayEquals(hmac(new byte[32], message), signer.macOf(message));
+  }
+
+  @Test
+  public void testPerThread() throws Exception {
+    Assert.assertSame(HawkSigner.get(), HawkSigner.get());
+  }
+}
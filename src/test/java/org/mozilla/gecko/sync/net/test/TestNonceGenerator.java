@@ -0,0 +1,62 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.net.test;
+
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mozilla.gecko.sync.Base64Codec;
+import org.mozilla.gecko.sync.net.NonceGenerator;
+
+public class TestNonceGenerator {
+  protected static class LeakyNonceGenerator extends NonceGenerator {
+    public LeakyNonceGenerator(SecureRandom random, int bufferSize) {
+      super(random, bufferSize);
+    }
+  }
+
+  @Test
+  public void testNonceLengths() {
+    for (int length : new int[] { 1, 2, 3, 8, 9, 16 }) {
+      final String nonce = NonceGenerator.nextNonce(length);
+      Assert.assertEquals(Base64Codec.encodedLength(length), nonce.length());
+      Assert.assertEquals(length, Base64Codec.decode(nonce).length);
+    }
+  }
+
+  @Test
+  public void testRefillAndOversized() {
+    // A tiny buffer forces refills and the unbuffered path.
+    final NonceGenerator generator = new LeakyNonceGenerator(new SecureRandom(), 20);
+    final Set<String> seen = new HashSet<String>();
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertTrue(seen.add(generator.next(8)));
+    }
+    Assert.assertEquals(Base64Codec.encodedLength(64), generator.next(64).length());
+  }
+
+  @Test
+  public void testPerThread() throws Exception {
+    final NonceGenerator[] other = new NonceGenerator[1];
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        other[0] = NonceGenerator.get();
+      }
+    });
+    thread.start();
+    thread.join();
+    Assert.assertSame(NonceGenerator.get(), NonceGenerator.get());
+    Assert.assertNotNull(other[0]);
+    Assert.assertNotSame(NonceGenerator.get(), other[0]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLength() {
+    NonceGenerator.nextNonce(0);
+  }
+}
@@ -0,0 +1,309 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.net.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.gecko.sync.CryptoRecord;
+import org.mozilla.gecko.sync.ExtendedJSONObject;
+import org.mozilla.gecko.sync.HTTPFailureException;
+import org.mozilla.gecko.sync.crypto.KeyBundle;
+import org.mozilla.gecko.sync.net.RecordUploadBatcher;
+import org.mozilla.gecko.sync.net.RecordUploadBatcher.RecordRejectedException;
+import org.mozilla.gecko.sync.net.RecordUploadBatcher.RecordTooLargeException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Upload to a local server that stores records unless their guid starts with
+ * "bad", and ignores those starting with "lost".
+ */
+public class TestRecordUploadBatcher {
+  protected HttpServer server;
+  protected final List<Integer> postSizes = Collections.synchronizedList(new ArrayList<Integer>());
+  protected final List<JSONObject> posted = Collections.synchronizedList(new ArrayList<JSONObject>());
+  protected final List<String> contentEncodings = Collections.synchronizedList(new ArrayList<String>());
+  protected volatile int failAfterPosts = Integer.MAX_VALUE;
+
+  protected static byte[] readAll(InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[4096];
+    int numRead;
+    while (-1 != (numRead = in.read(buffer))) {
+      out.write(buffer, 0, numRead);
+    }
+    return out.toByteArray();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/storage/bookmarks", new HttpHandler() {
+      @SuppressWarnings("unchecked")
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        final String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        contentEncodings.add(contentEncoding);
+        if ("gzip".equals(contentEncoding)) {
+          in = new GZIPInputStream(in);
+        }
+        final byte[] body = readAll(in);
+        postSizes.add(body.length);
+        if (postSizes.size() > failAfterPosts) {
+          exchange.sendResponseHeaders(503, -1);
+          exchange.close();
+          return;
+        }
+
+        final JSONArray success = new JSONArray();
+        final JSONObject failed = new JSONObject();
+        try {
+          for (Object o : (JSONArray) new JSONParser().parse(new String(body, "UTF-8"))) {
+            final JSONObject record = (JSONObject) o;
+            posted.add(record);
+            final String guid = (String) record.get("id");
+            if (guid.startsWith("bad")) {
+              final JSONArray reasons = new JSONArray();
+              reasons.add("invalid record");
+              failed.put(guid, reasons);
+            } else if (!guid.startsWith("lost")) {
+              success.add(guid);
+            }
+          }
+        } catch (Exception e) {
+          exchange.sendResponseHeaders(400, -1);
+          exchange.close();
+          return;
+        }
+        final JSONObject response = new JSONObject();
+        response.put("modified", 1234.56);
+        response.put("success", success);
+        response.put("failed", failed);
+        final byte[] bytes = response.toJSONString().getBytes("UTF-8");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+      }
+    });
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  protected URI uri() throws Exception {
+    return new URI("http://127.0.0.1:" + server.getAddress().getPort() + "/storage/bookmarks");
+  }
+
+  protected static class RecordingDelegate implements RecordUploadBatcher.RecordUploadDelegate {
+    public final LinkedHashMap<String, Exception> outcomes = new LinkedHashMap<String, Exception>();
+    public final ArrayList<Long> batches = new ArrayList<Long>();
+    public int completions;
+
+    @Override
+    public void onRecordStored(String guid) {
+      assertEquals(null, outcomes.put(guid, null));
+    }
+
+    @Override
+    public void onRecordFailed(String guid, Exception e) {
+      assertEquals(null, outcomes.put(guid, e));
+    }
+
+    @Override
+    public void onBatchStored(long lastModified) {
+      batches.add(lastModified);
+    }
+
+    @Override
+    public void onUploadComplete() {
+      completions++;
+    }
+
+    public int stored() {
+      int stored = 0;
+      for (Exception e : outcomes.values()) {
+        if (e == null) {
+          stored++;
+        }
+      }
+      return stored;
+    }
+  }
+
+  protected static List<CryptoRecord> records(int count, String prefix, int payloadLength) {
+    final StringBuilder title = new StringBuilder();
+    for (int i = 0; i < payloadLength; i++) {
+      title.append('x');
+    }
+    final ArrayList<CryptoRecord> records = new ArrayList<CryptoRecord>();
+    for (int i = 0; i < count; i++) {
+      final ExtendedJSONObject payload = new ExtendedJSONObject();
+      payload.put("title", title.toString());
+      final CryptoRecord record = new CryptoRecord(payload);
+      record.guid = String.format("%s%08d", prefix, i);
+      records.add(record);
+    }
+    return records;
+  }
+
+  @Test
+  public void testCountLimit() throws Exception {
+    final RecordingDelegate delegate = new RecordingDelegate();
+    new RecordUploadBatcher(uri(), null, null, 10, 1024 * 1024).upload(records(25, "good", 10), delegate);
+
+    assertEquals(3, postSizes.size());
+    assertEquals(25, delegate.outcomes.size());
+    assertEquals(25, delegate.stored());
+    assertEquals(3, delegate.batches.size());
+    assertEquals(1234560L, (long) delegate.batches.get(0));
+    assertEquals(1, delegate.completions);
+  }
+
+  @Test
+  public void testByteLimitAndTooLarge() throws Exception {
+    final List<CryptoRecord> records = records(10, "good", 100);
+    records.addAll(4, records(1, "huge", 1000));
+    final RecordingDelegate delegate = new RecordingDelegate();
+    new RecordUploadBatcher(uri(), null, null, 100, 500).upload(records, delegate);
+
+    assertTrue(postSizes.size() >= 3);
+    for (int size : postSizes) {
+      assertTrue(size <= 500);
+    }
+    assertEquals(11, delegate.outcomes.size());
+    assertEquals(10, delegate.stored());
+    assertTrue(delegate.outcomes.get("huge00000000") instanceof RecordTooLargeException);
+    assertEquals(1, delegate.completions);
+  }
+
+  @Test
+  public void testEncryptsOnce() throws Exception {
+    final KeyBundle keys = KeyBundle.withRandomKeys();
+    final RecordingDelegate delegate = new RecordingDelegate();
+    // Small bodies, so records spill over into the next batch.
+    new RecordUploadBatcher(uri(), null, keys, 100, 1000).upload(records(12, "good", 100), delegate);
+
+    assertTrue(postSizes.size() > 2);
+    assertEquals(12, delegate.stored());
+    assertEquals(12, posted.size());
+    for (JSONObject o : posted) {
+      final CryptoRecord record = CryptoRecord.fromJSONRecord(new ExtendedJSONObject(o));
+      record.keyBundle = keys;
+      record.decrypt();
+      assertEquals(100, record.payload.getString("title").length());
+    }
+  }
+
+  @Test
+  public void testPerRecordFailures() throws Exception {
+    final List<CryptoRecord> records = records(3, "good", 10);
+    records.addAll(records(2, "bad", 10));
+    records.addAll(records(1, "lost", 10));
+    final RecordingDelegate delegate = new RecordingDelegate();
+    new RecordUploadBatcher(uri(), null, null).upload(records, delegate);
+
+    assertEquals(6, delegate.outcomes.size());
+    assertEquals(3, delegate.stored());
+    final RecordRejectedException bad = (RecordRejectedException) delegate.outcomes.get("bad00000001");
+    assertEquals("invalid record", bad.reason);
+    assertTrue(delegate.outcomes.get("lost00000000") instanceof RecordRejectedException);
+  }
+
+  @Test
+  public void testHTTPFailureFailsRemainingRecords() throws Exception {
+    failAfterPosts = 1;
+    final RecordingDelegate delegate = new RecordingDelegate();
+    new RecordUploadBatcher(uri(), null, null, 5, 1024 * 1024).upload(records(17, "good", 10), delegate);
+
+    assertEquals(2, postSizes.size());
+    assertEquals(17, delegate.outcomes.size());
+    assertEquals(5, delegate.stored());
+    assertTrue(delegate.outcomes.get("good00000016") instanceof HTTPFailureException);
+    assertEquals(1, delegate.completions);
+  }
+
+  @Test
+  public void testDuplicateGuidsRejected() throws Exception {
+    final List<CryptoRecord> records = records(3, "good", 10);
+    records.addAll(records(1, "good", 10));
+    final RecordingDelegate delegate = new RecordingDelegate();
+    try {
+      new RecordUploadBatcher(uri(), null, null).upload(records, delegate);
+      fail("Expected IllegalArgumentException.");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("good00000000"));
+    }
+    assertEquals(0, postSizes.size());
+    assertEquals(0, delegate.outcomes.size());
+    assertEquals(0, delegate.completions);
+  }
+
+  @Test
+  public void testUncompressedByDefault() throws Exception {
+    final RecordingDelegate delegate = new RecordingDelegate();
+    final RecordUploadBatcher batcher = new RecordUploadBatcher(uri(), null, null, 10, 1024 * 1024);
+    batcher.upload(records(5, "good", 10), delegate);
+    assertEquals(5, delegate.stored());
+    assertNull(contentEncodings.get(0));
+
+    batcher.setCompressRequestBodies(true);
+    batcher.upload(records(5, "good", 10), new RecordingDelegate());
+    assertEquals("gzip", contentEncodings.get(1));
+  }
+
+  @Test
+  public void testUploadFromSingleThreadedPool() throws Exception {
+    // Preparing batches mustn't need another thread from the caller's pool.
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final RecordingDelegate delegate = new RecordingDelegate();
+      final Future<Void> upload = executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          new RecordUploadBatcher(uri(), null, KeyBundle.withRandomKeys(), 5, 1024 * 1024).upload(records(17, "good", 10), delegate);
+          return null;
+        }
+      });
+      upload.get(30, TimeUnit.SECONDS);
+      assertEquals(17, delegate.stored());
+      assertEquals(1, delegate.completions);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
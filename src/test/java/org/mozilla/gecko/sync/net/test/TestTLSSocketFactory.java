@@ -0,0 +1,291 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.net.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mozilla.gecko.sync.net.BaseResource;
+import org.mozilla.gecko.sync.net.BaseResourceDelegate;
+import org.mozilla.gecko.sync.net.SyncResponse;
+import org.mozilla.gecko.sync.net.TLSConfiguration;
+import org.mozilla.gecko.sync.net.TLSHandshakeMetrics;
+import org.mozilla.gecko.sync.net.TLSSocketFactory;
+
+/**
+ * Check TLS session resumption and protocol selection against a local
+ * server with a self-signed certificate.
+ */
+public class TestTLSSocketFactory {
+  protected static SSLContext serverContext;
+  protected static KeyStore trustStore;
+
+  protected SSLServerSocket serverSocket;
+  protected volatile int connectionsAccepted;
+  protected volatile String negotiatedProtocol;
+
+  @SuppressWarnings("deprecation")
+  @BeforeClass
+  public static void createCertificate() throws Exception {
+    final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    final KeyPair keyPair = generator.generateKeyPair();
+
+    final X500Principal name = new X500Principal("CN=127.0.0.1");
+    final X509V3CertificateGenerator certificateGenerator = new X509V3CertificateGenerator();
+    certificateGenerator.setSerialNumber(BigInteger.ONE);
+    certificateGenerator.setIssuerDN(name);
+    certificateGenerator.setSubjectDN(name);
+    certificateGenerator.setNotBefore(new Date(System.currentTimeMillis() - 60 * 60 * 1000));
+    certificateGenerator.setNotAfter(new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000));
+    certificateGenerator.setPublicKey(keyPair.getPublic());
+    certificateGenerator.setSignatureAlgorithm("SHA256withRSA");
+    certificateGenerator.addExtension(X509Extension.subjectAlternativeName, false,
+        new GeneralNames(new GeneralName(GeneralName.iPAddress, "127.0.0.1")));
+    // Round-trip through the platform so the certificate has a usable public key.
+    final byte[] encoded = certificateGenerator.generate(keyPair.getPrivate()).getEncoded();
+    final X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509")
+        .generateCertificate(new ByteArrayInputStream(encoded));
+
+    final char[] password = "password".toCharArray();
+    final KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+    keyStore.load(null, null);
+    keyStore.setKeyEntry("server", keyPair.getPrivate(), password, new X509Certificate[] { certificate });
+    final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagerFactory.init(keyStore, password);
+    serverContext = SSLContext.getInstance("TLS");
+    serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+    trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+    trustStore.load(null, null);
+    trustStore.setCertificateEntry("server", certificate);
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serverSocket = (SSLServerSocket) serverContext.getServerSocketFactory()
+        .createServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    final Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            final Socket socket = serverSocket.accept();
+            connectionsAccepted++;
+            serve((SSLSocket) socket);
+          } catch (IOException e) {
+            return;
+          }
+        }
+      }
+    });
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    BaseResource.setTLSConfiguration(TLSConfiguration.custom().setTrustStore(trustStore).build());
+    BaseResource.getTLSHandshakeMetrics().reset();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    BaseResource.setTLSConfiguration(TLSConfiguration.DEFAULT);
+    BaseResource.getTLSHandshakeMetrics().reset();
+    serverSocket.close();
+  }
+
+  /**
+   * Answer keep-alive requests until the client goes away.
+   */
+  protected void serve(final SSLSocket socket) {
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          socket.startHandshake();
+          negotiatedProtocol = socket.getSession().getProtocol();
+          final InputStream in = socket.getInputStream();
+          final OutputStream out = socket.getOutputStream();
+          while (readRequestHeaders(in)) {
+            out.write("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nok".getBytes("US-ASCII"));
+            out.flush();
+          }
+        } catch (IOException e) {
+          // Client went away.
+        } finally {
+          try {
+            socket.close();
+          } catch (IOException e) {
+            // Nothing to do.
+          }
+        }
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  protected static boolean readRequestHeaders(InputStream in) throws IOException {
+    int matched = 0;
+    while (matched < 4) {
+      final int b = in.read();
+      if (b < 0) {
+        return false;
+      }
+      matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+    }
+    return true;
+  }
+
+  protected static class ResultDelegate extends BaseResourceDelegate {
+    public String body;
+    public Exception exception;
+
+    public ResultDelegate(BaseResource resource) {
+      super(resource);
+    }
+
+    @Override
+    public String getUserAgent() {
+      return null;
+    }
+
+    @Override
+    public void handleHttpResponse(HttpResponse response) {
+      try {
+        body = new SyncResponse(response).body();
+      } catch (Exception e) {
+        exception = e;
+      }
+    }
+
+    @Override
+    public void handleHttpProtocolException(ClientProtocolException e) {
+      exception = e;
+    }
+
+    @Override
+    public void handleHttpIOException(IOException e) {
+      exception = e;
+    }
+
+    @Override
+    public void handleTransportException(GeneralSecurityException e) {
+      exception = e;
+    }
+  }
+
+  protected ResultDelegate get() throws Exception {
+    // Sessions are told apart from new ones by creation time.
+    Thread.sleep(5);
+    final BaseResource resource = new BaseResource("https://127.0.0.1:" + serverSocket.getLocalPort() + "/");
+    final ResultDelegate delegate = new ResultDelegate(resource);
+    resource.delegate = delegate;
+    resource.getBlocking();
+    return delegate;
+  }
+
+  protected void assertGet() throws Exception {
+    final ResultDelegate delegate = get();
+    if (delegate.exception != null) {
+      throw delegate.exception;
+    }
+    Assert.assertEquals("ok", delegate.body);
+  }
+
+  @Test
+  public void testResumeAfterShutdown() throws Exception {
+    final TLSHandshakeMetrics metrics = BaseResource.getTLSHandshakeMetrics();
+    assertGet();
+    Assert.assertEquals(1, metrics.getHandshakes());
+    Assert.assertEquals(0, metrics.getResumedHandshakes());
+
+    BaseResource.shutdownConnectionManager();
+    assertGet();
+    Assert.assertEquals(2, connectionsAccepted);
+    Assert.assertEquals(2, metrics.getHandshakes());
+    Assert.assertEquals(1, metrics.getResumedHandshakes());
+    Assert.assertTrue(metrics.getTotalHandshakeNanos() > 0);
+  }
+
+  @Test
+  public void testResumeAfterIdleEviction() throws Exception {
+    final TLSHandshakeMetrics metrics = BaseResource.getTLSHandshakeMetrics();
+    assertGet();
+    // Kept alive and reused: no new handshake.
+    assertGet();
+    Assert.assertEquals(1, connectionsAccepted);
+    Assert.assertEquals(1, metrics.getHandshakes());
+
+    BaseResource.closeIdleConnections(0);
+    assertGet();
+    Assert.assertEquals(2, connectionsAccepted);
+    Assert.assertEquals(2, metrics.getHandshakes());
+    Assert.assertEquals(1, metrics.getResumedHandshakes());
+  }
+
+  @Test
+  public void testProtocolSelection() throws Exception {
+    BaseResource.setTLSConfiguration(TLSConfiguration.custom()
+        .setTrustStore(trustStore)
+        .setProtocols("NoSuchProtocol", "TLSv1.2")
+        .build());
+    assertGet();
+    Assert.assertEquals("TLSv1.2", negotiatedProtocol);
+  }
+
+  @Test
+  public void testNoSupportedProtocols() throws Exception {
+    BaseResource.setTLSConfiguration(TLSConfiguration.custom()
+        .setTrustStore(trustStore)
+        .setProtocols("NoSuchProtocol")
+        .build());
+    final ResultDelegate delegate = get();
+    Assert.assertNotNull(delegate.exception);
+    Assert.assertEquals(0, BaseResource.getTLSHandshakeMetrics().getHandshakes());
+    Assert.assertTrue(BaseResource.getTLSHandshakeMetrics().getFailedHandshakes() > 0);
+  }
+
+  @Test
+  public void testUntrustedServer() throws Exception {
+    BaseResource.setTLSConfiguration(TLSConfiguration.DEFAULT);
+    final ResultDelegate delegate = get();
+    Assert.assertNotNull(delegate.exception);
+  }
+
+  @Test
+  public void testSelect() {
+    Assert.assertArrayEquals(new String[] { "c", "a" },
+        TLSSocketFactory.select(new String[] { "c", "x", "a" }, new String[] { "a", "b", "c" }));
+    Assert.assertEquals(0, TLSSocketFactory.select(new String[] { "x" }, new String[] { "a" }).length);
+  }
+}
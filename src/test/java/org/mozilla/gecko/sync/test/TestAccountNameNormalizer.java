@@ -0,0 +1,71 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.MessageDigest;
+import java.util.Locale;
+
+import org.apache.commons.codec.binary.Base32;
+import org.junit.Test;
+import org.mozilla.gecko.sync.AccountNameNormalizer;
+import org.mozilla.gecko.sync.Utils;
+
+public class TestAccountNameNormalizer {
+  /*
+   * What usernameFromAccount used to compute.
+   */
+  private static String reference(String account) throws Exception {
+    if (account.matches("^[A-Za-z0-9._-]+$")) {
+      return account.toLowerCase(Locale.US);
+    }
+    byte[] sha1 = MessageDigest.getInstance("SHA-1").digest(account.toLowerCase(Locale.US).getBytes("UTF-8"));
+    return new Base32().encodeAsString(sha1).toLowerCase(Locale.US);
+  }
+
+  @Test
+  public void testMatchesReference() throws Exception {
+    String[] accounts = new String[] {
+        "smqvooxj664hmrkrv6bw4r4vkegjhkns",
+        "Test.User_1-2",
+        "test@example.com",
+        "Test@Example.COM",
+        "with space",
+        "ünïcödé",
+        "a+b",
+        "-",
+    };
+    for (String account : accounts) {
+      AccountNameNormalizer.clearCache();
+      assertEquals(account, reference(account), Utils.usernameFromAccount(account));
+      // And again from the cache.
+      assertEquals(account, reference(account), Utils.usernameFromAccount(account));
+    }
+  }
+
+  @Test
+  public void testIsPlainAccountName() {
+    assertTrue(AccountNameNormalizer.isPlainAccountName("azAZ09._-"));
+    assertFalse(AccountNameNormalizer.isPlainAccountName(""));
+    assertFalse(AccountNameNormalizer.isPlainAccountName("a@b"));
+    assertFalse(AccountNameNormalizer.isPlainAccountName("a\nb"));
+    assertFalse(AccountNameNormalizer.isPlainAccountName("а"));
+  }
+
+  @Test
+  public void testSha1Base32() throws Exception {
+    for (String in : new String[] { "", "a", "test@example.com", "https://example.com:test" }) {
+      byte[] sha1 = MessageDigest.getInstance("SHA-1").digest(in.getBytes("UTF-8"));
+      assertEquals(new Base32().encodeAsString(sha1).toLowerCase(Locale.US), AccountNameNormalizer.sha1Base32(in));
+    }
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testEmptyAccount() throws Exception {
+    Utils.usernameFromAccount("");
+  }
+}
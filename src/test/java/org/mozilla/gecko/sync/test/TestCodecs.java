@@ -0,0 +1,90 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mozilla.gecko.sync.Base64Codec;
+import org.mozilla.gecko.sync.HexCodec;
+import org.mozilla.gecko.sync.Utils;
+
+public class TestCodecs {
+  @Test
+  public void testHexMatchesCommonsCodec() throws Exception {
+    final Random random = new Random(1L);
+    for (int length = 0; length < 70; length++) {
+      final byte[] bytes = new byte[length];
+      random.nextBytes(bytes);
+      final String hex = new String(Hex.encodeHex(bytes));
+      Assert.assertEquals(hex, HexCodec.encodeToString(bytes));
+      Assert.assertEquals(hex, Utils.byte2Hex(bytes));
+      Assert.assertArrayEquals(bytes, Utils.hex2Byte(hex));
+      Assert.assertArrayEquals(bytes, Utils.hex2Byte(hex.toUpperCase()));
+    }
+  }
+
+  @Test
+  public void testHexPaddingAndOddLength() {
+    Assert.assertEquals("000a0b", Utils.byte2Hex(new byte[] { 0x0a, 0x0b }, 6));
+    Assert.assertEquals("0a0b", Utils.byte2Hex(new byte[] { 0x0a, 0x0b }, 2));
+    Assert.assertArrayEquals(new byte[] { 0x0a, (byte) 0xbc }, Utils.hex2Byte("abc"));
+    Assert.assertArrayEquals(new byte[] { 0x00, 0x00, 0x0a, (byte) 0xbc }, Utils.hex2Byte("abc", 4));
+  }
+
+  @Test(expected=NumberFormatException.class)
+  public void testHexInvalid() {
+    Utils.hex2Byte("0g");
+  }
+
+  @Test
+  public void testHexOffsets() {
+    final byte[] src = new byte[] { 1, 2, (byte) 0xfe, 4 };
+    final char[] chars = new char[6];
+    Assert.assertEquals(4, HexCodec.encode(src, 1, 2, chars, 1));
+    Assert.assertEquals("\u000002fe\u0000", new String(chars));
+    final byte[] dst = new byte[4];
+    Assert.assertEquals(2, HexCodec.decode("xx02fe", 2, 4, dst, 1));
+    Assert.assertArrayEquals(new byte[] { 0, 2, (byte) 0xfe, 0 }, dst);
+  }
+
+  @Test
+  public void testBase64MatchesCommonsCodec() throws Exception {
+    final Random random = new Random(2L);
+    for (int length = 0; length < 70; length++) {
+      final byte[] bytes = new byte[length];
+      random.nextBytes(bytes);
+      final String encoded = new String(Base64.encodeBase64(bytes), "UTF-8");
+      Assert.assertEquals(encoded, Base64Codec.encodeToString(bytes));
+      Assert.assertArrayEquals(bytes, Base64Codec.decode(encoded));
+
+      final String urlSafe = Base64.encodeBase64URLSafeString(bytes);
+      Assert.assertArrayEquals(bytes, Base64Codec.decode(urlSafe));
+      final String chunked = new String(Base64.encodeBase64Chunked(bytes), "UTF-8");
+      Assert.assertArrayEquals(bytes, Base64Codec.decode(chunked));
+    }
+  }
+
+  @Test
+  public void testBase64LenientLikeCommonsCodec() throws Exception {
+    for (String input : new String[] { "", "A", "AB", "ABC", "ABCD", "AB=CD", "A B\nC D", "ABCéD", "Zm9v=" }) {
+      Assert.assertArrayEquals(input, Base64.decodeBase64(input.getBytes("UTF-8")), Base64Codec.decode(input));
+    }
+  }
+
+  @Test
+  public void testBase64Offsets() {
+    final byte[] src = new byte[] { 9, 'f', 'o', 'o', 9 };
+    final byte[] dst = new byte[6];
+    Assert.assertEquals(4, Base64Codec.encode(src, 1, 3, dst, 1));
+    Assert.assertEquals("Zm9v", new String(Arrays.copyOfRange(dst, 1, 5)));
+    final byte[] decoded = new byte[5];
+    Assert.assertEquals(3, Base64Codec.decode(dst, 1, 4, decoded, 2));
+    Assert.assertArrayEquals(new byte[] { 0, 0, 'f', 'o', 'o' }, decoded);
+  }
+}
@@ -0,0 +1,110 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.json.simple.parser.ParseException;
+import org.junit.Test;
+import org.mozilla.gecko.sync.CryptoRecord;
+import org.mozilla.gecko.sync.ExtendedJSONObject;
+import org.mozilla.gecko.sync.crypto.KeyBundle;
+import org.mozilla.gecko.sync.repositories.domain.RecordParseException;
+
+public class TestCryptoRecord {
+  protected static final String PAYLOAD = "{\"id\":\"abcdefghijkl\",\"title\":\"Title\"}";
+
+  protected static String recordJSON(String payload) {
+    ExtendedJSONObject o = new ExtendedJSONObject();
+    o.put("id", "abcdefghijkl");
+    o.put("collection", "bookmarks");
+    o.put("modified", 1234.56);
+    o.put("sortindex", 100L);
+    o.put("payload", payload);
+    return o.toJSONString();
+  }
+
+  @Test
+  public void testLazyReadsMetadataOnly() throws Exception {
+    CryptoRecord record = CryptoRecord.fromJSONRecord(recordJSON(PAYLOAD), true);
+    assertEquals("abcdefghijkl", record.guid);
+    assertEquals("bookmarks", record.collection);
+    assertEquals(1234560L, record.lastModified);
+    assertEquals(100L, record.sortIndex);
+    assertFalse(record.isPayloadParsed());
+    assertNull(record.payload);
+
+    assertEquals("Title", record.getPayload().getString("title"));
+    assertTrue(record.isPayloadParsed());
+  }
+
+  @Test
+  public void testLazyMatchesEager() throws Exception {
+    CryptoRecord eager = CryptoRecord.fromJSONRecord(recordJSON(PAYLOAD));
+    CryptoRecord lazy = CryptoRecord.fromJSONRecord(recordJSON(PAYLOAD), true);
+    assertTrue(eager.isPayloadParsed());
+    assertEquals(eager.payload, lazy.getPayload());
+    assertEquals(eager.lastModified, lazy.lastModified);
+    assertEquals(eager.sortIndex, lazy.sortIndex);
+  }
+
+  @Test
+  public void testMalformedPayloadReportedOnAccess() throws Exception {
+    CryptoRecord record = CryptoRecord.fromJSONRecord(recordJSON("{not json"), true);
+    assertEquals("abcdefghijkl", record.guid);
+    try {
+      record.getPayload();
+      fail("Expected ParseException.");
+    } catch (ParseException e) {
+      // Expected.
+    }
+  }
+
+  @Test(expected=RecordParseException.class)
+  public void testLazyMissingPayload() throws Exception {
+    ExtendedJSONObject o = new ExtendedJSONObject();
+    o.put("id", "abcdefghijkl");
+    CryptoRecord.fromJSONRecord(o, true);
+  }
+
+  @Test
+  public void testUnparsedPayloadWrittenBackAsIs() throws Exception {
+    String payload = "{ \"id\" : \"abcdefghijkl\" }";
+    CryptoRecord record = CryptoRecord.fromJSONRecord(recordJSON(payload), true);
+    assertEquals(payload, record.toJSONObject().get("payload"));
+    assertFalse(record.isPayloadParsed());
+  }
+
+  @Test
+  public void testLazyDecrypt() throws Exception {
+    KeyBundle keys = KeyBundle.withRandomKeys();
+    CryptoRecord cleartext = new CryptoRecord(ExtendedJSONObject.parseJSONObject(PAYLOAD));
+    cleartext.guid = "abcdefghijkl";
+    cleartext.keyBundle = keys;
+    String encrypted = cleartext.encrypt().toJSONString();
+
+    CryptoRecord lazy = CryptoRecord.fromJSONRecord(encrypted, true);
+    assertFalse(lazy.isPayloadParsed());
+    lazy.keyBundle = keys;
+    lazy.decrypt();
+    assertEquals("Title", lazy.payload.getString("title"));
+  }
+
+  @Test
+  public void testLazyEncryptUsesRawPayload() throws Exception {
+    KeyBundle keys = KeyBundle.withRandomKeys();
+    CryptoRecord record = CryptoRecord.fromJSONRecord(recordJSON(PAYLOAD), true);
+    record.keyBundle = keys;
+    record.encrypt();
+
+    CryptoRecord roundTripped = CryptoRecord.fromJSONRecord(record.toJSONString());
+    roundTripped.keyBundle = keys;
+    roundTripped.decrypt();
+    assertEquals(ExtendedJSONObject.parseJSONObject(PAYLOAD), roundTripped.payload);
+  }
+}
@@ -0,0 +1,195 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.mozilla.gecko.sync.CryptoRecord;
+import org.mozilla.gecko.sync.CryptoRecordReader;
+import org.mozilla.gecko.sync.CryptoRecordWriter;
+import org.mozilla.gecko.sync.ExtendedJSONObject;
+import org.mozilla.gecko.sync.crypto.KeyBundle;
+
+public class TestCryptoRecordBinary {
+  protected static final String PAYLOAD = "{\"id\":\"abcdefghijkl\",\"title\":\"Tïtle ☃ 😀\"}";
+
+  protected static byte[] write(CryptoRecord... records) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    CryptoRecordWriter writer = new CryptoRecordWriter(bytes);
+    for (CryptoRecord record : records) {
+      writer.write(record);
+    }
+    writer.close();
+    return bytes.toByteArray();
+  }
+
+  protected static CryptoRecord cleartextRecord() throws Exception {
+    CryptoRecord record = new CryptoRecord(ExtendedJSONObject.parseJSONObject(PAYLOAD));
+    record.guid = "abcdefghijkl";
+    record.collection = "bookmarks";
+    record.lastModified = 1400000000123L;
+    record.sortIndex = -5;
+    record.ttl = -1;
+    return record;
+  }
+
+  @Test
+  public void testMetadataRoundTrip() throws Exception {
+    CryptoRecord deleted = new CryptoRecord();
+    deleted.guid = "deleteddelet";
+    deleted.deleted = true;
+    deleted.lastModified = Long.MAX_VALUE;
+    deleted.sortIndex = Long.MIN_VALUE;
+
+    CryptoRecordReader reader = new CryptoRecordReader(new ByteArrayInputStream(write(cleartextRecord(), deleted)));
+    assertEquals(CryptoRecordWriter.VERSION, reader.getVersion());
+
+    CryptoRecord first = reader.read();
+    assertEquals("abcdefghijkl", first.guid);
+    assertEquals("bookmarks", first.collection);
+    assertEquals(1400000000123L, first.lastModified);
+    assertEquals(-5, first.sortIndex);
+    assertEquals(-1, first.ttl);
+    assertFalse(first.deleted);
+    assertFalse(first.isPayloadParsed());
+    assertEquals(ExtendedJSONObject.parseJSONObject(PAYLOAD), first.getPayload());
+
+    CryptoRecord second = reader.read();
+    assertEquals("deleteddelet", second.guid);
+    assertNull(second.collection);
+    assertTrue(second.deleted);
+    assertEquals(Long.MAX_VALUE, second.lastModified);
+    assertEquals(Long.MIN_VALUE, second.sortIndex);
+    assertNull(second.getPayload());
+
+    assertNull(reader.read());
+  }
+
+  @Test
+  public void testEncryptedRoundTrip() throws Exception {
+    KeyBundle keys = KeyBundle.withRandomKeys();
+    CryptoRecord record = cleartextRecord();
+    record.keyBundle = keys;
+    record.encrypt();
+    byte[] json = record.toJSONString().getBytes("UTF-8");
+    byte[] binary = write(record);
+    // Raw ciphertext, IV and HMAC rather than Base64 and hex.
+    assertTrue(binary.length < json.length * 3 / 4);
+
+    CryptoRecord read = new CryptoRecordReader(new ByteArrayInputStream(binary)).read();
+    assertFalse(read.isPayloadParsed());
+    // Re-writing raw parts doesn't change anything.
+    assertTrue(Arrays.equals(binary, write(read)));
+
+    read.keyBundle = keys;
+    read.decrypt();
+    assertEquals(ExtendedJSONObject.parseJSONObject(PAYLOAD), read.payload);
+  }
+
+  @Test
+  public void testEncryptedPayloadMaterialized() throws Exception {
+    KeyBundle keys = KeyBundle.withRandomKeys();
+    CryptoRecord record = cleartextRecord();
+    record.keyBundle = keys;
+    record.encrypt();
+
+    CryptoRecord read = new CryptoRecordReader(new ByteArrayInputStream(write(record))).read();
+    assertEquals(record.payload, read.getPayload());
+    assertEquals(record.toJSONString(), read.toJSONString());
+  }
+
+  @Test
+  public void testNonCanonicalEnvelopeKeptAsJSON() throws Exception {
+    ExtendedJSONObject payload = new ExtendedJSONObject();
+    payload.put("ciphertext", "not base64!");
+    payload.put("IV", "AAAAAAAAAAAAAAAAAAAAAA==");
+    payload.put("hmac", "ABCDEF");
+    CryptoRecord record = new CryptoRecord(payload);
+    record.guid = "abcdefghijkl";
+
+    CryptoRecord read = new CryptoRecordReader(new ByteArrayInputStream(write(record))).read();
+    assertEquals(payload, read.getPayload());
+  }
+
+  @Test
+  public void testLazyRecordWrittenAsIs() throws Exception {
+    ExtendedJSONObject o = new ExtendedJSONObject();
+    o.put("id", "abcdefghijkl");
+    o.put("payload", PAYLOAD);
+    CryptoRecord lazy = CryptoRecord.fromJSONRecord(o, true);
+
+    CryptoRecord read = new CryptoRecordReader(new ByteArrayInputStream(write(lazy))).read();
+    assertEquals(ExtendedJSONObject.parseJSONObject(PAYLOAD), read.getPayload());
+    assertFalse(lazy.isPayloadParsed());
+  }
+
+  @Test
+  public void testLazyEncryptedRecordWrittenRaw() throws Exception {
+    KeyBundle keys = KeyBundle.withRandomKeys();
+    CryptoRecord record = cleartextRecord();
+    record.keyBundle = keys;
+    record.encrypt();
+    CryptoRecord lazy = CryptoRecord.fromJSONRecord(new ExtendedJSONObject(record.toJSONObject()), true);
+    assertFalse(lazy.isPayloadParsed());
+
+    byte[] binary = write(lazy);
+    assertFalse(lazy.isPayloadParsed());
+    // Raw ciphertext, IV and HMAC rather than the JSON payload.
+    assertTrue((binary[4] & CryptoRecordWriter.FLAG_ENCRYPTED) != 0);
+    assertTrue(binary.length < record.toJSONString().length() * 3 / 4);
+
+    CryptoRecord read = new CryptoRecordReader(new ByteArrayInputStream(binary)).read();
+    read.keyBundle = keys;
+    read.decrypt();
+    assertEquals(ExtendedJSONObject.parseJSONObject(PAYLOAD), read.payload);
+  }
+
+  @Test
+  public void testUnknownFlagsRejected() throws Exception {
+    byte[] binary = write(cleartextRecord());
+    // The first byte after the 4-byte header is the flags byte.
+    binary[4] |= 1 << 7;
+    CryptoRecordReader reader = new CryptoRecordReader(new ByteArrayInputStream(binary));
+    try {
+      reader.read();
+      fail("Expected IOException.");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("flags"));
+    }
+  }
+
+  @Test
+  public void testBadHeader() throws Exception {
+    try {
+      new CryptoRecordReader(new ByteArrayInputStream(new byte[] { 'S', 'R', 'B', 99 }));
+      fail("Expected IOException.");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("version"));
+    }
+    try {
+      new CryptoRecordReader(new ByteArrayInputStream("{\"id\":".getBytes("UTF-8")));
+      fail("Expected IOException.");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  @Test(expected=EOFException.class)
+  public void testTruncated() throws Exception {
+    byte[] binary = write(cleartextRecord());
+    CryptoRecordReader reader = new CryptoRecordReader(new ByteArrayInputStream(binary, 0, binary.length - 3));
+    reader.read();
+  }
+}
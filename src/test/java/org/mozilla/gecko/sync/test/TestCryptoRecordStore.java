@@ -0,0 +1,181 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.gecko.sync.CryptoRecord;
+import org.mozilla.gecko.sync.CryptoRecordStore;
+import org.mozilla.gecko.sync.ExtendedJSONObject;
+import org.mozilla.gecko.sync.crypto.KeyBundle;
+
+public class TestCryptoRecordStore {
+  protected File directory;
+  protected CryptoRecordStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = File.createTempFile("store", "");
+    directory.delete();
+    store = new CryptoRecordStore(directory, 1024);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    store.close();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  protected void reopen() throws Exception {
+    store.close();
+    store = new CryptoRecordStore(directory, 1024);
+  }
+
+  protected static CryptoRecord record(String guid, long lastModified) throws Exception {
+    ExtendedJSONObject payload = new ExtendedJSONObject();
+    payload.put("id", guid);
+    payload.put("title", "Title " + lastModified);
+    CryptoRecord record = new CryptoRecord(payload);
+    record.guid = guid;
+    record.collection = "bookmarks";
+    record.lastModified = lastModified;
+    return record;
+  }
+
+  protected static void assertGuids(List<CryptoRecord> records, String... guids) {
+    assertEquals(guids.length, records.size());
+    for (int i = 0; i < guids.length; i++) {
+      assertEquals(guids[i], records.get(i).guid);
+    }
+  }
+
+  @Test
+  public void testPutGetAcrossReopen() throws Exception {
+    KeyBundle keys = KeyBundle.withRandomKeys();
+    CryptoRecord record = record("guid00000001", 1000);
+    record.keyBundle = keys;
+    record.encrypt();
+    store.put(record);
+    store.put(record("guid00000002", 2000));
+    assertEquals(2, store.size());
+
+    reopen();
+    assertEquals(2, store.size());
+    CryptoRecord read = store.get("guid00000001");
+    assertEquals(1000, read.lastModified);
+    assertEquals("bookmarks", read.collection);
+    read.keyBundle = keys;
+    read.decrypt();
+    assertEquals("Title 1000", read.payload.getString("title"));
+    assertEquals("Title 2000", store.get("guid00000002").getPayload().getString("title"));
+    assertNull(store.get("missing00000"));
+  }
+
+  @Test
+  public void testReplaceAndRemove() throws Exception {
+    store.put(record("guid00000001", 1000));
+    store.put(record("guid00000002", 2000));
+    store.put(record("guid00000001", 3000));
+    assertTrue(store.remove("guid00000002"));
+    assertFalse(store.remove("guid00000002"));
+
+    reopen();
+    assertEquals(1, store.size());
+    assertEquals(3000, store.get("guid00000001").lastModified);
+    assertNull(store.get("guid00000002"));
+    assertEquals(3000, store.getHighWaterMark());
+  }
+
+  @Test
+  public void testScan() throws Exception {
+    assertEquals(-1, store.getHighWaterMark());
+    store.put(record("guid00000003", 3000));
+    store.put(record("guid00000001", 1000));
+    store.put(record("guid00000002", 2000));
+    store.put(record("guid0000002b", 2000));
+
+    assertGuids(store.scan(1000, 3000), "guid00000001", "guid00000002", "guid0000002b");
+    assertGuids(store.scan(1001, Long.MAX_VALUE), "guid00000002", "guid0000002b", "guid00000003");
+    assertGuids(store.scan(3000, 1000));
+    assertEquals(3000, store.getHighWaterMark());
+  }
+
+  @Test
+  public void testCompact() throws Exception {
+    // Small segments, so this spans several.
+    for (int i = 0; i < 50; i++) {
+      store.put(record("guid" + (10000000 + (i % 10)), i));
+    }
+    assertTrue(directory.listFiles().length > 2);
+    assertTrue(store.getTotalBytes() > 4 * store.getLiveBytes());
+
+    store.compact();
+    assertEquals(store.getLiveBytes(), store.getTotalBytes());
+    assertEquals(10, store.size());
+    store.put(record("guid99999999", 100));
+
+    reopen();
+    assertEquals(11, store.size());
+    assertGuids(store.scan(45, 50), "guid10000005", "guid10000006", "guid10000007", "guid10000008", "guid10000009");
+    assertEquals(49, store.get("guid10000009").lastModified);
+    assertEquals(100, store.getHighWaterMark());
+  }
+
+  @Test
+  public void testRecordBiggerThanSegment() throws Exception {
+    CryptoRecord big = record("guid00000001", 1000);
+    StringBuilder title = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      title.append("long ");
+    }
+    big.payload.put("title", title.toString());
+    store.put(big);
+    store.put(record("guid00000002", 2000));
+
+    reopen();
+    assertEquals(title.toString(), store.get("guid00000001").getPayload().getString("title"));
+    assertEquals(2000, store.get("guid00000002").lastModified);
+  }
+
+  @Test
+  public void testTornEntryDropped() throws Exception {
+    store.put(record("guid00000001", 1000));
+    store.put(record("guid00000002", 2000));
+    store.close();
+
+    // Corrupt the second entry's body.
+    File segment = directory.listFiles()[0];
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    int first = file.readInt();
+    file.seek(9 + first + 9 + 3);
+    file.write(0xff);
+    file.close();
+
+    store = new CryptoRecordStore(directory, 1024);
+    assertEquals(1, store.size());
+    assertNull(store.get("guid00000002"));
+
+    // Appends carry on from the good entries.
+    store.put(record("guid00000003", 3000));
+    reopen();
+    assertEquals(2, store.size());
+    assertEquals(3000, store.get("guid00000003").lastModified);
+  }
+}
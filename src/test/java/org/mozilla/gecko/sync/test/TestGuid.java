@@ -0,0 +1,61 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+import org.mozilla.gecko.sync.Guid;
+import org.mozilla.gecko.sync.Utils;
+
+public class TestGuid {
+  @Test
+  public void testRoundTrip() {
+    for (int i = 0; i < 1000; i++) {
+      String s = Utils.generateGuid();
+      Guid guid = Guid.fromString(s);
+      assertTrue(guid.isCompact());
+      assertEquals(s, guid.toString());
+      assertArrayEquals(Base64.decodeBase64(s.replace('-', '+').replace('_', '/')), guid.toBytes());
+      assertEquals(guid, Guid.fromBytes(guid.toBytes()));
+    }
+    for (String s : new String[] { "AAAAAAAAAAAA", "____________", "-_-_-_-_-_-_" }) {
+      assertEquals(s, Guid.fromString(s).toString());
+    }
+  }
+
+  @Test
+  public void testGenerateCompactGuid() {
+    Guid guid = Utils.generateCompactGuid();
+    assertTrue(guid.isCompact());
+    assertEquals(Guid.LENGTH, guid.toString().length());
+    assertTrue(Guid.isCompact(guid.toString()));
+  }
+
+  @Test
+  public void testNonCompact() {
+    for (String s : new String[] { "menu", "", "abcdefghijk+", "abcdefghijklm", "abcdefghijké" }) {
+      Guid guid = Guid.fromString(s);
+      assertFalse(guid.isCompact());
+      assertEquals(s, guid.toString());
+      assertEquals(guid, Guid.fromString(s));
+    }
+  }
+
+  @Test
+  public void testEquality() {
+    Guid a = Guid.fromString("abcdefghijkl");
+    Guid b = Guid.fromString("abcdefghijkl");
+    assertEquals(a, b);
+    assertEquals(a.hashCode(), b.hashCode());
+    assertFalse(a.equals(Guid.fromString("abcdefghijkm")));
+    assertFalse(a.equals(Guid.fromString("menu")));
+    assertFalse(Guid.fromString("menu").equals(a));
+    assertFalse(a.equals("abcdefghijkl"));
+  }
+}
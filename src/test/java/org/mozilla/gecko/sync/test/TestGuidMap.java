@@ -0,0 +1,83 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+import org.mozilla.gecko.sync.Guid;
+import org.mozilla.gecko.sync.GuidMap;
+import org.mozilla.gecko.sync.Utils;
+
+public class TestGuidMap {
+  @Test
+  public void testBasics() {
+    GuidMap<String> map = new GuidMap<String>();
+    assertNull(map.put("abcdefghijkl", "compact"));
+    assertNull(map.put("menu", "root"));
+    assertEquals("compact", map.put(Guid.fromString("abcdefghijkl"), "replaced"));
+
+    assertEquals(2, map.size());
+    assertEquals("replaced", map.get("abcdefghijkl"));
+    assertEquals("root", map.get(Guid.fromString("menu")));
+    assertTrue(map.containsKey("menu"));
+    assertFalse(map.containsKey("toolbar"));
+    assertNull(map.get("abcdefghijkm"));
+
+    assertEquals("root", map.remove("menu"));
+    assertNull(map.remove("menu"));
+    assertEquals(1, map.size());
+
+    GuidMap<String>.Cursor cursor = map.cursor();
+    assertTrue(cursor.next());
+    assertEquals("abcdefghijkl", cursor.guidString());
+    assertEquals(Guid.fromString("abcdefghijkl"), cursor.guid());
+    assertEquals("replaced", cursor.value());
+    assertFalse(cursor.next());
+
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertNull(map.get("abcdefghijkl"));
+  }
+
+  @Test
+  public void testMatchesHashMap() {
+    Random random = new Random(3);
+    GuidMap<Integer> map = new GuidMap<Integer>();
+    HashMap<String, Integer> expected = new HashMap<String, Integer>();
+    ArrayList<String> guids = new ArrayList<String>();
+    for (int i = 0; i < 2000; i++) {
+      guids.add(i % 10 == 0 ? "legacy" + i : Utils.generateGuid());
+    }
+
+    for (int i = 0; i < 50000; i++) {
+      String guid = guids.get(random.nextInt(guids.size()));
+      switch (random.nextInt(3)) {
+      case 0:
+        assertEquals(expected.remove(guid), map.remove(guid));
+        break;
+      case 1:
+        assertEquals(expected.put(guid, i), map.put(guid, i));
+        break;
+      default:
+        assertEquals(expected.get(guid), map.get(Guid.fromString(guid)));
+      }
+    }
+    assertEquals(expected.size(), map.size());
+
+    HashMap<String, Integer> seen = new HashMap<String, Integer>();
+    GuidMap<Integer>.Cursor cursor = map.cursor();
+    while (cursor.next()) {
+      seen.put(cursor.guidString(), cursor.value());
+    }
+    assertEquals(expected, seen);
+  }
+}
@@ -0,0 +1,99 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mozilla.gecko.sync.InstrumentedExecutor;
+
+public class TestInstrumentedExecutor {
+  @Test
+  public void testNamedThreadsAndMetrics() throws Exception {
+    final InstrumentedExecutor executor = new InstrumentedExecutor("test-pool", 2, 2, 10, 60);
+    final AtomicReference<String> threadName = new AtomicReference<String>();
+    final CountDownLatch latch = new CountDownLatch(5);
+    for (int i = 0; i < 5; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          threadName.set(Thread.currentThread().getName());
+          latch.countDown();
+        }
+      });
+    }
+    Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+    Assert.assertTrue(executor.shutdownGracefully(10, TimeUnit.SECONDS));
+
+    Assert.assertTrue(threadName.get().startsWith("test-pool-"));
+    final InstrumentedExecutor.Metrics metrics = executor.getMetrics();
+    Assert.assertEquals(5, metrics.submittedTasks);
+    Assert.assertEquals(5, metrics.completedTasks);
+    Assert.assertEquals(0, metrics.rejectedTasks);
+    Assert.assertEquals(0, metrics.queueDepth);
+    Assert.assertTrue(metrics.largestPoolSize <= 2);
+  }
+
+  @Test
+  public void testBackpressure() throws Exception {
+    final InstrumentedExecutor executor = new InstrumentedExecutor("test-pool", 1, 1, 1, 60);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Runnable blocker = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    executor.execute(blocker); // Running.
+    executor.execute(blocker); // Queued.
+
+    // Saturated: the default policy runs the task on this thread.
+    final AtomicReference<Thread> ranOn = new AtomicReference<Thread>();
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        ranOn.set(Thread.currentThread());
+      }
+    });
+    Assert.assertSame(Thread.currentThread(), ranOn.get());
+    Assert.assertEquals(1, executor.getMetrics().rejectedTasks);
+    Assert.assertEquals(1, executor.getMetrics().queueDepth);
+
+    release.countDown();
+    Assert.assertTrue(executor.shutdownGracefully(10, TimeUnit.SECONDS));
+  }
+
+  @Test(expected=RejectedExecutionException.class)
+  public void testAbortPolicy() throws Exception {
+    final InstrumentedExecutor executor = new InstrumentedExecutor("test-pool", 1, 1, 1, 60, new ThreadPoolExecutor.AbortPolicy());
+    final CountDownLatch release = new CountDownLatch(1);
+    final Runnable blocker = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    try {
+      executor.execute(blocker);
+      executor.execute(blocker);
+      executor.execute(blocker);
+    } finally {
+      release.countDown();
+      executor.shutdownGracefully(10, TimeUnit.SECONDS);
+    }
+  }
+}
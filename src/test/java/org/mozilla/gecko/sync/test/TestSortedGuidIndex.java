@@ -0,0 +1,164 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.mozilla.gecko.sync.SortedGuidIndex;
+import org.mozilla.gecko.sync.Utils;
+
+public class TestSortedGuidIndex {
+  protected static List<String> ascending(SortedGuidIndex index, long from, long to) {
+    ArrayList<String> guids = new ArrayList<String>();
+    SortedGuidIndex.Cursor cursor = index.ascending(from, to);
+    while (cursor.next()) {
+      guids.add(cursor.guid());
+    }
+    return guids;
+  }
+
+  protected static List<String> descending(SortedGuidIndex index, long from, long to) {
+    ArrayList<String> guids = new ArrayList<String>();
+    SortedGuidIndex.Cursor cursor = index.descending(from, to);
+    while (cursor.next()) {
+      guids.add(cursor.guid());
+    }
+    return guids;
+  }
+
+  protected static List<String> expected(TreeMap<Long, ArrayList<String>> map, long from, long to) {
+    ArrayList<String> guids = new ArrayList<String>();
+    for (ArrayList<String> bucket : map.subMap(from, true, to, true).values()) {
+      guids.addAll(bucket);
+    }
+    return guids;
+  }
+
+  @Test
+  public void testOrderAndTies() {
+    SortedGuidIndex index = new SortedGuidIndex(2);
+    index.add(30, "c");
+    index.add(10, "a");
+    index.add(20, "b1");
+    index.add(20, "b2");
+    index.add(Long.MAX_VALUE, "max");
+    index.add(Long.MIN_VALUE, "min");
+
+    assertEquals(6, index.size());
+    assertEquals(Arrays.asList("min", "a", "b1", "b2", "c", "max"), ascending(index, Long.MIN_VALUE, Long.MAX_VALUE));
+    assertEquals(Arrays.asList("b1", "b2", "c"), ascending(index, 11, 30));
+    assertEquals(Arrays.asList("c", "b2", "b1"), descending(index, 20, 30));
+    assertEquals(Arrays.asList("max", "c", "b2"), index.top(3));
+    assertEquals(Long.MIN_VALUE, index.firstKey());
+    assertEquals(Long.MAX_VALUE, index.lastKey());
+    assertTrue(ascending(index, 31, 30).isEmpty());
+    assertTrue(descending(index, 31, 40).isEmpty());
+  }
+
+  @Test
+  public void testRemove() {
+    SortedGuidIndex index = new SortedGuidIndex();
+    index.add(1, "a");
+    index.add(2, "b");
+    index.add(2, "c");
+    index.add(3, "d");
+
+    assertTrue(index.remove(2, "b"));
+    assertFalse(index.remove(2, "b"));
+    assertFalse(index.remove(3, "a"));
+    assertEquals(3, index.size());
+    assertEquals(Arrays.asList("a", "c", "d"), ascending(index, 0, 10));
+
+    assertTrue(index.remove(3, "d"));
+    assertTrue(index.remove(1, "a"));
+    assertEquals(Arrays.asList("c"), index.top(5));
+    assertEquals(2, index.firstKey());
+    assertEquals(2, index.lastKey());
+
+    index.clear();
+    assertTrue(index.isEmpty());
+    try {
+      index.lastKey();
+      fail("Expected NoSuchElementException.");
+    } catch (NoSuchElementException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testAddAll() {
+    SortedGuidIndex index = new SortedGuidIndex();
+    index.add(5, "x");
+    index.addAll(new long[] { 9, 1, 5 }, new String[] { "z", "w", "y" });
+    assertEquals(Arrays.asList("w", "x", "y", "z"), ascending(index, Long.MIN_VALUE, Long.MAX_VALUE));
+
+    // A big shuffled load, with plenty of ties.
+    Random random = new Random(7);
+    int n = 20000;
+    long[] keys = new long[n];
+    String[] guids = new String[n];
+    TreeMap<Long, ArrayList<String>> map = new TreeMap<Long, ArrayList<String>>();
+    for (int i = 0; i < n; i++) {
+      keys[i] = random.nextInt(1000) - 500;
+      guids[i] = "guid" + i;
+      Utils.addToIndexBucketMap(map, keys[i], guids[i]);
+    }
+    index.clear();
+    index.addAll(keys, guids);
+    assertEquals(n, index.size());
+    assertEquals(expected(map, Long.MIN_VALUE, Long.MAX_VALUE), ascending(index, Long.MIN_VALUE, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testMatchesBucketMap() {
+    Random random = new Random(42);
+    SortedGuidIndex index = new SortedGuidIndex();
+    TreeMap<Long, ArrayList<String>> map = new TreeMap<Long, ArrayList<String>>();
+    ArrayList<Long> keys = new ArrayList<Long>();
+    ArrayList<String> guids = new ArrayList<String>();
+
+    for (int i = 0; i < 5000; i++) {
+      if (!keys.isEmpty() && random.nextInt(4) == 0) {
+        int victim = random.nextInt(keys.size());
+        long key = keys.remove(victim);
+        String guid = guids.remove(victim);
+        assertTrue(index.remove(key, guid));
+        map.get(key).remove(guid);
+        if (map.get(key).isEmpty()) {
+          map.remove(key);
+        }
+      } else {
+        // Mostly increasing, like lastModified, with some stragglers.
+        long key = random.nextInt(10) == 0 ? random.nextInt(i + 1) : i + random.nextInt(50);
+        String guid = "guid" + i;
+        index.add(key, guid);
+        Utils.addToIndexBucketMap(map, key, guid);
+        keys.add(key);
+        guids.add(guid);
+      }
+      if (i % 100 == 0) {
+        long from = random.nextInt(i + 1);
+        long to = from + random.nextInt(500);
+        assertEquals(expected(map, from, to), ascending(index, from, to));
+        List<String> reversed = new ArrayList<String>(expected(map, from, to));
+        Collections.reverse(reversed);
+        assertEquals(reversed, descending(index, from, to));
+      }
+    }
+    assertEquals(keys.size(), index.size());
+    assertEquals(expected(map, Long.MIN_VALUE, Long.MAX_VALUE), ascending(index, Long.MIN_VALUE, Long.MAX_VALUE));
+  }
+}
@@ -0,0 +1,59 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mozilla.gecko.sync.ThreadPool;
+
+public class TestThreadPool {
+  @Test
+  public void testTasksRunConcurrently() throws Exception {
+    // Every task waits for all the others, so this only finishes if the
+    // shared pool runs them at the same time rather than queueing them.
+    final int count = 16;
+    final CyclicBarrier barrier = new CyclicBarrier(count);
+    final CountDownLatch done = new CountDownLatch(count);
+    for (int i = 0; i < count; i++) {
+      ThreadPool.run(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            barrier.await(10, TimeUnit.SECONDS);
+            done.countDown();
+          } catch (Exception e) {
+            // Leave the latch short.
+          }
+        }
+      });
+    }
+    Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testFailedTasksCounted() throws Exception {
+    final long failedBefore = ThreadPool.getMetrics().failedTasks;
+    final long completedBefore = ThreadPool.getMetrics().completedTasks;
+    final CountDownLatch ran = new CountDownLatch(1);
+    ThreadPool.run(new Runnable() {
+      @Override
+      public void run() {
+        ran.countDown();
+        throw new IllegalStateException("task failed");
+      }
+    });
+    Assert.assertTrue(ran.await(10, TimeUnit.SECONDS));
+
+    // afterExecute runs just after the task returns.
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (ThreadPool.getMetrics().completedTasks == completedBefore && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(failedBefore + 1, ThreadPool.getMetrics().failedTasks);
+  }
+}
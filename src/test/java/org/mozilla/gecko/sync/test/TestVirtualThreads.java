@@ -0,0 +1,79 @@
+/* Any copyright is dedicated to the Public Domain.
+   http://creativecommons.org/publicdomain/zero/1.0/ */
+
+package org.mozilla.gecko.sync.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mozilla.gecko.sync.InstrumentedExecutor;
+import org.mozilla.gecko.sync.ThreadPool;
+import org.mozilla.gecko.sync.VirtualThreads;
+
+public class TestVirtualThreads {
+  @After
+  public void tearDown() {
+    ThreadPool.setVirtualThreadMode(false);
+  }
+
+  @Test
+  public void testDefaultModeUsesPlatformThreads() {
+    ThreadPool.setVirtualThreadMode(false);
+    Assert.assertFalse(ThreadPool.isVirtualThreadMode());
+    final ExecutorService executor = ThreadPool.getBlockingExecutor();
+    // Never the shared pool, and never unbounded.
+    Assert.assertFalse(ThreadPool.isUsingVirtualThreads());
+    Assert.assertNotSame(ThreadPool.getExecutorService(), executor);
+    Assert.assertTrue(executor instanceof InstrumentedExecutor);
+    Assert.assertEquals(ThreadPool.DEFAULT_MAX_THREADS, ((InstrumentedExecutor) executor).getMaximumPoolSize());
+    Assert.assertSame(executor, ThreadPool.getBlockingExecutor());
+  }
+
+  @Test
+  public void testDisablingLeavesExecutorUsable() throws Exception {
+    ThreadPool.setVirtualThreadMode(true);
+    final ExecutorService executor = ThreadPool.getBlockingExecutor();
+    ThreadPool.setVirtualThreadMode(false);
+    Assert.assertFalse(executor.isShutdown());
+    final CountDownLatch latch = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    });
+    Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testVirtualThreadMode() throws Exception {
+    ThreadPool.setVirtualThreadMode(true);
+    Assert.assertTrue(ThreadPool.isVirtualThreadMode());
+    final ExecutorService executor = ThreadPool.getBlockingExecutor();
+    if (VirtualThreads.isSupported()) {
+      Assert.assertNotSame(ThreadPool.getExecutorService(), executor);
+      Assert.assertSame(executor, ThreadPool.getBlockingExecutor());
+    } else {
+      // Falls back to a bounded pool of platform threads, not the shared pool.
+      Assert.assertFalse(ThreadPool.isUsingVirtualThreads());
+      Assert.assertNotSame(ThreadPool.getExecutorService(), executor);
+      Assert.assertTrue(executor instanceof InstrumentedExecutor);
+      Assert.assertNull(VirtualThreads.newVirtualThreadPerTaskExecutor());
+    }
+
+    final CountDownLatch latch = new CountDownLatch(100);
+    for (int i = 0; i < 100; i++) {
+      ThreadPool.runBlocking(new Runnable() {
+        @Override
+        public void run() {
+          latch.countDown();
+        }
+      });
+    }
+    Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+  }
+}